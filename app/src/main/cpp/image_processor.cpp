@@ -100,6 +100,113 @@ Java_com_camerainterceptor_processor_NativeImageProcessor_processBitmapToNV21(JN
     return result;
 }
 
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_camerainterceptor_processor_NativeImageProcessor_processBitmapToNV21Batch(JNIEnv *env, jclass clazz, jobject input_bitmap, jintArray target_widths, jintArray target_heights) {
+    if (target_widths == nullptr || target_heights == nullptr) return nullptr;
+
+    jsize count = env->GetArrayLength(target_widths);
+    if (count != env->GetArrayLength(target_heights)) {
+        LOGE("processBitmapToNV21Batch: width/height count mismatch");
+        return nullptr;
+    }
+
+    jclass byte_array_class = env->FindClass("[B");
+    if (byte_array_class == nullptr) return nullptr;
+    jobjectArray results = env->NewObjectArray(count, byte_array_class, nullptr);
+    if (results == nullptr || count == 0) return results;
+
+    std::vector<jint> widths(count);
+    std::vector<jint> heights(count);
+    env->GetIntArrayRegion(target_widths, 0, count, widths.data());
+    env->GetIntArrayRegion(target_heights, 0, count, heights.data());
+
+    AndroidBitmapInfo info;
+    void* pixels;
+    int ret;
+
+    if ((ret = AndroidBitmap_getInfo(env, input_bitmap, &info)) < 0) {
+        LOGE("AndroidBitmap_getInfo() failed! error=%d", ret);
+        return nullptr;
+    }
+
+    if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        LOGE("Bitmap format is not RGBA_8888!");
+        return nullptr;
+    }
+
+    // Lock the source once for the whole batch
+    if ((ret = AndroidBitmap_lockPixels(env, input_bitmap, &pixels)) < 0) {
+        LOGE("AndroidBitmap_lockPixels() failed! error=%d", ret);
+        return nullptr;
+    }
+
+    // Scratch buffer sized for the largest target, reused across the batch
+    size_t max_rgba = 0;
+    for (jsize i = 0; i < count; i++) {
+        if (widths[i] > 0 && heights[i] > 0) {
+            max_rgba = std::max(max_rgba, (size_t)widths[i] * heights[i] * 4);
+        }
+    }
+    std::vector<uint8_t> scaled_rgba(max_rgba);
+
+    for (jsize i = 0; i < count; i++) {
+        int dst_w = widths[i];
+        int dst_h = heights[i];
+        if (dst_w <= 0 || dst_h <= 0) continue;
+
+        // Repeated geometries share the first converted buffer
+        jsize previous = -1;
+        for (jsize j = 0; j < i; j++) {
+            if (widths[j] == dst_w && heights[j] == dst_h) {
+                previous = j;
+                break;
+            }
+        }
+        if (previous >= 0) {
+            jobject shared = env->GetObjectArrayElement(results, previous);
+            env->SetObjectArrayElement(results, i, shared);
+            env->DeleteLocalRef(shared);
+            continue;
+        }
+
+        int crop_x, crop_y, crop_w, crop_h;
+        calculateCenterCrop(info.width, info.height, dst_w, dst_h, crop_x, crop_y, crop_w, crop_h);
+        uint8_t* src_ptr = (uint8_t*)pixels + (crop_y * info.stride) + (crop_x * 4);
+
+        libyuv::ARGBScale(src_ptr, info.stride,
+                          crop_w, crop_h,
+                          scaled_rgba.data(), dst_w * 4,
+                          dst_w, dst_h,
+                          libyuv::kFilterBox);
+
+        jbyteArray nv21 = env->NewByteArray(dst_w * dst_h * 3 / 2);
+        if (nv21 == nullptr) {
+            // OutOfMemoryError is pending: release the source and make no further JNI calls
+            AndroidBitmap_unlockPixels(env, input_bitmap);
+            return nullptr;
+        }
+
+        jbyte* nv21_ptr = env->GetByteArrayElements(nv21, nullptr);
+        if (nv21_ptr != nullptr) {
+            uint8_t* y_plane = (uint8_t*)nv21_ptr;
+            uint8_t* uv_plane = y_plane + (dst_w * dst_h);
+            libyuv::ABGRToNV21(scaled_rgba.data(), dst_w * 4,
+                               y_plane, dst_w,
+                               uv_plane, dst_w,
+                               dst_w, dst_h);
+            env->ReleaseByteArrayElements(nv21, nv21_ptr, 0);
+            env->SetObjectArrayElement(results, i, nv21);
+        }
+        env->DeleteLocalRef(nv21);
+    }
+
+    AndroidBitmap_unlockPixels(env, input_bitmap);
+
+    LOGI("NativeImageProcessor: Generated %d NV21 buffers in one batch", count);
+    return results;
+}
+
 extern "C"
 JNIEXPORT jbyteArray JNICALL
 Java_com_camerainterceptor_processor_NativeImageProcessor_processBitmapToRGBA(JNIEnv *env, jclass clazz, jobject input_bitmap, jint target_width, jint target_height) {
@@ -4,23 +4,40 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
 import com.camerainterceptor.interfaces.HookCallback;
+import com.camerainterceptor.processor.SizeConstrainedEncoder;
+import com.camerainterceptor.utils.ExifSplicer;
 import com.camerainterceptor.utils.ImageUtils;
 import com.camerainterceptor.utils.Logger;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -30,7 +47,6 @@ import de.robv.android.xposed.callbacks.XC_LoadPackage;
 public class HookDispatcher {
     private static final String TAG = "HookDispatcher";
     private static final String PACKAGE_NAME = "com.camerainterceptor";
-    private static final String PREFS_NAME = "CameraInterceptorPrefs";
     private static final String PREF_IMAGE_PATH = "injected_image_path";
     private static final String PREF_ALLOWED_APPS = "allowed_apps"; // SAFE mode
     private static final String PREF_DEEP_APPS = "deep_apps"; // DEEP mode
@@ -42,16 +58,64 @@ public class HookDispatcher {
     // Edge case handling constants
     private static final long MIN_INJECTION_INTERVAL_MS = 100; // Minimum 100ms between injections
     private static final int MAX_IMAGE_SIZE_BYTES = 10 * 1024 * 1024; // 10MB max image size
-    private static final long CACHE_VALIDITY_MS = 30000; // Cache valid for 30 seconds
 
     // Rate limiting for rapid captures
     private static final AtomicLong lastInjectionTime = new AtomicLong(0);
 
-    // Cached image data with soft reference (allows GC under memory pressure)
+    // Cached image data with soft reference (allows GC under memory pressure).
+    // Kept until HookGate sees the image change and calls clearImageCache
     private static SoftReference<byte[]> cachedImageData = new SoftReference<>(null);
     private static SoftReference<Bitmap> cachedBitmap = new SoftReference<>(null);
-    private static long cachedImageTimestamp = 0;
+    // Numbers each decode into cachedBitmap, so derived payloads can name
+    // their source without keeping it reachable
+    private static long cachedBitmapId = 0;
+    private static String cachedBitmapPath = null;
+    // Immutable copy of the source at the size last asked for by a Bitmap API
+    private static SoftReference<Bitmap> cachedSizedBitmap = new SoftReference<>(null);
+    private static long cachedSizedSourceId = -1;
     private static String cachedImagePath = null;
+    private static volatile int imageGeneration = 0;
+    // Device every injected JPEG in this process claims to come from
+    private static volatile ImageUtils.ImageMetadata cameraProfile;
+
+    // Scaled JPEG / NV21 payloads keyed by "format:WxH", so preview, still and
+    // analysis streams each keep their own size instead of evicting each other.
+    // Bitmap.compress variants add their quality bucket: "png:q100:WxH"
+    private static final int MAX_SCALED_VARIANTS = 10;
+    private static final Map<String, ScaledVariant> scaledVariants = new LinkedHashMap<String, ScaledVariant>(8,
+            0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScaledVariant> eldest) {
+            return size() > MAX_SCALED_VARIANTS;
+        }
+    };
+
+    // Quality search for JPEGs that must fit a fixed-capacity buffer
+    private static final SizeConstrainedEncoder jpegFitter = new SizeConstrainedEncoder();
+
+    private static final class ScaledVariant {
+        final long sourceId; // The decode this payload was derived from
+        final SoftReference<byte[]> data;
+
+        ScaledVariant(long sourceId, byte[] data) {
+            this.sourceId = sourceId;
+            this.data = new SoftReference<>(data);
+        }
+    }
+
+    // Background thread used to prepare payloads before the first frame arrives
+    private static final ExecutorService prepareExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "InjectionPrepare");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Payload preparations in flight, keyed like scaledVariants, so a frame that
+    // missed its budget and the next one share a single preparation
+    private static final ConcurrentHashMap<String, Future<byte[]>> inFlightPayloads = new ConcurrentHashMap<>();
+    private static final AtomicLong budgetHits = new AtomicLong(0);
+    private static final AtomicLong budgetMisses = new AtomicLong(0);
+    static final long DEFAULT_INJECTION_BUDGET_MS = ModulePrefs.DEFAULT_INJECTION_BUDGET_MS;
 
     private final Context context;
     private final XC_LoadPackage.LoadPackageParam lpparam;
@@ -60,6 +124,7 @@ public class HookDispatcher {
     private final Handler mainHandler;
     private XSharedPreferences prefs;
     private com.camerainterceptor.processor.ViewfinderManager viewfinderManager;
+    private final HookGate gate;
 
     public HookDispatcher(Context context, XC_LoadPackage.LoadPackageParam lpparam) {
         this.context = context;
@@ -70,11 +135,13 @@ public class HookDispatcher {
         this.viewfinderManager = new com.camerainterceptor.processor.ViewfinderManager(this);
 
         // Initialize XSharedPrefs
-        this.prefs = new XSharedPreferences(PACKAGE_NAME, PREFS_NAME);
+        this.prefs = new XSharedPreferences(PACKAGE_NAME, ModulePrefs.NAME);
         this.prefs.makeWorldReadable();
 
         loadInjectionConfiguration();
 
+        this.gate = new HookGate(this);
+
         Logger.i(TAG, "HookDispatcher initialized for package: " + lpparam.packageName);
     }
 
@@ -123,6 +190,18 @@ public class HookDispatcher {
         }
     }
 
+    /**
+     * Per-process gate every hook body should consult instead of
+     * {@link #isPackageAllowed()} / {@link #isInjectionEnabled()}.
+     */
+    public HookGate getGate() {
+        return gate;
+    }
+
+    boolean hasPrefsFileChanged() {
+        return prefs != null && prefs.hasFileChanged();
+    }
+
     public Context getContext() {
         return context;
     }
@@ -210,6 +289,17 @@ public class HookDispatcher {
         return prefs.getBoolean("profiling_enabled", false);
     }
 
+    /**
+     * How long a hook may wait for the injected payload before letting the
+     * real frame through.
+     */
+    public long getInjectionBudgetMs() {
+        if (prefs == null)
+            return DEFAULT_INJECTION_BUDGET_MS;
+        prefs.reload();
+        return ModulePrefs.readInjectionBudgetMs(prefs);
+    }
+
     /**
      * Check if Viewfinder Spoofing (Phase 3) is enabled in settings.
      */
@@ -220,6 +310,37 @@ public class HookDispatcher {
         return prefs.getBoolean("spoof_viewfinder", true);
     }
 
+    /**
+     * Check if camera intents should be answered with the injected image
+     * instead of launching a camera app.
+     */
+    public boolean isIntentFulfilmentEnabled() {
+        if (prefs == null)
+            return false;
+        prefs.reload();
+        return ModulePrefs.readIntentFulfilment(prefs);
+    }
+
+    /**
+     * Global minimum log level from settings, as an android.util.Log constant.
+     */
+    public int getLogLevel() {
+        if (prefs == null)
+            return Log.DEBUG;
+        prefs.reload();
+        return ModulePrefs.readLogLevel(prefs);
+    }
+
+    /**
+     * Per-tag log level overrides from settings, such as "Camera2Hook=INFO".
+     */
+    public String getLogTagLevels() {
+        if (prefs == null)
+            return null;
+        prefs.reload();
+        return ModulePrefs.readLogTagLevels(prefs);
+    }
+
     private boolean isPackageAllowedInPrefs(String packageName) {
         if (prefs == null)
             return true;
@@ -251,7 +372,7 @@ public class HookDispatcher {
             }
 
             // Use the same path resolution as getPreSelectedImageBytes
-            String path = findInjectableImagePath();
+            String path = currentImagePath();
 
             if (path == null) {
                 Logger.w(TAG, "getPreSelectedImage: No image path found");
@@ -309,9 +430,19 @@ public class HookDispatcher {
     }
 
     /**
-     * Find the path to an injectable image, checking all possible locations
+     * Path of the injectable image as last resolved by the gate; avoids probing
+     * the filesystem on hot paths.
+     */
+    private String currentImagePath() {
+        return gate != null ? gate.getImagePath() : findInjectableImagePath();
+    }
+
+    /**
+     * Find the path to an injectable image, checking all possible locations.
+     * Slow (stats every candidate and reloads prefs); hot paths use
+     * {@link #currentImagePath()}.
      */
-    private String findInjectableImagePath() {
+    String findInjectableImagePath() {
         // Check all possible paths
         String[] possiblePaths = new String[] {
                 "/data/local/tmp/camerainterceptor_image.jpg",
@@ -361,27 +492,17 @@ public class HookDispatcher {
             return null;
         }
 
-        String path = findInjectableImagePath();
-        if (path == null) {
-            return null;
-        }
-
-        long now = System.currentTimeMillis();
-        byte[] cached = cachedImageData.get();
-
-        // Check if we have a cached version with SAME resolution
-        // Note: For simplicity, we cache only one version. If resolution changes, we
-        // re-scale.
-        if (path.equals(cachedImagePath) && cached != null && (now - cachedImageTimestamp) < CACHE_VALIDITY_MS) {
-            // Check if resolution matches (Basic check)
-            return cached;
-        }
-
         try {
             Bitmap src = getPreSelectedBitmap();
             if (src == null)
                 return null;
 
+            String key = "jpeg:" + targetWidth + "x" + targetHeight;
+            byte[] cached = getScaledVariant(key, src);
+            if (cached != null) {
+                return cached;
+            }
+
             Bitmap finalBitmap = src;
             boolean wasScaled = false;
 
@@ -395,18 +516,21 @@ public class HookDispatcher {
             }
 
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            finalBitmap.compress(Bitmap.CompressFormat.JPEG, 95, bos);
+            boolean wasLoading = isCurrentlyLoadingImage();
+            try {
+                // Our own compress call must not be intercepted
+                isLoadingImage.set(true);
+                finalBitmap.compress(Bitmap.CompressFormat.JPEG, 95, bos);
+            } finally {
+                isLoadingImage.set(wasLoading);
+            }
             byte[] data = bos.toByteArray();
 
             if (wasScaled && finalBitmap != src) {
                 finalBitmap.recycle();
             }
 
-            // Update cache
-            cachedImageData = new SoftReference<>(data);
-            cachedImagePath = path;
-            cachedImageTimestamp = now;
-
+            putScaledVariant(key, src, data);
             return data;
         } catch (Throwable t) {
             Logger.e(TAG, "Error generating scaled injected image: " + t.getMessage());
@@ -414,6 +538,152 @@ public class HookDispatcher {
         }
     }
 
+    /**
+     * Gets the injected image encoded the way an app's Bitmap.compress call
+     * asked for: same format, quality rounded to a bucket, scaled to the
+     * bitmap being compressed. Each variant is encoded once and cached with
+     * the capture payloads, so repeated thumbnail or PNG saves reuse it.
+     *
+     * @return Encoded bytes or null if failed
+     */
+    public byte[] getInjectedEncodedBytes(Bitmap.CompressFormat format, int quality, int targetWidth,
+            int targetHeight) {
+        if (!isPackageAllowedInPrefs(lpparam.packageName)) {
+            return null;
+        }
+
+        try {
+            Bitmap src = getPreSelectedBitmap();
+            if (src == null)
+                return null;
+
+            int bucket = qualityBucket(format.name(), quality);
+            String key = format.name().toLowerCase(Locale.ROOT) + ":q" + bucket + ":" + targetWidth + "x" + targetHeight;
+            byte[] cached = getScaledVariant(key, src);
+            if (cached != null) {
+                return cached;
+            }
+
+            Bitmap finalBitmap = src;
+            if (targetWidth > 0 && targetHeight > 0
+                    && (src.getWidth() != targetWidth || src.getHeight() != targetHeight)) {
+                finalBitmap = Bitmap.createScaledBitmap(src, targetWidth, targetHeight, true);
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            boolean wasLoading = isCurrentlyLoadingImage();
+            try {
+                // Our own compress call must not be intercepted
+                isLoadingImage.set(true);
+                finalBitmap.compress(format, bucket, bos);
+            } finally {
+                isLoadingImage.set(wasLoading);
+            }
+            byte[] data = bos.toByteArray();
+
+            if (finalBitmap != src) {
+                finalBitmap.recycle();
+            }
+
+            putScaledVariant(key, src, data);
+            Logger.i(TAG, "Encoded " + key + " variant: " + data.length + " bytes");
+            return data;
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error encoding injected image variant: " + t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Exif metadata for one injected shot, taken now. Width and height may be
+     * 0 to take them from the JPEG it is stamped on.
+     */
+    public ImageUtils.ImageMetadata newShotMetadata(int width, int height) {
+        ImageUtils.ImageMetadata profile = cameraProfile;
+        if (profile == null) {
+            // A race only picks one of two equally fake devices
+            profile = ImageUtils.createFakeMetadata();
+            cameraProfile = profile;
+        }
+        return ImageUtils.forShot(profile, width, height);
+    }
+
+    /**
+     * Returns the JPEG with this shot's Exif segment spliced in, for callers
+     * that must hand the app an array. Other data is returned as it is.
+     */
+    public byte[] stampExif(byte[] data) {
+        if (!ExifSplicer.isJpeg(data))
+            return data;
+        try {
+            return ExifSplicer.splice(data, newShotMetadata(0, 0));
+        } catch (Throwable t) {
+            Logger.w(TAG, "Could not stamp Exif: " + t.getMessage());
+            return data;
+        }
+    }
+
+    /**
+     * Writes an injected payload to a stream, a JPEG with this shot's Exif
+     * segment spliced in and anything else as it is.
+     */
+    public void writeStamped(byte[] data, OutputStream out) throws IOException {
+        if (ExifSplicer.isJpeg(data)) {
+            ExifSplicer.splice(data, newShotMetadata(0, 0), out);
+        } else {
+            out.write(data);
+        }
+    }
+
+    /**
+     * Quality an encoded variant is produced at. Lossless formats ignore the
+     * quality; lossy ones round down to a multiple of 5 so near-identical
+     * requests share one variant.
+     */
+    static int qualityBucket(String formatName, int quality) {
+        if ("PNG".equals(formatName) || "WEBP_LOSSLESS".equals(formatName))
+            return 100;
+        int clamped = Math.max(0, Math.min(100, quality));
+        return Math.max(5, clamped - clamped % 5);
+    }
+
+    /**
+     * Identifies the decode source came from, or -1 if it is no longer the
+     * cached source image.
+     */
+    private static long sourceId(Bitmap source) {
+        synchronized (HookDispatcher.class) {
+            return source != null && cachedBitmap.get() == source ? cachedBitmapId : -1;
+        }
+    }
+
+    private static byte[] getScaledVariant(String key, Bitmap source) {
+        long sourceId = sourceId(source);
+        if (sourceId < 0)
+            return null;
+        synchronized (scaledVariants) {
+            ScaledVariant variant = scaledVariants.get(key);
+            if (variant == null)
+                return null;
+            byte[] data = variant.data.get();
+            if (data == null || variant.sourceId != sourceId) {
+                // Collected, or derived from an older source image
+                scaledVariants.remove(key);
+                return null;
+            }
+            return data;
+        }
+    }
+
+    private static void putScaledVariant(String key, Bitmap source, byte[] data) {
+        long sourceId = sourceId(source);
+        if (sourceId < 0)
+            return; // Replaced by a newer decode already
+        synchronized (scaledVariants) {
+            scaledVariants.put(key, new ScaledVariant(sourceId, data));
+        }
+    }
+
     /**
      * Gets the injected image in NV21 YUV format, scaled to requested resolution.
      * Useful for Camera2 YUV ImageReader interception.
@@ -428,11 +698,18 @@ public class HookDispatcher {
             if (src == null)
                 return null;
 
+            String key = "nv21:" + targetWidth + "x" + targetHeight;
+            byte[] cached = getScaledVariant(key, src);
+            if (cached != null) {
+                return cached;
+            }
+
             // Use native processor to convert to NV21 (includes scaling/cropping)
             byte[] yuv = com.camerainterceptor.processor.NativeImageProcessor.processBitmapToNV21(src, targetWidth,
                     targetHeight);
 
             if (yuv != null) {
+                putScaledVariant(key, src, yuv);
                 Logger.d(TAG, "Generated " + targetWidth + "x" + targetHeight + " NV21 buffer natively");
             }
             return yuv;
@@ -442,6 +719,266 @@ public class HookDispatcher {
         }
     }
 
+    /**
+     * Prepares the payloads for every output of a burst at once. JPEG outputs
+     * are encoded per distinct size; all uncached NV21 outputs are converted in
+     * a single native call that locks the source bitmap once.
+     *
+     * @return One payload per output (null where the format is unsupported)
+     */
+    public byte[][] getInjectedBurstData(int[] widths, int[] heights, int[] formats) {
+        byte[][] payloads = new byte[formats.length][];
+        if (!isPackageAllowedInPrefs(lpparam.packageName)) {
+            return payloads;
+        }
+
+        try {
+            Bitmap src = getPreSelectedBitmap();
+            if (src == null)
+                return payloads;
+
+            int[] missWidths = new int[formats.length];
+            int[] missHeights = new int[formats.length];
+            int[] missIndex = new int[formats.length];
+            int misses = 0;
+
+            for (int i = 0; i < formats.length; i++) {
+                if (formats[i] == ImageFormat.JPEG) {
+                    payloads[i] = getInjectedImageBytes(widths[i], heights[i]);
+                } else if (formats[i] == ImageFormat.YUV_420_888 || formats[i] == ImageFormat.NV21) {
+                    payloads[i] = getScaledVariant("nv21:" + widths[i] + "x" + heights[i], src);
+                    if (payloads[i] == null) {
+                        missWidths[misses] = widths[i];
+                        missHeights[misses] = heights[i];
+                        missIndex[misses] = i;
+                        misses++;
+                    }
+                }
+            }
+
+            if (misses > 0) {
+                byte[][] converted = com.camerainterceptor.processor.NativeImageProcessor.processBitmapToNV21Batch(src,
+                        Arrays.copyOf(missWidths, misses), Arrays.copyOf(missHeights, misses));
+                if (converted != null) {
+                    for (int m = 0; m < misses && m < converted.length; m++) {
+                        int i = missIndex[m];
+                        payloads[i] = converted[m];
+                        if (converted[m] != null) {
+                            putScaledVariant("nv21:" + widths[i] + "x" + heights[i], src, converted[m]);
+                        }
+                    }
+                }
+                Logger.d(TAG, "Generated " + misses + " NV21 burst buffers in one native batch");
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error generating burst payloads: " + t.getMessage());
+        }
+        return payloads;
+    }
+
+    /**
+     * Runs {@link #getInjectedBurstData} on the prepare thread, so a
+     * captureBurst call returns at once and its frames wait on the result
+     * with the injection budget.
+     */
+    public CompletableFuture<byte[][]> getInjectedBurstDataAsync(final int[] widths, final int[] heights,
+            final int[] formats) {
+        return CompletableFuture.supplyAsync(() -> getInjectedBurstData(widths, heights, formats), prepareExecutor);
+    }
+
+    /**
+     * Prepares the injected payload for an output stream on a background thread
+     * so it is already cached when the stream's first frame is acquired.
+     */
+    public void prepareStreamAsync(final int width, final int height, final int format) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        preparePayload(payloadKey(width, height, format), width, height, format);
+    }
+
+    /**
+     * Returns the payload for a frame if it can be had within the configured
+     * injection budget, or null if the caller should let the real frame through.
+     * A miss leaves the preparation running in the background so the next
+     * frame of the same geometry is injected.
+     */
+    public byte[] getInjectedPayloadWithinBudget(int width, int height, int format) {
+        String key = payloadKey(width, height, format);
+        if (key == null)
+            return null;
+
+        // Fast path: already prepared from the current source image
+        byte[] cached = peekPayload(key);
+        if (cached != null) {
+            budgetHits.incrementAndGet();
+            return cached;
+        }
+
+        return awaitWithinBudget(key, preparePayload(key, width, height, format));
+    }
+
+    /**
+     * Like {@link #getInjectedPayloadWithinBudget} for a JPEG that must fit a
+     * fixed-capacity buffer. The quality search runs on the prepare thread and
+     * its result is cached per size and capacity, so only the first frame of
+     * a stream can miss the budget.
+     */
+    public byte[] getFittedJpegWithinBudget(final int width, final int height, final int maxBytes) {
+        final String key = "jpeg:" + width + "x" + height + ":max" + maxBytes;
+        byte[] cached = peekPayload(key);
+        if (cached != null) {
+            budgetHits.incrementAndGet();
+            return cached;
+        }
+        return awaitWithinBudget(key, preparePayload(key, () -> getInjectedJpegFitting(width, height, maxBytes)));
+    }
+
+    /**
+     * The injected JPEG at the given size, at the highest quality that is at
+     * most maxBytes long, or null if none fits.
+     */
+    private byte[] getInjectedJpegFitting(int width, int height, int maxBytes) {
+        byte[] full = getInjectedImageBytes(width, height);
+        Bitmap src = getPreSelectedBitmap();
+        if (full == null || src == null)
+            return null;
+        if (full.length <= maxBytes)
+            return full;
+
+        String sizeKey = imageGeneration + ":" + width + "x" + height;
+        jpegFitter.record(sizeKey, 95, full.length);
+        Bitmap scaled = src;
+        if (width > 0 && height > 0 && (src.getWidth() != width || src.getHeight() != height)) {
+            scaled = Bitmap.createScaledBitmap(src, width, height, true);
+        }
+        final Bitmap target = scaled;
+        int trialsBefore = jpegFitter.getTrialCount();
+        byte[] data;
+        boolean wasLoading = isCurrentlyLoadingImage();
+        try {
+            isLoadingImage.set(true);
+            data = jpegFitter.encode(sizeKey, maxBytes, quality -> {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                target.compress(Bitmap.CompressFormat.JPEG, quality, bos);
+                return bos.toByteArray();
+            });
+        } finally {
+            isLoadingImage.set(wasLoading);
+            if (target != src) {
+                target.recycle();
+            }
+        }
+
+        if (data == null) {
+            Logger.w(TAG, "Injected JPEG cannot fit " + maxBytes + " bytes at " + width + "x" + height);
+            return null;
+        }
+        putScaledVariant("jpeg:" + width + "x" + height + ":max" + maxBytes, src, data);
+        Logger.i(TAG, "Fitted " + width + "x" + height + " JPEG into " + maxBytes + " bytes: " + data.length
+                + " bytes after " + (jpegFitter.getTrialCount() - trialsBefore) + " encodes");
+        return data;
+    }
+
+    /**
+     * Waits for a payload for at most the injection budget. Returns null on a
+     * miss, leaving the preparation running for the next frame.
+     */
+    public byte[] awaitWithinBudget(String key, Future<byte[]> payload) {
+        long budgetMs = gate != null ? gate.getInjectionBudgetMs() : DEFAULT_INJECTION_BUDGET_MS;
+        try {
+            byte[] data = payload.get(budgetMs, TimeUnit.MILLISECONDS);
+            budgetHits.incrementAndGet();
+            return data;
+        } catch (TimeoutException e) {
+            budgetMisses.incrementAndGet();
+            Logger.w(TAG, "Injection budget of " + budgetMs + "ms missed for " + key
+                    + ", passing real frame (" + describeBudgetStats() + ")");
+            return null;
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error waiting for payload " + key + ": " + t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the payload for a geometry without blocking: completed if it is
+     * already prepared, otherwise joined to the preparation on the prepare
+     * thread.
+     */
+    public Future<byte[]> getInjectedPayloadAsync(int width, int height, int format) {
+        String key = payloadKey(width, height, format);
+        byte[] cached = key != null ? peekPayload(key) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return preparePayload(key, width, height, format);
+    }
+
+    private static byte[] peekPayload(String key) {
+        Bitmap src = cachedBitmap.get();
+        return src != null ? getScaledVariant(key, src) : null;
+    }
+
+    public String describeBudgetStats() {
+        return "budget hits=" + budgetHits.get() + " misses=" + budgetMisses.get();
+    }
+
+    private static String payloadKey(int width, int height, int format) {
+        if (format == ImageFormat.JPEG) {
+            return "jpeg:" + width + "x" + height;
+        } else if (format == ImageFormat.YUV_420_888 || format == ImageFormat.NV21) {
+            return "nv21:" + width + "x" + height;
+        }
+        return null;
+    }
+
+    /**
+     * Starts preparing a payload on the prepare thread, or joins the
+     * preparation already in flight for the same key.
+     */
+    private Future<byte[]> preparePayload(final String key, final int width, final int height, final int format) {
+        return preparePayload(key, () -> {
+            byte[] data = format == ImageFormat.JPEG ? getInjectedImageBytes(width, height)
+                    : getInjectedYUVData(width, height);
+            Logger.d(TAG, "Prepared payload for " + width + "x" + height + " format=0x"
+                    + Integer.toHexString(format));
+            return data;
+        });
+    }
+
+    private Future<byte[]> preparePayload(final String key, Callable<byte[]> preparation) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Future<byte[]> inFlight = inFlightPayloads.get(key);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        final FutureTask<byte[]> task = new FutureTask<>(preparation);
+        inFlight = inFlightPayloads.putIfAbsent(key, task);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        try {
+            prepareExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlightPayloads.remove(key, task);
+                }
+            });
+        } catch (Throwable t) {
+            inFlightPayloads.remove(key, task);
+            Logger.e(TAG, "Error preparing stream payload: " + t.getMessage());
+            task.cancel(false);
+        }
+        return task;
+    }
+
     // Flag to prevent recursion when our own code triggers hooked methods
     private static final ThreadLocal<Boolean> isLoadingImage = new ThreadLocal<Boolean>() {
         @Override
@@ -454,6 +991,35 @@ public class HookDispatcher {
         return Boolean.TRUE.equals(isLoadingImage.get());
     }
 
+    /**
+     * Marks the current thread as writing our own injected data, so the file
+     * and MediaStore hooks leave those writes alone.
+     */
+    public static void setWritingInjectedData(boolean writing) {
+        isLoadingImage.set(writing);
+    }
+
+    /**
+     * Returns the injected image file if it is already a JPEG that can be
+     * copied to the app's target as-is, or null.
+     */
+    public File getInjectableJpegFile() {
+        String path = currentImagePath();
+        if (path == null)
+            return null;
+
+        File file = new File(path);
+        byte[] magic = new byte[3];
+        try (java.io.FileInputStream in = new java.io.FileInputStream(file)) {
+            if (in.read(magic) == 3 && isValidJpeg(magic)) {
+                return file;
+            }
+        } catch (Throwable t) {
+            Logger.w(TAG, "Injected image not readable: " + t.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Load pre-selected image synchronously (for Camera2 hooks)
      * Reads raw bytes from file - validates JPEG format and converts if needed
@@ -483,10 +1049,10 @@ public class HookDispatcher {
         }
 
         // Check if we have valid cached data
-        String currentPath = findInjectableImagePath();
+        String currentPath = currentImagePath();
         if (currentPath != null && currentPath.equals(cachedImagePath)) {
             byte[] cached = cachedImageData.get();
-            if (cached != null && (now - cachedImageTimestamp) < CACHE_VALIDITY_MS) {
+            if (cached != null) {
                 Logger.d(TAG, "Using cached image data (" + cached.length + " bytes)");
                 lastInjectionTime.set(now);
                 return cached;
@@ -543,7 +1109,6 @@ public class HookDispatcher {
 
             // Cache the loaded data
             cachedImageData = new SoftReference<>(data);
-            cachedImageTimestamp = now;
             cachedImagePath = currentPath;
             lastInjectionTime.set(now);
 
@@ -567,12 +1132,29 @@ public class HookDispatcher {
      */
     public static void clearImageCache() {
         cachedImageData = new SoftReference<>(null);
-        cachedBitmap = new SoftReference<>(null);
-        cachedImageTimestamp = 0;
+        synchronized (HookDispatcher.class) {
+            cachedBitmap = new SoftReference<>(null);
+            cachedBitmapPath = null;
+            cachedSizedBitmap = new SoftReference<>(null);
+            cachedSizedSourceId = -1;
+        }
+        synchronized (scaledVariants) {
+            scaledVariants.clear();
+        }
+        jpegFitter.clear();
         cachedImagePath = null;
+        imageGeneration++;
         Logger.d(TAG, "Image cache cleared");
     }
 
+    /**
+     * Incremented whenever the image caches are cleared, so holders of derived
+     * frames can detect a new source without a lookup.
+     */
+    public static int getImageGeneration() {
+        return imageGeneration;
+    }
+
     public com.camerainterceptor.processor.ViewfinderManager getViewfinderManager() {
         return viewfinderManager;
     }
@@ -586,16 +1168,18 @@ public class HookDispatcher {
             return null;
         }
 
-        String path = findInjectableImagePath();
+        String path = currentImagePath();
         if (path == null) {
             return null;
         }
 
-        long now = System.currentTimeMillis();
-        Bitmap cached = cachedBitmap.get();
-
-        if (path.equals(cachedImagePath) && cached != null && (now - cachedImageTimestamp) < CACHE_VALIDITY_MS) {
-            return cached;
+        // No expiry: every prepared payload is keyed on this decode, so the
+        // bitmap is only replaced when the image changes or is collected
+        synchronized (HookDispatcher.class) {
+            Bitmap cached = cachedBitmap.get();
+            if (cached != null && path.equals(cachedBitmapPath)) {
+                return cached;
+            }
         }
 
         // Cache miss or invalid
@@ -605,9 +1189,11 @@ public class HookDispatcher {
             Bitmap bitmap = BitmapFactory.decodeFile(path, opts);
 
             if (bitmap != null) {
-                cachedBitmap = new SoftReference<>(bitmap);
-                cachedImagePath = path;
-                cachedImageTimestamp = now;
+                synchronized (HookDispatcher.class) {
+                    cachedBitmap = new SoftReference<>(bitmap);
+                    cachedBitmapPath = path;
+                    cachedBitmapId++;
+                }
                 Logger.i(TAG, "Cached new bitmap for viewfinder: " + path);
             }
             return bitmap;
@@ -617,6 +1203,57 @@ public class HookDispatcher {
         }
     }
 
+    /**
+     * Gets the injected image as an immutable Bitmap of the given size, for
+     * APIs that take a Bitmap rather than encoded bytes. The last size asked
+     * for is kept, so repeated saves of same-sized bitmaps share one copy
+     * instead of decoding the file each time.
+     *
+     * @return The bitmap or null if failed; callers must not recycle it
+     */
+    public Bitmap getInjectedBitmap(int targetWidth, int targetHeight) {
+        Bitmap src = getPreSelectedBitmap();
+        if (src == null)
+            return null;
+
+        long sourceId = sourceId(src);
+        synchronized (HookDispatcher.class) {
+            Bitmap cached = cachedSizedBitmap.get();
+            if (cached != null && sourceId >= 0 && cachedSizedSourceId == sourceId && !cached.isRecycled()
+                    && cached.getWidth() == targetWidth && cached.getHeight() == targetHeight) {
+                return cached;
+            }
+        }
+
+        try {
+            Bitmap sized = src;
+            if (targetWidth > 0 && targetHeight > 0
+                    && (src.getWidth() != targetWidth || src.getHeight() != targetHeight)) {
+                sized = Bitmap.createScaledBitmap(src, targetWidth, targetHeight, true);
+            }
+            if (sized.isMutable()) {
+                // The source is shared with the viewfinder; hand out a copy apps cannot draw into
+                Bitmap copy = sized.copy(sized.getConfig(), false);
+                if (sized != src) {
+                    sized.recycle();
+                }
+                sized = copy;
+            }
+            if (sized == null)
+                return null;
+
+            synchronized (HookDispatcher.class) {
+                cachedSizedBitmap = new SoftReference<>(sized);
+                cachedSizedSourceId = sourceId;
+            }
+            Logger.i(TAG, "Cached injected bitmap at " + sized.getWidth() + "x" + sized.getHeight());
+            return sized;
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error sizing injected bitmap: " + t.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Check if byte array is valid JPEG data
      */
@@ -0,0 +1,200 @@
+package com.camerainterceptor;
+
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.utils.DeadlineWheel;
+import com.camerainterceptor.utils.Logger;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Central per-process gate consulted at the top of every hook body.
+ *
+ * Whether injection is enabled for this process (package allowed + an
+ * injectable image exists) is computed into a single volatile field and only
+ * recomputed when the module preferences or the injected image change. Hot
+ * hooks such as FileOutputStream.write or acquireLatestImage therefore pay
+ * volatile reads instead of a prefs reload and up to nine stat calls.
+ */
+public final class HookGate {
+    private static final String TAG = "HookGate";
+    private static final long CHANGE_CHECK_INTERVAL_MS = 2000;
+
+    /**
+     * Hook families, counted separately while profiling is enabled.
+     */
+    public enum Family {
+        LEGACY_CAMERA,
+        CAMERA2,
+        CAMERAX,
+        FILE_OUTPUT,
+        MEDIA_STORE,
+        INTENT
+    }
+
+    private final HookDispatcher dispatcher;
+    private final AtomicLongArray hits = new AtomicLongArray(Family.values().length);
+    private final AtomicLong refreshCount = new AtomicLong(0);
+    private final ScheduledExecutorService watcher;
+
+    // The only field hook bodies read when not profiling
+    private volatile boolean open = false;
+    private volatile String imagePath = null;
+    private volatile boolean viewfinderSpoofing = true;
+    private volatile boolean profiling = false;
+    private volatile boolean intentFulfilment = false;
+    private volatile long injectionBudgetMs = HookDispatcher.DEFAULT_INJECTION_BUDGET_MS;
+
+    // Change detection state (watcher thread only)
+    private long imageLastModified = 0;
+    private long imageLength = 0;
+
+    HookGate(HookDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        refresh();
+
+        this.watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HookGateWatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.watcher.scheduleWithFixedDelay(this::checkForChanges, CHANGE_CHECK_INTERVAL_MS,
+                CHANGE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * True if hooks of this family should inject. Two volatile reads and no
+     * writes; checks are only counted while profiling, as a shared counter
+     * would be contended by every hook.
+     */
+    public boolean isOpen(Family family) {
+        if (profiling) {
+            hits.incrementAndGet(family.ordinal());
+        }
+        return open;
+    }
+
+    /**
+     * Path of the injectable image as of the last refresh, or null.
+     */
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public boolean isViewfinderSpoofingEnabled() {
+        return viewfinderSpoofing;
+    }
+
+    public boolean isProfilingEnabled() {
+        return profiling;
+    }
+
+    public long getInjectionBudgetMs() {
+        return injectionBudgetMs;
+    }
+
+    public boolean isIntentFulfilmentEnabled() {
+        return intentFulfilment;
+    }
+
+    /**
+     * Forces a recomputation on the watcher thread, e.g. after the image cache
+     * was invalidated.
+     */
+    public void invalidate() {
+        try {
+            watcher.execute(this::refresh);
+        } catch (Throwable t) {
+            refresh();
+        }
+    }
+
+    private void checkForChanges() {
+        try {
+            boolean changed = dispatcher.hasPrefsFileChanged();
+
+            String path = imagePath;
+            if (!changed && path != null) {
+                File f = new File(path);
+                changed = !f.canRead() || f.lastModified() != imageLastModified || f.length() != imageLength;
+            } else if (!changed) {
+                // No image yet: look for one to appear
+                changed = dispatcher.findInjectableImagePath() != null;
+            }
+
+            if (changed) {
+                refresh();
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error checking for config changes: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Recomputes the gate from prefs and the filesystem. Slow; never called
+     * from a hook body.
+     */
+    synchronized void refresh() {
+        try {
+            boolean allowed = dispatcher.isPackageAllowed();
+            String path = dispatcher.findInjectableImagePath();
+            String previousPath = imagePath;
+
+            if (path != null) {
+                File f = new File(path);
+                long lastModified = f.lastModified();
+                long length = f.length();
+                if (path.equals(previousPath) && (lastModified != imageLastModified || length != imageLength)) {
+                    // Same file replaced with a new image
+                    HookDispatcher.clearImageCache();
+                }
+                imageLastModified = lastModified;
+                imageLength = length;
+            }
+            if (previousPath != null && !previousPath.equals(path)) {
+                HookDispatcher.clearImageCache();
+            }
+
+            viewfinderSpoofing = dispatcher.isViewfinderSpoofingEnabled();
+            profiling = dispatcher.isProfilingEnabled();
+            intentFulfilment = dispatcher.isIntentFulfilmentEnabled();
+            Logger.setLevels(dispatcher.getLogLevel(), Logger.parseTagLevels(dispatcher.getLogTagLevels()));
+            injectionBudgetMs = dispatcher.getInjectionBudgetMs();
+            imagePath = path;
+            boolean nowOpen = allowed && path != null;
+            boolean wasOpen = open;
+            open = nowOpen;
+            refreshCount.incrementAndGet();
+
+            if (nowOpen != wasOpen || (path != null && !path.equals(previousPath))) {
+                Logger.i(TAG, "Gate " + (nowOpen ? "OPEN" : "CLOSED") + " (allowed=" + allowed
+                        + ", image=" + path + ")");
+                logStats();
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error refreshing hook gate: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Logs how many gate checks each family made while profiling. Each one
+     * replaced a prefs reload plus the image path probe.
+     */
+    public void logStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[GATE] refreshes=").append(refreshCount.get());
+        if (profiling) {
+            for (Family family : Family.values()) {
+                sb.append(" | ").append(family.name()).append("=").append(hits.get(family.ordinal()));
+            }
+        }
+        sb.append(" | ").append(dispatcher.describeBudgetStats());
+        sb.append(" | ").append(CaptureTracker.describeStats());
+        Logger.i(TAG, sb.toString());
+        DeadlineWheel.get().logStats();
+    }
+}
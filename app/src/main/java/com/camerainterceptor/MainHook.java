@@ -38,6 +38,8 @@ public class MainHook implements IXposedHookLoadPackage, IXposedHookZygoteInit {
         }
 
         try {
+            // Each process logs to its own segment, named after the package
+            Logger.setProcessTag(lpparam.processName != null ? lpparam.processName : lpparam.packageName);
             Logger.i(TAG, "Loading package: " + lpparam.packageName);
             
             // Hook into Application's attach method to get a valid context
@@ -0,0 +1,62 @@
+package com.camerainterceptor;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.camerainterceptor.utils.Logger;
+
+/**
+ * The preferences file shared by the settings screen and the hooks.
+ *
+ * The settings screen writes it in the module's own process; every hooked
+ * process reads it through XSharedPreferences. Readers here take any
+ * SharedPreferences, so both sides agree on keys and defaults.
+ */
+public final class ModulePrefs {
+    public static final String NAME = "CameraInterceptorPrefs";
+
+    public static final String KEY_INJECTION_BUDGET = "injection_budget_ms";
+    public static final String KEY_FULFIL_INTENTS = "fulfil_capture_intents";
+    public static final String KEY_LOG_LEVEL = "log_level";
+    public static final String KEY_LOG_TAG_LEVELS = "log_tag_levels";
+
+    static final long DEFAULT_INJECTION_BUDGET_MS = 50;
+
+    private ModulePrefs() {
+    }
+
+    /**
+     * How long a hook may wait for the injected payload. Stored as a string,
+     * since it is set by a ListPreference.
+     */
+    public static long readInjectionBudgetMs(SharedPreferences prefs) {
+        try {
+            String value = prefs.getString(KEY_INJECTION_BUDGET, null);
+            return value != null ? Long.parseLong(value.trim()) : DEFAULT_INJECTION_BUDGET_MS;
+        } catch (Throwable t) {
+            return DEFAULT_INJECTION_BUDGET_MS;
+        }
+    }
+
+    /**
+     * Whether camera intents are answered with the injected image. Off
+     * unless switched on in settings.
+     */
+    public static boolean readIntentFulfilment(SharedPreferences prefs) {
+        return prefs.getBoolean(KEY_FULFIL_INTENTS, false);
+    }
+
+    /**
+     * Global minimum log level, as an android.util.Log constant.
+     */
+    public static int readLogLevel(SharedPreferences prefs) {
+        return Logger.parseLevel(prefs.getString(KEY_LOG_LEVEL, null), Log.DEBUG);
+    }
+
+    /**
+     * Per-tag log level overrides, such as "Camera2Hook=INFO", or null.
+     */
+    public static String readLogTagLevels(SharedPreferences prefs) {
+        return prefs.getString(KEY_LOG_TAG_LEVELS, null);
+    }
+}
@@ -9,11 +9,22 @@ import android.media.ImageReader;
 import android.view.Surface;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
+import com.camerainterceptor.state.BurstQueue;
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.state.HookState;
+import com.camerainterceptor.state.ImageReaderRegistry;
+import com.camerainterceptor.utils.DeadlineWheel;
+import com.camerainterceptor.utils.ExifSplicer;
 import com.camerainterceptor.utils.Logger;
 
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -29,6 +40,14 @@ import de.robv.android.xposed.XposedHelpers;
 public class Camera2Hook {
     private static final String TAG = "Camera2Hook";
     private final HookDispatcher dispatcher;
+    // Set while acquireLatestImage runs, which calls acquireNextImage internally
+    private static final ThreadLocal<Boolean> inAcquireLatest = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+    private final DeadlineWheel.Timer injectionDeadline = DeadlineWheel.get().timer("Camera2 Injection", 3000);
 
     public Camera2Hook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
@@ -39,6 +58,9 @@ public class Camera2Hook {
         try {
             Logger.i(TAG, "Initializing Camera2 API hooks");
 
+            // Record ImageReader geometry as readers are created
+            hookImageReaderCreation();
+
             // Hook Session Creation to extract requested resolution/format
             hookCaptureSessionCreation();
 
@@ -58,6 +80,61 @@ public class Camera2Hook {
         }
     }
 
+    /**
+     * Records every ImageReader the app creates (size, format, maxImages and
+     * usage) so session creation knows each output's geometry up front.
+     */
+    private void hookImageReaderCreation() {
+        try {
+            // newInstance(w, h, format, maxImages) and newInstance(w, h, format, maxImages, usage)
+            XposedBridge.hookAllMethods(ImageReader.class, "newInstance", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    long usage = param.args.length > 4 && param.args[4] instanceof Long ? (Long) param.args[4] : 0;
+                    registerReader((ImageReader) param.getResult(), usage);
+                }
+            });
+
+            // API 33+: ImageReader.Builder#build() bypasses newInstance
+            Class<?> builderClass = XposedHelpers.findClassIfExists("android.media.ImageReader$Builder",
+                    dispatcher.getClassLoader());
+            if (builderClass != null) {
+                XposedBridge.hookAllMethods(builderClass, "build", new XC_MethodHook() {
+                    @Override
+                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        registerReader((ImageReader) param.getResult(), -1);
+                    }
+                });
+            }
+
+            XposedBridge.hookAllMethods(ImageReader.class, "close", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    ImageReader reader = (ImageReader) param.thisObject;
+                    BurstQueue.clear(ImageReaderRegistry.lookup(reader));
+                    ImageReaderRegistry.unregister(reader);
+                }
+            });
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to hook ImageReader creation: " + t.getMessage());
+        }
+    }
+
+    private void registerReader(ImageReader reader, long usage) {
+        if (reader == null)
+            return;
+        try {
+            if (usage < 0) {
+                usage = android.os.Build.VERSION.SDK_INT >= 33 ? reader.getUsage() : 0;
+            }
+            ImageReaderRegistry.ReaderInfo info = ImageReaderRegistry.register(reader, reader.getSurface(),
+                    reader.getWidth(), reader.getHeight(), reader.getImageFormat(), reader.getMaxImages(), usage);
+            Logger.d(TAG, "ImageReader created: " + info);
+        } catch (Throwable t) {
+            Logger.w(TAG, "Could not register ImageReader: " + t.getMessage());
+        }
+    }
+
     /**
      * Intercepts Camera2 session creation to steal the exact Surface requirements
      * (width, height, format). This allows our native layer to perfectly match
@@ -68,65 +145,33 @@ public class Camera2Hook {
             Class<?> cameraDeviceClass = XposedHelpers.findClass("android.hardware.camera2.impl.CameraDeviceImpl",
                     dispatcher.getClassLoader());
 
-            // CameraDevice.createCaptureSession(List<Surface> outputs,
-            // CameraCaptureSession.StateCallback callback, Handler handler)
-            XposedBridge.hookAllMethods(cameraDeviceClass, "createCaptureSession", new XC_MethodHook() {
+            XC_MethodHook sessionHook = new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    if (param.args[0] instanceof List) {
-                        List<?> outputs = (List<?>) param.args[0];
-                        if (outputs != null && !outputs.isEmpty()) {
-                            Logger.i(TAG,
-                                    "CameraDevice.createCaptureSession called with " + outputs.size() + " outputs");
-
-                            // Try to extract resolution from the first Surface (usually the target for
-                            // preview/capture)
-                            Object firstOutput = outputs.get(0);
-
-                            // In newer Android versions, outputs might be OutputConfiguration objects
-                            Surface targetSurface = null;
-                            if (firstOutput instanceof Surface) {
-                                targetSurface = (Surface) firstOutput;
-                            } else if (firstOutput.getClass().getName()
-                                    .equals("android.hardware.camera2.params.OutputConfiguration")) {
-                                try {
-                                    Method getSurfaceMethod = firstOutput.getClass().getMethod("getSurface");
-                                    targetSurface = (Surface) getSurfaceMethod.invoke(firstOutput);
-                                } catch (Exception e) {
-                                    Logger.w(TAG, "Could not extract Surface from OutputConfiguration");
-                                }
-                            }
+                    if (param.args.length == 0 || !(param.args[0] instanceof List))
+                        return;
+                    List<?> outputs = (List<?>) param.args[0];
+                    if (outputs.isEmpty())
+                        return;
 
-                            if (targetSurface != null) {
-                                extractSurfaceInfo(targetSurface);
-                            }
-                        }
-                    }
+                    Logger.i(TAG, "CameraDevice." + param.method.getName() + " called with " + outputs.size()
+                            + " outputs");
+                    String cameraId = param.thisObject instanceof CameraDevice
+                            ? ((CameraDevice) param.thisObject).getId()
+                            : HookState.DEFAULT_CAMERA;
+                    HookState.setActiveCamera(cameraId);
+                    inspectSessionOutputs(cameraId, outputs);
                 }
-            });
+            };
+
+            // CameraDevice.createCaptureSession(List<Surface> outputs,
+            // CameraCaptureSession.StateCallback callback, Handler handler)
+            // In newer Android versions, outputs might be OutputConfiguration objects
+            XposedBridge.hookAllMethods(cameraDeviceClass, "createCaptureSession", sessionHook);
 
             // Also hook createCaptureSessionByOutputConfigurations (API 24+)
             XposedBridge.hookAllMethods(cameraDeviceClass, "createCaptureSessionByOutputConfigurations",
-                    new XC_MethodHook() {
-                        @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (param.args[0] instanceof List) {
-                                List<?> outputs = (List<?>) param.args[0];
-                                if (outputs != null && !outputs.isEmpty()) {
-                                    Object firstOutput = outputs.get(0);
-                                    try {
-                                        Method getSurfaceMethod = firstOutput.getClass().getMethod("getSurface");
-                                        Surface targetSurface = (Surface) getSurfaceMethod.invoke(firstOutput);
-                                        if (targetSurface != null) {
-                                            extractSurfaceInfo(targetSurface);
-                                        }
-                                    } catch (Exception e) {
-                                        Logger.w(TAG, "Could not extract Surface from OutputConfiguration list");
-                                    }
-                                }
-                            }
-                        }
-                    });
+                    sessionHook);
 
         } catch (Throwable t) {
             Logger.e(TAG, "Failed to hook CaptureSession creation: " + t.getMessage());
@@ -134,9 +179,58 @@ public class Camera2Hook {
         }
     }
 
+    private Surface toSurface(Object output) {
+        if (output instanceof Surface) {
+            return (Surface) output;
+        }
+        if (output != null && output.getClass().getName()
+                .equals("android.hardware.camera2.params.OutputConfiguration")) {
+            try {
+                Method getSurfaceMethod = output.getClass().getMethod("getSurface");
+                return (Surface) getSurfaceMethod.invoke(output);
+            } catch (Exception e) {
+                Logger.w(TAG, "Could not extract Surface from OutputConfiguration");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the geometry of every session output from the ImageReader
+     * registry. Reader outputs get their payload prepared before the first
+     * frame; the first non-reader output is treated as the preview surface.
+     */
+    private void inspectSessionOutputs(String cameraId, List<?> outputs) {
+        Surface previewSurface = null;
+        boolean previewTargeted = false;
+        for (Object output : outputs) {
+            Surface surface = toSurface(output);
+            if (surface == null)
+                continue;
+
+            ImageReaderRegistry.ReaderInfo info = ImageReaderRegistry.lookupSurface(surface);
+            if (info != null) {
+                Logger.i(TAG, "Session output is ImageReader: " + info);
+                HookState.StreamRole role = info.format == ImageFormat.JPEG ? HookState.StreamRole.STILL
+                        : HookState.StreamRole.ANALYSIS;
+                HookState.setStream(cameraId, role, info.width, info.height, info.format);
+                dispatcher.prepareStreamAsync(info.width, info.height, info.format);
+            } else if (dispatcher.getViewfinderManager().isSpoofing(surface)) {
+                // Already targeted precisely (e.g. by the CameraX SurfaceRequest hook)
+                previewTargeted = true;
+            } else if (previewSurface == null) {
+                previewSurface = surface;
+            }
+        }
+
+        if (previewSurface != null && !previewTargeted) {
+            extractSurfaceInfo(previewSurface);
+        }
+    }
+
     /**
-     * Attempts to read dimensions and format out of an opaque Surface object using
-     * reflection.
+     * Starts viewfinder spoofing on a session output that is not backed by one
+     * of the app's ImageReaders (i.e. a SurfaceView/TextureView preview).
      */
     private void extractSurfaceInfo(Surface surface) {
         try {
@@ -144,10 +238,11 @@ public class Camera2Hook {
                 return;
             }
 
-            Logger.i(TAG, "Intercepted target Surface during session creation.");
+            Logger.i(TAG, "Intercepted preview Surface during session creation.");
 
             // Check if Viewfinder Spoofing (Phase 3) is enabled AND mode is DEEP_SURFACE
-            if (dispatcher.isInjectionEnabled() && dispatcher.isViewfinderSpoofingEnabled()) {
+            HookGate gate = dispatcher.getGate();
+            if (gate.isOpen(HookGate.Family.CAMERA2) && gate.isViewfinderSpoofingEnabled()) {
                 if (dispatcher.isDeepSurfaceModeEnabled()) {
                     Logger.i(TAG, "Starting DEEP Viewfinder Spoofing for Camera2");
                     dispatcher.getViewfinderManager().startSpoofing(surface);
@@ -175,9 +270,8 @@ public class Camera2Hook {
                     // Wrap the listener with robust error handling
                     ImageReader.OnImageAvailableListener wrappedListener = reader -> {
                         try {
-                            String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                            if (dispatcher.isPackageAllowed(targetPackage) && dispatcher.isInjectionEnabled()) {
-                                Logger.i(TAG, "OnImageAvailableListener triggered - image capture detected");
+                            if (dispatcher.getGate().isOpen(HookGate.Family.CAMERA2)) {
+                                Logger.d(TAG, "OnImageAvailableListener triggered - image capture detected");
                             }
                         } catch (Throwable t) {
                             // Log but don't crash - just continue to original
@@ -207,8 +301,14 @@ public class Camera2Hook {
         try {
             // Hook acquireLatestImage
             XposedBridge.hookAllMethods(ImageReader.class, "acquireLatestImage", new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    inAcquireLatest.set(true);
+                }
+
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    inAcquireLatest.set(false);
                     processImage(param);
                 }
             });
@@ -217,6 +317,10 @@ public class Camera2Hook {
             XposedBridge.hookAllMethods(ImageReader.class, "acquireNextImage", new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    // acquireLatestImage drains through acquireNextImage and closes all
+                    // but the last image; only the one it returns is injected
+                    if (Boolean.TRUE.equals(inAcquireLatest.get()))
+                        return;
                     processImage(param);
                 }
             });
@@ -227,8 +331,7 @@ public class Camera2Hook {
 
     private void processImage(XC_MethodHook.MethodHookParam param) {
         try {
-            String targetPackage = dispatcher.getLoadPackageParam().packageName;
-            if (!dispatcher.isPackageAllowed(targetPackage) || !dispatcher.isInjectionEnabled()) {
+            if (!dispatcher.getGate().isOpen(HookGate.Family.CAMERA2)) {
                 return;
             }
 
@@ -236,68 +339,192 @@ public class Camera2Hook {
             if (image == null)
                 return;
 
+            // Frames of a captureBurst were prepared up front; just copy them in
+            ImageReaderRegistry.ReaderInfo reader = ImageReaderRegistry.lookup((ImageReader) param.thisObject);
+            if (reader != null) {
+                BurstQueue.Frame frame = BurstQueue.poll(reader);
+                if (frame != null) {
+                    byte[] payload = dispatcher.awaitWithinBudget("burst frame " + frame.index + "/" + frame.total,
+                            frame.payload);
+                    // Over budget the real frame goes through, as for a single capture
+                    if (payload != null) {
+                        injectBurstFrame(image, frame, payload);
+                    }
+                    return;
+                }
+            }
+
             int format = image.getFormat();
             int width = image.getWidth();
             int height = image.getHeight();
 
-            Logger.d(TAG, "ImageReader acquired image: " + width + "x" + height + ", format: " + format);
+            Logger.d(TAG, "ImageReader acquired image: %dx%d, format: %d", width, height, format);
 
-            // 1. Start Watchdog
-            com.camerainterceptor.utils.Watchdog watchdog = new com.camerainterceptor.utils.Watchdog(
-                    "Camera2 Injection", 3000, () -> {
-                        Logger.e(TAG, "Watchdog triggered: Camera2 injection timed out. Recovering...");
-                    });
-            watchdog.start();
+            // 1. Arm deadline
+            DeadlineWheel.Deadline deadline = injectionDeadline.arm();
 
             try {
                 byte[] fakeData = null;
                 if (format == 256 || format == 0x100) {
-                    Logger.i(TAG, "Intercepted JPEG Image");
-                    fakeData = dispatcher.getInjectedImageBytes(width, height);
+                    Logger.d(TAG, "Intercepted JPEG Image");
+                    fakeData = dispatcher.getInjectedPayloadWithinBudget(width, height, ImageFormat.JPEG);
                 } else if (format == 35 || format == ImageFormat.YUV_420_888) {
-                    Logger.i(TAG, "Intercepted YUV_420_888 Image");
-                    fakeData = dispatcher.getInjectedYUVData(width, height);
+                    Logger.d(TAG, "Intercepted YUV_420_888 Image");
+                    fakeData = dispatcher.getInjectedPayloadWithinBudget(width, height, ImageFormat.YUV_420_888);
                 }
 
+                // Null when over budget: the real frame goes through and the payload is ready for the next one
                 if (fakeData == null || fakeData.length == 0) {
-                    watchdog.cancel();
+                    deadline.cancel();
                     return;
                 }
 
                 Image.Plane[] planes = image.getPlanes();
                 if (planes == null || planes.length == 0) {
-                    watchdog.cancel();
+                    deadline.cancel();
                     return;
                 }
 
-                // High-Performance Injection: Attempt to write directly to the app's buffer
-                for (int i = 0; i < planes.length; i++) {
-                    ByteBuffer buffer = planes[i].getBuffer();
-                    if (buffer == null)
-                        continue;
-
-                    try {
-                        if (format == 256 || i == 0) {
-                            writeToBuffer(buffer, fakeData);
-                            if (format == 256)
-                                break;
-                        }
-                    } catch (Throwable t) {
-                        Logger.d(TAG, "Plane " + i + " injection failed: " + t.getMessage());
+                // High-Performance Injection: write directly to the app's buffer
+                if (format == ImageFormat.JPEG) {
+                    fakeData = injectJpeg(planes[0], fakeData, width, height);
+                    if (fakeData == null) {
+                        deadline.cancel();
+                        return;
                     }
+                    // The app's save path now carries our JPEG
+                    CaptureTracker.markInjected("Camera2.ImageReader", fakeData);
+                } else if (planes[0].getBuffer() != null) {
+                    writeToBuffer(planes[0].getBuffer(), fakeData);
                 }
-
-                Logger.i(TAG, "Camera2 injection completed successfully");
-                watchdog.cancel(); // SUCCESS
+                Logger.d(TAG, "Camera2 injection completed successfully");
+                deadline.cancel(); // SUCCESS
             } catch (Throwable t) {
                 Logger.e(TAG, "Unexpected error in processImage injection: " + t.getMessage());
-                watchdog.cancel();
+                deadline.cancel();
             }
         } catch (Throwable t) {
             Logger.e(TAG, "Error in processImage entry: " + t.getMessage());
         }
     }
 
+    private void injectBurstFrame(Image image, BurstQueue.Frame frame, byte[] payload) {
+        try {
+            Image.Plane[] planes = image.getPlanes();
+            if (planes != null && planes.length > 0 && planes[0].getBuffer() != null) {
+                // JPEG has a single plane; NV21 payloads go to the luma plane as in processImage
+                if (image.getFormat() == ImageFormat.JPEG) {
+                    injectJpeg(planes[0], payload, image.getWidth(), image.getHeight());
+                } else {
+                    writeToBuffer(planes[0].getBuffer(), payload);
+                }
+            }
+
+            if (frame.isLast()) {
+                long elapsedMs = (System.nanoTime() - frame.burstStartNanos) / 1_000_000;
+                Logger.i(TAG, "Burst of " + frame.total + " frames injected in " + elapsedMs + "ms");
+            } else {
+                Logger.d(TAG, "Burst frame %d/%d injected", frame.index, frame.total);
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error injecting burst frame: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Learns the burst length of each output from the request list and starts
+     * preparing all payloads in one batch on the prepare thread, so the app's
+     * captureBurst call is not held up and every frame is a plain copy.
+     */
+    private void prepareBurst(List<?> requests) {
+        try {
+            // Frames per registered ImageReader target, in first-seen order
+            Map<ImageReaderRegistry.ReaderInfo, Integer> counts = new LinkedHashMap<>();
+            for (Object request : requests) {
+                Object targets = XposedHelpers.callMethod(request, "getTargets");
+                if (!(targets instanceof Collection))
+                    continue;
+                for (Object target : (Collection<?>) targets) {
+                    ImageReaderRegistry.ReaderInfo info = target instanceof Surface
+                            ? ImageReaderRegistry.lookupSurface((Surface) target)
+                            : null;
+                    if (info != null) {
+                        Integer count = counts.get(info);
+                        counts.put(info, count == null ? 1 : count + 1);
+                    }
+                }
+            }
+            if (counts.isEmpty())
+                return;
+
+            int n = counts.size();
+            ImageReaderRegistry.ReaderInfo[] readers = counts.keySet().toArray(new ImageReaderRegistry.ReaderInfo[n]);
+            int[] widths = new int[n];
+            int[] heights = new int[n];
+            int[] formats = new int[n];
+            for (int i = 0; i < n; i++) {
+                widths[i] = readers[i].width;
+                heights[i] = readers[i].height;
+                formats[i] = readers[i].format;
+            }
+
+            final long start = System.nanoTime();
+            final int size = requests.size();
+            CompletableFuture<byte[][]> batch = dispatcher.getInjectedBurstDataAsync(widths, heights, formats);
+            for (int i = 0; i < n; i++) {
+                final int output = i;
+                BurstQueue.enqueue(readers[i], batch.thenApply(payloads -> payloads[output]), counts.get(readers[i]));
+            }
+            batch.thenRun(() -> Logger.i(TAG, "Prepared burst of " + size + " requests across " + n
+                    + " outputs in " + (System.nanoTime() - start) / 1_000_000 + "ms"));
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error preparing burst: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Writes an injected JPEG into the plane's buffer with this shot's Exif
+     * segment spliced in after SOI, straight from the cached payload.
+     *
+     * @return The JPEG written, before stamping, or null if none was
+     */
+    private byte[] injectJpeg(Image.Plane plane, byte[] jpeg, int width, int height) {
+        ByteBuffer buffer = plane.getBuffer();
+        if (buffer == null)
+            return null;
+        if (buffer.isReadOnly()) {
+            Logger.d(TAG, "Buffer is read-only, attempting direct modification (best effort)");
+            return null;
+        }
+        byte[] segment = ExifSplicer.buildSegment(dispatcher.newShotMetadata(width, height));
+        jpeg = fitJpeg(buffer, jpeg, width, height, segment.length);
+        if (jpeg == null)
+            return null;
+        try {
+            int written = ExifSplicer.splice(jpeg, segment, buffer);
+            Logger.d(TAG, "Successfully injected %d bytes", written);
+            return jpeg;
+        } catch (Throwable t) {
+            Logger.d(TAG, "Buffer write failed: %s", t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns a JPEG that fits the buffer with room for the Exif segment: the
+     * payload itself, or a lower-quality encode found off the capture thread
+     * and cached per size and capacity. Truncating a JPEG would only produce
+     * a broken image, so null (pass the real frame) is returned while the
+     * fitted one is prepared.
+     */
+    private byte[] fitJpeg(ByteBuffer buffer, byte[] jpeg, int width, int height, int exifLength) {
+        int capacity = buffer.capacity() - exifLength;
+        if (jpeg.length <= capacity)
+            return jpeg;
+        Logger.d(TAG, "Injected JPEG (%d bytes) exceeds buffer capacity %d", jpeg.length, capacity);
+        return capacity > 0 ? dispatcher.getFittedJpegWithinBudget(width, height, capacity) : null;
+    }
+
     private void writeToBuffer(ByteBuffer buffer, byte[] data) {
         try {
             if (buffer.isReadOnly()) {
@@ -310,10 +537,32 @@ public class Camera2Hook {
             buffer.clear();
             buffer.put(data, 0, toWrite);
             buffer.limit(toWrite);
-            Logger.i(TAG, "Successfully injected " + toWrite + " bytes");
+            Logger.d(TAG, "Successfully injected %d bytes", toWrite);
+        } catch (Throwable t) {
+            Logger.d(TAG, "Buffer write failed: %s", t.getMessage());
+        }
+    }
+
+    /**
+     * True if a capture request writes to a registered JPEG ImageReader, i.e.
+     * it takes a still the app will save.
+     */
+    private boolean targetsStillOutput(Object request) {
+        try {
+            Object targets = XposedHelpers.callMethod(request, "getTargets");
+            if (!(targets instanceof Collection))
+                return false;
+            for (Object target : (Collection<?>) targets) {
+                ImageReaderRegistry.ReaderInfo info = target instanceof Surface
+                        ? ImageReaderRegistry.lookupSurface((Surface) target)
+                        : null;
+                if (info != null && info.format == ImageFormat.JPEG)
+                    return true;
+            }
         } catch (Throwable t) {
-            Logger.d(TAG, "Buffer write failed: " + t.getMessage());
+            Logger.d(TAG, "Could not read capture targets: %s", t.getMessage());
         }
+        return false;
     }
 
     private void hookCaptureSession() {
@@ -325,20 +574,29 @@ public class Camera2Hook {
             XposedBridge.hookAllMethods(captureSessionClass, "capture", new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    if (dispatcher.isInjectionEnabled()) {
-                        Logger.i(TAG, "Camera2 capture() called - photo capture in progress");
+                    // AF, precapture and flash one-shots also go through capture(); they save nothing
+                    if (dispatcher.getGate().isOpen(HookGate.Family.CAMERA2) && param.args.length > 0
+                            && targetsStillOutput(param.args[0])) {
+                        CaptureTracker.Transaction capture = CaptureTracker.open("Camera2.capture");
+                        Logger.i(TAG, "Camera2 capture() called - photo capture #" + capture.id + " in progress");
                     }
                 }
             });
 
-            XposedBridge.hookAllMethods(captureSessionClass, "captureBurst", new XC_MethodHook() {
+            // captureBurst(List, CaptureCallback, Handler) and API 28+ captureBurstRequests(List, Executor, ...)
+            XC_MethodHook burstHook = new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    if (dispatcher.isInjectionEnabled()) {
-                        Logger.i(TAG, "Camera2 captureBurst() called");
+                    if (!dispatcher.getGate().isOpen(HookGate.Family.CAMERA2))
+                        return;
+                    Logger.i(TAG, "Camera2 captureBurst() called");
+                    if (param.args.length > 0 && param.args[0] instanceof List) {
+                        prepareBurst((List<?>) param.args[0]);
                     }
                 }
-            });
+            };
+            XposedBridge.hookAllMethods(captureSessionClass, "captureBurst", burstHook);
+            XposedBridge.hookAllMethods(captureSessionClass, "captureBurstRequests", burstHook);
 
             XposedBridge.hookAllMethods(captureSessionClass, "close", new XC_MethodHook() {
                 @Override
@@ -1,5 +1,6 @@
 package com.camerainterceptor.hooks;
 
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.Camera.PictureCallback;
 import android.hardware.Camera.ShutterCallback;
@@ -7,13 +8,21 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
 import com.camerainterceptor.interfaces.HookCallback;
+import com.camerainterceptor.processor.PreviewFrameInjector;
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.state.HookState;
+import com.camerainterceptor.utils.DeadlineWheel;
 import com.camerainterceptor.utils.ImageUtils.ImageMetadata;
 import com.camerainterceptor.utils.Logger;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
 
 import java.lang.reflect.Method;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -30,20 +39,37 @@ public class CameraHook {
     private static final long PREVIEW_RESTART_DELAY_MS = 100;
 
     private final HookDispatcher dispatcher;
+    private final DeadlineWheel.Timer injectionDeadline = DeadlineWheel.get().timer("Legacy Injection", 3000);
     private final Handler mainHandler;
+    private final ExecutorService captureExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LegacyCapture");
+        t.setDaemon(true);
+        return t;
+    });
     private android.view.Surface viewfinderSurface;
 
+    // Camera instance -> HookState camera id, and Parameters -> owning camera id
+    private final WeakIdentityRegistry<Object, String> cameraIds = new WeakIdentityRegistry<>();
+    private final WeakIdentityRegistry<Object, String> parameterOwners = new WeakIdentityRegistry<>();
+
+    private final PreviewFrameInjector previewInjector;
+    // Bumped on every preview size/format change so callbacks re-resolve their geometry
+    private volatile int previewConfigVersion = 0;
+
     public CameraHook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.previewInjector = new PreviewFrameInjector(dispatcher);
         initHooks();
     }
 
     private void initHooks() {
         try {
             Logger.i(TAG, "Initializing Camera API hooks");
+            hookCameraOpen();
             hookCameraParameters();
             hookViewfinder();
+            hookPreviewCallbacks();
             hookTakePicture();
         } catch (Throwable t) {
             Logger.e(TAG, "Failed to initialize Camera API hooks: " + t.getMessage());
@@ -78,7 +104,8 @@ public class CameraHook {
             XposedBridge.hookMethod(XposedHelpers.findMethodExact(Camera.class, "startPreview"), new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                    if (!dispatcher.isInjectionEnabled() || !dispatcher.isViewfinderSpoofingEnabled())
+                    HookGate gate = dispatcher.getGate();
+                    if (!gate.isOpen(HookGate.Family.LEGACY_CAMERA) || !gate.isViewfinderSpoofingEnabled())
                         return;
 
                     // Deep Surface Mode (Phase 3) - Only start if enabled
@@ -105,14 +132,62 @@ public class CameraHook {
         }
     }
 
+    /**
+     * Returns the HookState camera id for a legacy Camera instance.
+     */
+    private String cameraIdOf(Object camera) {
+        String id = cameraIds.get(camera);
+        return id != null ? id : HookState.getActiveCamera();
+    }
+
+    private void hookCameraOpen() {
+        try {
+            // Camera.open() and Camera.open(int) - remember which id each instance belongs to
+            XposedBridge.hookAllMethods(Camera.class, "open", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    Object camera = param.getResult();
+                    if (camera == null)
+                        return;
+                    int cameraIndex = param.args.length > 0 && param.args[0] instanceof Integer ? (Integer) param.args[0] : 0;
+                    String id = "legacy:" + cameraIndex;
+                    cameraIds.put(camera, id);
+                    HookState.setActiveCamera(id);
+                    Logger.d(TAG, "Camera opened: " + id);
+                }
+            });
+
+            // Parameters objects are detached from their Camera; link them back on getParameters()
+            XposedHelpers.findAndHookMethod(Camera.class, "getParameters", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    Object params = param.getResult();
+                    if (params != null) {
+                        parameterOwners.put(params, cameraIdOf(param.thisObject));
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to hook Camera.open: " + t.getMessage());
+        }
+    }
+
+    private String cameraIdOfParameters(Object parameters) {
+        String id = parameterOwners.get(parameters);
+        return id != null ? id : HookState.getActiveCamera();
+    }
+
     private void hookCameraParameters() {
         try {
             XposedHelpers.findAndHookMethod(Camera.Parameters.class, "setPreviewSize",
                     int.class, int.class, new XC_MethodHook() {
                         @Override
                         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                            com.camerainterceptor.state.HookState.setTargetResolution((int) param.args[0],
-                                    (int) param.args[1]);
+                            HookState.StreamConfig config = HookState.setStreamResolution(
+                                    cameraIdOfParameters(param.thisObject), HookState.StreamRole.PREVIEW,
+                                    (int) param.args[0], (int) param.args[1]);
+                            previewConfigVersion++;
+                            dispatcher.prepareStreamAsync(config.width, config.height, config.format);
                         }
                     });
 
@@ -120,8 +195,10 @@ public class CameraHook {
                     int.class, int.class, new XC_MethodHook() {
                         @Override
                         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                            com.camerainterceptor.state.HookState.setTargetResolution((int) param.args[0],
-                                    (int) param.args[1]);
+                            HookState.StreamConfig config = HookState.setStreamResolution(
+                                    cameraIdOfParameters(param.thisObject), HookState.StreamRole.STILL,
+                                    (int) param.args[0], (int) param.args[1]);
+                            dispatcher.prepareStreamAsync(config.width, config.height, ImageFormat.JPEG);
                         }
                     });
 
@@ -129,7 +206,9 @@ public class CameraHook {
                     int.class, new XC_MethodHook() {
                         @Override
                         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                            com.camerainterceptor.state.HookState.setTargetFormat((int) param.args[0]);
+                            HookState.setStreamFormat(cameraIdOfParameters(param.thisObject),
+                                    HookState.StreamRole.PREVIEW, (int) param.args[0]);
+                            previewConfigVersion++;
                         }
                     });
         } catch (Throwable t) {
@@ -137,6 +216,87 @@ public class CameraHook {
         }
     }
 
+    /**
+     * Wraps the app's PreviewCallback so frames delivered through
+     * setPreviewCallback, setOneShotPreviewCallback and
+     * setPreviewCallbackWithBuffer (QR / OCR scanners) carry the injected image.
+     */
+    private void hookPreviewCallbacks() {
+        XC_MethodHook wrapHook = new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                Object callback = param.args[0];
+                if (callback == null || callback instanceof InjectingPreviewCallback)
+                    return;
+                param.args[0] = new InjectingPreviewCallback((Camera.PreviewCallback) callback);
+                Logger.d(TAG, "Wrapped PreviewCallback via " + param.method.getName());
+            }
+        };
+
+        for (String method : new String[] { "setPreviewCallback", "setOneShotPreviewCallback",
+                "setPreviewCallbackWithBuffer" }) {
+            try {
+                XposedHelpers.findAndHookMethod(Camera.class, method, Camera.PreviewCallback.class, wrapHook);
+            } catch (Throwable t) {
+                Logger.e(TAG, "Failed to hook " + method + ": " + t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of each preview buffer in place before handing it
+     * to the app's callback. Runs on the camera's event thread at frame rate,
+     * so the per-frame path allocates nothing.
+     */
+    private final class InjectingPreviewCallback implements Camera.PreviewCallback {
+        private final Camera.PreviewCallback original;
+
+        // Geometry resolved for previewConfigVersion == resolvedVersion
+        private int resolvedVersion = -1;
+        private int width = -1;
+        private int height = -1;
+        private int format = ImageFormat.NV21;
+
+        InjectingPreviewCallback(Camera.PreviewCallback original) {
+            this.original = original;
+        }
+
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            try {
+                if (data != null && dispatcher.getGate().isOpen(HookGate.Family.LEGACY_CAMERA)) {
+                    if (resolvedVersion != previewConfigVersion) {
+                        resolveGeometry(camera);
+                    }
+                    previewInjector.inject(data, width, height, format);
+                }
+            } catch (Throwable t) {
+                Logger.e(TAG, "Error injecting preview frame: " + t.getMessage());
+            }
+
+            // ALWAYS call original - never break the app's camera flow
+            original.onPreviewFrame(data, camera);
+        }
+
+        private void resolveGeometry(Camera camera) {
+            resolvedVersion = previewConfigVersion;
+            HookState.StreamConfig preview = HookState.getStream(cameraIdOf(camera), HookState.StreamRole.PREVIEW);
+            if (preview != null && preview.hasValidResolution()) {
+                width = preview.width;
+                height = preview.height;
+                format = preview.format;
+                return;
+            }
+
+            // App kept the driver's default preview size
+            Camera.Parameters parameters = camera.getParameters();
+            Camera.Size size = parameters.getPreviewSize();
+            width = size.width;
+            height = size.height;
+            format = parameters.getPreviewFormat();
+        }
+    }
+
     private void hookTakePicture() {
         try {
             Method takePictureMethod = XposedHelpers.findMethodExactIfExists(
@@ -152,8 +312,7 @@ public class CameraHook {
             XposedBridge.hookMethod(takePictureMethod, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                    String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                    if (!dispatcher.isPackageAllowed(targetPackage) || !dispatcher.isInjectionEnabled()) {
+                    if (!dispatcher.getGate().isOpen(HookGate.Family.LEGACY_CAMERA)) {
                         return;
                     }
 
@@ -162,64 +321,40 @@ public class CameraHook {
                     if (jpegCallback == null)
                         return;
 
+                    long shutterNanos = System.nanoTime();
+                    CaptureTracker.open("Camera.takePicture");
                     Logger.i(TAG, "Intercepting takePicture...");
 
-                    // 1. Start Watchdog
-                    com.camerainterceptor.utils.Watchdog watchdog = new com.camerainterceptor.utils.Watchdog(
-                            "Legacy Injection", 3000, () -> {
-                                Logger.e(TAG, "Watchdog triggered: Injection timed out. Recovering...");
-                            });
-                    watchdog.start();
-
                     try {
-                        int targetWidth = com.camerainterceptor.state.HookState.getTargetWidth();
-                        int targetHeight = com.camerainterceptor.state.HookState.getTargetHeight();
-                        byte[] imageData = dispatcher.getInjectedImageBytes(targetWidth, targetHeight);
+                        // Scale to this camera's picture size, not whatever stream was configured last
+                        HookState.StreamConfig still = HookState.getStream(cameraIdOf(camera),
+                                HookState.StreamRole.STILL);
+                        int targetWidth = still != null ? still.width : -1;
+                        int targetHeight = still != null ? still.height : -1;
+                        Future<byte[]> payload = dispatcher.getInjectedPayloadAsync(targetWidth, targetHeight,
+                                ImageFormat.JPEG);
 
-                        if (imageData == null) {
-                            watchdog.cancel();
-                            return;
+                        // Callbacks go to the camera's own callback looper, as the real capture would
+                        Handler callbackHandler = callbackHandlerOf(camera);
+                        ShutterCallback shutterCallback = (ShutterCallback) param.args[0];
+                        if (shutterCallback != null) {
+                            callbackHandler.post(() -> {
+                                try {
+                                    shutterCallback.onShutter();
+                                } catch (Throwable t) {
+                                    Logger.e(TAG, "Error delivering shutter callback: " + t.getMessage());
+                                }
+                            });
                         }
 
                         param.setResult(null);
-
-                        final ShutterCallback shutterCallback = (ShutterCallback) param.args[0];
-                        final PictureCallback rawCallback = (PictureCallback) param.args[1];
-                        final PictureCallback postviewCallback = (PictureCallback) param.args[2];
-
-                        Runnable deliverCallbacks = () -> {
-                            try {
-                                if (shutterCallback != null)
-                                    shutterCallback.onShutter();
-                                if (rawCallback != null)
-                                    rawCallback.onPictureTaken(null, camera);
-                                if (postviewCallback != null)
-                                    postviewCallback.onPictureTaken(null, camera);
-
-                                jpegCallback.onPictureTaken(imageData, camera);
-                                Logger.i(TAG, "Injected " + imageData.length + " bytes successfully");
-                                watchdog.cancel(); // SUCCESS
-
-                                mainHandler.postDelayed(() -> {
-                                    try {
-                                        camera.startPreview();
-                                    } catch (Throwable ignored) {
-                                    }
-                                }, PREVIEW_RESTART_DELAY_MS);
-                            } catch (Throwable t) {
-                                Logger.e(TAG, "Error delivering callbacks: " + t.getMessage());
-                                watchdog.cancel();
-                            }
-                        };
-
-                        if (Looper.myLooper() == Looper.getMainLooper()) {
-                            deliverCallbacks.run();
-                        } else {
-                            mainHandler.post(deliverCallbacks);
-                        }
+                        captureExecutor.execute(new PendingCapture(param.method, camera, param.args, payload,
+                                callbackHandler, shutterNanos, injectionDeadline.arm()));
                     } catch (Throwable t) {
                         Logger.e(TAG, "Unexpected error during injection: " + t.getMessage());
-                        watchdog.cancel();
+                    } finally {
+                        Logger.i(TAG, "takePicture returned to caller in "
+                                + (System.nanoTime() - shutterNanos) / 1_000_000 + "ms");
                     }
                 }
             });
@@ -228,6 +363,103 @@ public class CameraHook {
         }
     }
 
+    /**
+     * Returns a Handler on the looper the Camera delivers its callbacks on (the
+     * thread that opened it), falling back to the main looper.
+     */
+    private Handler callbackHandlerOf(Camera camera) {
+        try {
+            Object eventHandler = XposedHelpers.getObjectField(camera, "mEventHandler");
+            if (eventHandler instanceof Handler) {
+                return new Handler(((Handler) eventHandler).getLooper());
+            }
+        } catch (Throwable t) {
+            Logger.d(TAG, "Camera event handler unavailable: " + t.getMessage());
+        }
+        return mainHandler;
+    }
+
+    /**
+     * Waits for the injected JPEG off the caller's thread, then delivers the
+     * remaining picture callbacks in order on the camera's callback looper. If
+     * no payload can be produced the real takePicture runs instead.
+     */
+    private final class PendingCapture implements Runnable {
+        private final java.lang.reflect.Member method;
+        private final Camera camera;
+        private final Object[] args;
+        private final Future<byte[]> payload;
+        private final Handler callbackHandler;
+        private final long shutterNanos;
+        private final DeadlineWheel.Deadline deadline;
+
+        PendingCapture(java.lang.reflect.Member method, Camera camera, Object[] args, Future<byte[]> payload,
+                Handler callbackHandler, long shutterNanos, DeadlineWheel.Deadline deadline) {
+            this.method = method;
+            this.camera = camera;
+            this.args = args;
+            this.payload = payload;
+            this.callbackHandler = callbackHandler;
+            this.shutterNanos = shutterNanos;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            // Same budget as every other injection; over it the real shot is taken
+            byte[] imageData = dispatcher.awaitWithinBudget("takePicture", payload);
+            if (imageData == null) {
+                deadline.cancel();
+                fallBackToRealCapture();
+                return;
+            }
+
+            final byte[] jpeg = dispatcher.stampExif(imageData);
+            final PictureCallback rawCallback = (PictureCallback) args[1];
+            final PictureCallback postviewCallback = (PictureCallback) args[2];
+            final PictureCallback jpegCallback = (PictureCallback) args[3];
+
+            callbackHandler.post(() -> {
+                try {
+                    if (rawCallback != null)
+                        rawCallback.onPictureTaken(null, camera);
+                    if (postviewCallback != null)
+                        postviewCallback.onPictureTaken(null, camera);
+
+                    // Marked first: the app usually writes the JPEG from inside the callback
+                    CaptureTracker.markInjected("Camera.takePicture", jpeg);
+                    jpegCallback.onPictureTaken(jpeg, camera);
+                    Logger.i(TAG, "Injected " + jpeg.length + " bytes successfully, shutter to JPEG in "
+                            + (System.nanoTime() - shutterNanos) / 1_000_000 + "ms");
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error delivering callbacks: " + t.getMessage());
+                } finally {
+                    deadline.cancel();
+                }
+
+                callbackHandler.postDelayed(() -> {
+                    try {
+                        camera.startPreview();
+                    } catch (Throwable ignored) {
+                    }
+                }, PREVIEW_RESTART_DELAY_MS);
+            });
+        }
+
+        private void fallBackToRealCapture() {
+            // The shutter callback was already delivered
+            final Object[] realArgs = new Object[] { null, args[1], args[2], args[3] };
+            callbackHandler.post(() -> {
+                try {
+                    Logger.w(TAG, "No injected JPEG available, running real takePicture");
+                    XposedBridge.invokeOriginalMethod(method, camera, realArgs);
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Real takePicture failed: " + t.getMessage());
+                }
+            });
+        }
+    }
+
     private String buildStack() {
         StringBuilder sb = new StringBuilder();
         StackTraceElement[] stack = Thread.currentThread().getStackTrace();
@@ -2,12 +2,39 @@ package com.camerainterceptor.hooks;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.ImageFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Size;
+import android.view.Surface;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
+import com.camerainterceptor.processor.YuvPlaneWriter;
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.utils.FileTransfer;
 import com.camerainterceptor.utils.Logger;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -15,15 +42,23 @@ import de.robv.android.xposed.XposedHelpers;
 
 /**
  * Hooks for the CameraX API (androidx.camera)
- * With the new ImageReader strategy, we don't need to intercept CameraX
- * explicitly.
- * CameraX sits on top of Camera2, so our Camera2 ImageReader hooks should
- * handle the data injection.
- * We keep this class primarily for logging or future specific tweaks.
+ * CameraX sits on top of Camera2, so still captures are handled by our Camera2
+ * ImageReader hooks. ImageAnalysis frames reach the app as ImageProxy wrappers
+ * around pooled readers, so analyzers are wrapped here and their frames
+ * injected directly. Preview surfaces are taken from the SurfaceRequest so the
+ * viewfinder is spoofed at the exact resolution and rotation CameraX chose.
  */
 public class CameraxHook {
     private static final String TAG = "CameraXHook";
     private final HookDispatcher dispatcher;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // SurfaceRequests issued to the app's Preview.SurfaceProvider
+    private final WeakIdentityRegistry<Object, PreviewTarget> previewRequests = new WeakIdentityRegistry<>();
+    private final ExecutorService captureExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "CameraXCapture");
+        t.setDaemon(true);
+        return t;
+    });
 
     public CameraxHook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
@@ -37,11 +72,17 @@ public class CameraxHook {
 
     private void initHooks() {
         try {
-            Logger.i(TAG, "Initializing CameraX API hooks (Logging only)");
+            Logger.i(TAG, "Initializing CameraX API hooks");
 
             // Hook ImageCapture to log photo requests
             hookImageCapture();
 
+            // Wrap ImageAnalysis analyzers to inject into their frames
+            hookImageAnalysis();
+
+            // Spoof the Preview use case's viewfinder surface
+            hookPreviewSurface();
+
             Logger.i(TAG, "CameraX API hooks initialized");
         } catch (Throwable t) {
             Logger.e(TAG, "Failed to initialize CameraX API hooks: " + t.getMessage());
@@ -71,11 +112,13 @@ public class CameraxHook {
                     XposedBridge.hookMethod(takePictureCallbackMethod, new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (dispatcher.isProfilingEnabled()) {
+                            if (dispatcher.getGate().isProfilingEnabled()) {
                                 Logger.i(TAG, "[PROFILE] CameraX takePicture(Callback) stack=" + stackSummary());
                                 return;
                             }
-                            if (dispatcher.isInjectionEnabled()) {
+                            if (dispatcher.getGate().isOpen(HookGate.Family.CAMERAX)) {
+                                // Camera2's capture() below joins this transaction
+                                CaptureTracker.open("CameraX.takePicture");
                                 Logger.i(TAG,
                                         "CameraX ImageCapture.takePicture(Callback) detected - relying on Camera2 ImageReader hook");
                             }
@@ -99,14 +142,26 @@ public class CameraxHook {
                     XposedBridge.hookMethod(takePictureSavedMethod, new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (dispatcher.isProfilingEnabled()) {
+                            if (dispatcher.getGate().isProfilingEnabled()) {
                                 Logger.i(TAG, "[PROFILE] CameraX takePicture(OutputFileOptions) stack=" + stackSummary());
                                 return;
                             }
-                            if (dispatcher.isInjectionEnabled()) {
+                            if (!dispatcher.getGate().isOpen(HookGate.Family.CAMERAX))
+                                return;
+                            CaptureTracker.open("CameraX.takePicture");
+
+                            File source = dispatcher.getInjectableJpegFile();
+                            if (source == null || param.args[0] == null || param.args[1] == null
+                                    || param.args[2] == null) {
                                 Logger.i(TAG,
                                         "CameraX ImageCapture.takePicture(OutputFileOptions) detected - relying on Camera2 ImageReader hook");
+                                return;
                             }
+
+                            // Fast path: no sensor round trip, just copy the injected JPEG to the target
+                            param.setResult(null);
+                            captureExecutor.execute(new SaveToOutputFile(param.method, param.thisObject,
+                                    param.args, source, System.nanoTime()));
                         }
                     });
                 }
@@ -116,6 +171,455 @@ public class CameraxHook {
         }
     }
 
+    /**
+     * Wraps every Analyzer passed to ImageAnalysis.setAnalyzer in a proxy that
+     * overwrites each YUV ImageProxy with the injected frame before the app's
+     * analyzer sees it. All other Analyzer methods are forwarded unchanged.
+     */
+    private void hookImageAnalysis() {
+        try {
+            ClassLoader classLoader = dispatcher.getClassLoader();
+            Class<?> imageAnalysisClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.ImageAnalysis", classLoader);
+            final Class<?> analyzerClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.ImageAnalysis$Analyzer", classLoader);
+            Class<?> imageProxyClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.ImageProxy", classLoader);
+            Class<?> planeProxyClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.ImageProxy$PlaneProxy", classLoader);
+            if (imageAnalysisClass == null || analyzerClass == null || imageProxyClass == null
+                    || planeProxyClass == null) {
+                return;
+            }
+
+            final AnalysisFrameInjector injector = new AnalysisFrameInjector(imageProxyClass, planeProxyClass);
+
+            XposedBridge.hookAllMethods(imageAnalysisClass, "setAnalyzer", new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    for (int i = 0; i < param.args.length; i++) {
+                        Object analyzer = param.args[i];
+                        if (!analyzerClass.isInstance(analyzer) || isWrapped(analyzer))
+                            continue;
+                        param.args[i] = Proxy.newProxyInstance(analyzerClass.getClassLoader(),
+                                new Class<?>[] { analyzerClass }, new AnalyzerHandler(analyzer, injector));
+                        Logger.i(TAG, "Wrapped ImageAnalysis.Analyzer " + analyzer.getClass().getName());
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to hook ImageAnalysis: " + t.getMessage());
+        }
+    }
+
+    private static boolean isWrapped(Object analyzer) {
+        return Proxy.isProxyClass(analyzer.getClass())
+                && Proxy.getInvocationHandler(analyzer) instanceof AnalyzerHandler;
+    }
+
+    private final class AnalyzerHandler implements InvocationHandler {
+        private final Object original;
+        private final AnalysisFrameInjector injector;
+
+        AnalyzerHandler(Object original, AnalysisFrameInjector injector) {
+            this.original = original;
+            this.injector = injector;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("analyze".equals(method.getName()) && args != null && args.length == 1 && args[0] != null) {
+                try {
+                    if (dispatcher.getGate().isOpen(HookGate.Family.CAMERAX)) {
+                        injector.inject(args[0]);
+                    }
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error injecting analysis frame: " + t.getMessage());
+                }
+            }
+
+            try {
+                return method.invoke(original, args);
+            } catch (InvocationTargetException e) {
+                // Re-throw the analyzer's own exception, not the reflection wrapper
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Fills ImageProxy planes from a {@link YuvPlaneWriter} built once per
+     * analyzer resolution and stride layout. ImageProxy methods are resolved
+     * once, so each frame costs a handful of reflective getters and the plane
+     * copies.
+     */
+    private final class AnalysisFrameInjector {
+        private final Method getFormat;
+        private final Method getWidth;
+        private final Method getHeight;
+        private final Method getPlanes;
+        private final Method getBuffer;
+        private final Method getRowStride;
+        private final Method getPixelStride;
+
+        private volatile YuvPlaneWriter writer;
+        private volatile int writerGeneration = -1;
+
+        AnalysisFrameInjector(Class<?> imageProxyClass, Class<?> planeProxyClass) throws NoSuchMethodException {
+            getFormat = imageProxyClass.getMethod("getFormat");
+            getWidth = imageProxyClass.getMethod("getWidth");
+            getHeight = imageProxyClass.getMethod("getHeight");
+            getPlanes = imageProxyClass.getMethod("getPlanes");
+            getBuffer = planeProxyClass.getMethod("getBuffer");
+            getRowStride = planeProxyClass.getMethod("getRowStride");
+            getPixelStride = planeProxyClass.getMethod("getPixelStride");
+        }
+
+        void inject(Object image) throws Exception {
+            if ((Integer) getFormat.invoke(image) != ImageFormat.YUV_420_888)
+                return;
+
+            Object[] planes = (Object[]) getPlanes.invoke(image);
+            if (planes == null || planes.length < 3)
+                return;
+
+            int width = (Integer) getWidth.invoke(image);
+            int height = (Integer) getHeight.invoke(image);
+            int[] rowStrides = new int[3];
+            int[] pixelStrides = new int[3];
+            ByteBuffer[] buffers = new ByteBuffer[3];
+            for (int i = 0; i < 3; i++) {
+                rowStrides[i] = (Integer) getRowStride.invoke(planes[i]);
+                pixelStrides[i] = (Integer) getPixelStride.invoke(planes[i]);
+                buffers[i] = (ByteBuffer) getBuffer.invoke(planes[i]);
+            }
+
+            YuvPlaneWriter current = writer;
+            int generation = HookDispatcher.getImageGeneration();
+            if (current == null || writerGeneration != generation
+                    || !current.matches(width, height, rowStrides, pixelStrides)) {
+                // Over budget: the real frame goes through and the next one is injected
+                byte[] nv21 = dispatcher.getInjectedPayloadWithinBudget(width, height, ImageFormat.YUV_420_888);
+                if (nv21 == null)
+                    return;
+                current = new YuvPlaneWriter(nv21, width, height, rowStrides, pixelStrides);
+                writer = current;
+                writerGeneration = generation;
+                Logger.i(TAG, "Prepared " + width + "x" + height + " analysis frame layout (strides "
+                        + rowStrides[0] + "/" + rowStrides[1] + ", pixel stride " + pixelStrides[1] + ")");
+            }
+
+            if (!current.write(buffers)) {
+                Logger.d(TAG, "Analysis frame buffers not writable");
+            }
+        }
+    }
+
+    /**
+     * Resolution and rotation of one Preview SurfaceRequest, and the surface
+     * the app provided for it.
+     */
+    private static final class PreviewTarget {
+        final int width;
+        final int height;
+        volatile int rotationDegrees;
+        volatile Surface surface;
+
+        PreviewTarget(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Wraps the app's Preview.SurfaceProvider to record each SurfaceRequest's
+     * resolution, follows its TransformationInfo for the display rotation,
+     * and starts the viewfinder on the Surface the app provides for it.
+     * Frames are drawn at the requested size, so neither our producer nor
+     * the app's PreviewView has to rescale them.
+     */
+    private void hookPreviewSurface() {
+        try {
+            ClassLoader classLoader = dispatcher.getClassLoader();
+            Class<?> previewClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.Preview", classLoader);
+            final Class<?> providerClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.Preview$SurfaceProvider", classLoader);
+            Class<?> requestClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.SurfaceRequest", classLoader);
+            final Class<?> infoListenerClass = XposedHelpers.findClassIfExists(
+                    "androidx.camera.core.SurfaceRequest$TransformationInfoListener", classLoader);
+            if (previewClass == null || providerClass == null || requestClass == null) {
+                return;
+            }
+
+            XposedBridge.hookAllMethods(previewClass, "setSurfaceProvider", new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    for (int i = 0; i < param.args.length; i++) {
+                        Object provider = param.args[i];
+                        if (!providerClass.isInstance(provider) || isWrappedProvider(provider))
+                            continue;
+                        param.args[i] = Proxy.newProxyInstance(providerClass.getClassLoader(),
+                                new Class<?>[] { providerClass }, new SurfaceProviderHandler(provider));
+                        Logger.i(TAG, "Wrapped Preview.SurfaceProvider " + provider.getClass().getName());
+                    }
+                }
+            });
+
+            if (infoListenerClass != null) {
+                XposedBridge.hookAllMethods(requestClass, "setTransformationInfoListener", new XC_MethodHook() {
+                    @Override
+                    protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                        PreviewTarget target = previewRequests.get(param.thisObject);
+                        if (target == null)
+                            return;
+                        for (int i = 0; i < param.args.length; i++) {
+                            Object listener = param.args[i];
+                            if (!infoListenerClass.isInstance(listener))
+                                continue;
+                            param.args[i] = Proxy.newProxyInstance(infoListenerClass.getClassLoader(),
+                                    new Class<?>[] { infoListenerClass },
+                                    new TransformationInfoHandler(listener, target));
+                        }
+                    }
+                });
+            }
+
+            XposedBridge.hookAllMethods(requestClass, "provideSurface", new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    PreviewTarget target = previewRequests.get(param.thisObject);
+                    if (target == null || param.args.length == 0 || !(param.args[0] instanceof Surface))
+                        return;
+                    Surface surface = (Surface) param.args[0];
+                    target.surface = surface;
+
+                    HookGate gate = dispatcher.getGate();
+                    if (!gate.isOpen(HookGate.Family.CAMERAX) || !gate.isViewfinderSpoofingEnabled()
+                            || !dispatcher.isDeepSurfaceModeEnabled())
+                        return;
+                    Logger.i(TAG, "Starting viewfinder spoofing on CameraX preview " + target.width + "x"
+                            + target.height + " @" + target.rotationDegrees + "deg");
+                    dispatcher.getViewfinderManager().startSpoofing(surface, target.width, target.height,
+                            target.rotationDegrees);
+                }
+            });
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to hook Preview surface: " + t.getMessage());
+        }
+    }
+
+    private static boolean isWrappedProvider(Object provider) {
+        return Proxy.isProxyClass(provider.getClass())
+                && Proxy.getInvocationHandler(provider) instanceof SurfaceProviderHandler;
+    }
+
+    private final class SurfaceProviderHandler implements InvocationHandler {
+        private final Object original;
+
+        SurfaceProviderHandler(Object original) {
+            this.original = original;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("onSurfaceRequested".equals(method.getName()) && args != null && args.length == 1
+                    && args[0] != null) {
+                try {
+                    Object resolution = XposedHelpers.callMethod(args[0], "getResolution");
+                    if (resolution instanceof Size) {
+                        Size size = (Size) resolution;
+                        previewRequests.put(args[0], new PreviewTarget(size.getWidth(), size.getHeight()));
+                    }
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error reading SurfaceRequest: " + t.getMessage());
+                }
+            }
+
+            try {
+                return method.invoke(original, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private final class TransformationInfoHandler implements InvocationHandler {
+        private final Object original;
+        private final PreviewTarget target;
+
+        TransformationInfoHandler(Object original, PreviewTarget target) {
+            this.original = original;
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("onTransformationInfoUpdate".equals(method.getName()) && args != null && args.length == 1
+                    && args[0] != null) {
+                try {
+                    int rotation = (Integer) XposedHelpers.callMethod(args[0], "getRotationDegrees");
+                    target.rotationDegrees = rotation;
+                    Surface surface = target.surface;
+                    if (surface != null && dispatcher.getViewfinderManager().isSpoofing(surface)) {
+                        dispatcher.getViewfinderManager().setRotation(rotation);
+                    }
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error reading TransformationInfo: " + t.getMessage());
+                }
+            }
+
+            try {
+                return method.invoke(original, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Writes the injected JPEG to an OutputFileOptions target (File, MediaStore
+     * entry or OutputStream) and reports onImageSaved on the app's executor.
+     * If the copy fails the original takePicture runs on the main thread.
+     */
+    private final class SaveToOutputFile implements Runnable {
+        private final Member method;
+        private final Object imageCapture;
+        private final Object[] args;
+        private final File source;
+        private final long startNanos;
+
+        SaveToOutputFile(Member method, Object imageCapture, Object[] args, File source, long startNanos) {
+            this.method = method;
+            this.imageCapture = imageCapture;
+            this.args = args;
+            this.source = source;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void run() {
+            final Object options = args[0];
+            final Executor executor = (Executor) args[1];
+            final Object callback = args[2];
+
+            final Object results;
+            try {
+                HookDispatcher.setWritingInjectedData(true);
+                Uri savedUri = saveTo(options);
+                CaptureTracker.markInjected("CameraX.takePicture", null);
+                CaptureTracker.complete(savedUri != null ? savedUri.toString() : "stream");
+                results = newOutputFileResults(savedUri);
+            } catch (Throwable t) {
+                Logger.e(TAG, "CameraX fast path failed, running real capture: " + t.getMessage());
+                mainHandler.post(() -> {
+                    try {
+                        XposedBridge.invokeOriginalMethod(method, imageCapture, args);
+                    } catch (Throwable e) {
+                        Logger.e(TAG, "Real CameraX takePicture failed: " + e.getMessage());
+                    }
+                });
+                return;
+            } finally {
+                HookDispatcher.setWritingInjectedData(false);
+            }
+
+            executor.execute(() -> {
+                try {
+                    callIfPresent(callback, "onCaptureStarted");
+                    XposedHelpers.callMethod(callback, "onImageSaved", results);
+                    Logger.i(TAG, "CameraX takePicture served from injected JPEG in "
+                            + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error delivering onImageSaved: " + t.getMessage());
+                }
+            });
+        }
+
+        private Uri saveTo(Object options) throws Exception {
+            File file = (File) callIfPresent(options, "getFile");
+            if (file != null) {
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    FileTransfer.copy(source, dispatcher.newShotMetadata(0, 0), out);
+                }
+                return Uri.fromFile(file);
+            }
+
+            OutputStream stream = (OutputStream) callIfPresent(options, "getOutputStream");
+            if (stream != null) {
+                // The app owns its stream; CameraX leaves it open too
+                FileTransfer.copy(source, dispatcher.newShotMetadata(0, 0), stream);
+                return null;
+            }
+
+            ContentResolver resolver = (ContentResolver) callIfPresent(options, "getContentResolver");
+            Uri collection = (Uri) callIfPresent(options, "getSaveCollection");
+            ContentValues values = (ContentValues) callIfPresent(options, "getContentValues");
+            if (resolver == null || collection == null) {
+                throw new IllegalStateException("OutputFileOptions has no supported target");
+            }
+            return saveToMediaStore(resolver, collection, values);
+        }
+
+        private Uri saveToMediaStore(ContentResolver resolver, Uri collection, ContentValues values)
+                throws Exception {
+            ContentValues pending = values != null ? new ContentValues(values) : new ContentValues();
+            boolean usePending = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+            if (usePending) {
+                pending.put(MediaStore.MediaColumns.IS_PENDING, 1);
+            }
+
+            Uri uri = resolver.insert(collection, pending);
+            if (uri == null) {
+                throw new IllegalStateException("MediaStore insert failed for " + collection);
+            }
+            try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "w")) {
+                if (pfd == null) {
+                    throw new IllegalStateException("No descriptor for " + uri);
+                }
+                FileTransfer.copy(source, dispatcher.newShotMetadata(0, 0), pfd.getFileDescriptor());
+            } catch (Exception e) {
+                resolver.delete(uri, null, null);
+                throw e;
+            }
+
+            if (usePending) {
+                ContentValues done = new ContentValues();
+                done.put(MediaStore.MediaColumns.IS_PENDING, 0);
+                resolver.update(uri, done, null, null);
+            }
+            return uri;
+        }
+
+        private Object newOutputFileResults(Uri savedUri) throws Exception {
+            Class<?> resultsClass = XposedHelpers.findClass(
+                    "androidx.camera.core.ImageCapture$OutputFileResults", dispatcher.getClassLoader());
+            // CameraX 1.4+ also reports the saved format
+            Constructor<?> withFormat = XposedHelpers.findConstructorExactIfExists(resultsClass, Uri.class, int.class);
+            if (withFormat != null) {
+                return withFormat.newInstance(savedUri, ImageFormat.JPEG);
+            }
+            return XposedHelpers.findConstructorExact(resultsClass, Uri.class).newInstance(savedUri);
+        }
+    }
+
+    /**
+     * Calls a no-arg method if the target's CameraX version has it.
+     */
+    private static Object callIfPresent(Object target, String methodName) {
+        try {
+            Method method = target.getClass().getMethod(methodName);
+            method.setAccessible(true);
+            return method.invoke(target);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Throwable t) {
+            Logger.d(TAG, methodName + " failed: " + t.getMessage());
+            return null;
+        }
+    }
+
     private String stackSummary() {
         StringBuilder sb = new StringBuilder();
         StackTraceElement[] stack = Thread.currentThread().getStackTrace();
@@ -10,15 +10,19 @@ import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
+import com.camerainterceptor.processor.JpegStreamScanner;
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.utils.HeaderSniffingOutputStream;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
 import com.camerainterceptor.utils.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -43,6 +47,25 @@ public class FileOutputHook {
     // Track URIs that are image saves (from ContentResolver.insert)
     private static final ThreadLocal<Uri> pendingImageUri = new ThreadLocal<>();
 
+    // FileOutputStreams opened on image paths; everything else is never recorded
+    private static final WeakIdentityRegistry<FileOutputStream, TrackedStream> imageStreams =
+            new WeakIdentityRegistry<>();
+    private final AtomicBoolean writeHooksInstalled = new AtomicBoolean(false);
+
+    /**
+     * An image stream's target file, and the scanner dropping the rest of the
+     * app's JPEG while a replacement is in progress.
+     */
+    private static final class TrackedStream {
+        final File file;
+        JpegStreamScanner replacement;
+        boolean wroteImage; // Completes the capture transaction on close
+
+        TrackedStream(File file) {
+            this.file = file;
+        }
+    }
+
     public FileOutputHook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
         initHooks();
@@ -71,54 +94,50 @@ public class FileOutputHook {
         }
     }
 
+    /**
+     * Tracks FileOutputStreams opened on image paths. Every path constructor
+     * funnels into FileOutputStream(File, boolean), so that is the only one
+     * hooked. The write and close hooks are installed the first time an image
+     * stream is opened, so processes that never write an image (and all
+     * their SQLite journals and caches) pay nothing per write.
+     */
     private void hookFileOutputStream() {
         try {
-            // Hook the constructor that takes a File to track what file is being written
-            XposedHelpers.findAndHookConstructor(FileOutputStream.class, File.class,
+            XposedHelpers.findAndHookConstructor(FileOutputStream.class, File.class, boolean.class,
                     new XC_MethodHook() {
                         @Override
                         protected void afterHookedMethod(MethodHookParam param) throws Throwable {
                             try {
                                 File file = (File) param.args[0];
-                                if (file != null && isImageFile(file.getName())) {
-                                    XposedHelpers.setAdditionalInstanceField(param.thisObject, "targetFile", file);
-                                    Logger.d(TAG, "FileOutputStream opened for image: " + file.getAbsolutePath());
+                                if (file != null && isImagePath(file)) {
+                                    imageStreams.put((FileOutputStream) param.thisObject, new TrackedStream(file));
+                                    Logger.d(TAG, "FileOutputStream opened for image: %s", file);
+                                    if (writeHooksInstalled.compareAndSet(false, true)) {
+                                        hookFileOutputStreamWrites();
+                                    }
                                 }
                             } catch (Throwable t) {
                                 // Never crash the app - this is just tracking
                             }
                         }
                     });
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to hook FileOutputStream: " + t.getMessage());
+        }
+    }
 
-            XposedHelpers.findAndHookConstructor(FileOutputStream.class, String.class,
-                    new XC_MethodHook() {
-                        @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                            String path = (String) param.args[0];
-                            if (path != null && isImageFile(path)) {
-                                XposedHelpers.setAdditionalInstanceField(param.thisObject, "targetFile", new File(path));
-                                Logger.d(TAG, "FileOutputStream opened for image path: " + path);
-                            }
-                        }
-                    });
+    private void hookFileOutputStreamWrites() {
+        try {
+            Logger.i(TAG, "First image stream opened, hooking FileOutputStream writes");
 
             // Hook write(byte[]) to intercept full image writes
             XposedHelpers.findAndHookMethod(FileOutputStream.class, "write", byte[].class,
                     new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (Boolean.TRUE.equals(isIntercepting.get())) return;
-                            if (HookDispatcher.isCurrentlyLoadingImage()) return;
-                            
-                            File targetFile = (File) XposedHelpers.getAdditionalInstanceField(param.thisObject, "targetFile");
-                            if (targetFile == null) return;
-                            
                             byte[] data = (byte[]) param.args[0];
-                            if (data == null || data.length < 100) return;
-                            
-                            // Check if this looks like JPEG data
-                            if (isJpegData(data)) {
-                                tryInjectImage(param, data, targetFile, "write(byte[])");
+                            if (data != null) {
+                                handleWrite(param, data, 0, data.length, "write(byte[])");
                             }
                         }
                     });
@@ -130,23 +149,42 @@ public class FileOutputHook {
                     new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            if (Boolean.TRUE.equals(isIntercepting.get())) return;
-                            if (HookDispatcher.isCurrentlyLoadingImage()) return;
-                            
-                            File targetFile = (File) XposedHelpers.getAdditionalInstanceField(param.thisObject, "targetFile");
-                            if (targetFile == null) return;
-                            
                             byte[] data = (byte[]) param.args[0];
-                            int off = (int) param.args[1];
-                            int len = (int) param.args[2];
-                            
-                            if (data == null || len < 100) return;
-                            
-                            // Check if this looks like JPEG data (at the offset)
-                            if (isJpegDataAtOffset(data, off, len)) {
-                                Logger.i(TAG, "Intercepting JPEG via write(byte[],int,int) off=" + off + " len=" + len + 
-                                        " to: " + targetFile.getName());
-                                tryInjectImageWithOffset(param, data, off, len, targetFile);
+                            if (data != null) {
+                                handleWrite(param, data, (int) param.args[1], (int) param.args[2],
+                                        "write(byte[],int,int)");
+                            }
+                        }
+                    });
+
+            // Single-byte writes only matter while a replaced JPEG is still being written
+            XposedHelpers.findAndHookMethod(FileOutputStream.class, "write", int.class,
+                    new XC_MethodHook() {
+                        @Override
+                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                            TrackedStream tracked = imageStreams.get((FileOutputStream) param.thisObject);
+                            if (tracked == null || tracked.replacement == null) return;
+                            if (Boolean.TRUE.equals(isIntercepting.get())) return;
+                            byte[] single = new byte[] { (byte) (int) (Integer) param.args[0] };
+                            if (tracked.replacement.scan(single, 0, 1) != -1) {
+                                finishReplacement(tracked);
+                            }
+                            param.setResult(null);
+                        }
+                    });
+
+            XposedHelpers.findAndHookMethod(FileOutputStream.class, "close",
+                    new XC_MethodHook() {
+                        @Override
+                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                            TrackedStream tracked = imageStreams.remove((FileOutputStream) param.thisObject);
+                            if (tracked == null) return;
+                            if (tracked.replacement != null) {
+                                Logger.d(TAG, "Stream closed before EOI, dropped %d original bytes",
+                                        tracked.replacement.getConsumed());
+                            }
+                            if (tracked.wroteImage) {
+                                CaptureTracker.complete(tracked.file.getAbsolutePath());
                             }
                         }
                     });
@@ -168,33 +206,131 @@ public class FileOutputHook {
     }
     
     /**
-     * Inject image for write(byte[], int, int) calls
+     * Replaces a JPEG written to a tracked image file, however the app chunks it.
+     *
+     * The chunk holding SOI is replaced by the whole injected image. The
+     * stream then carries a {@link JpegStreamScanner} that swallows the rest
+     * of the original JPEG chunk by chunk until its EOI (or close), so the
+     * file ends up holding exactly the injected image. Anything the app
+     * writes after EOI passes through. A handled write is done here with
+     * reentrant writes and the original call skipped, so the write(byte[])
+     * and write(byte[],int,int) hooks never see the same bytes twice.
      */
-    private void tryInjectImageWithOffset(XC_MethodHook.MethodHookParam param, byte[] originalData, 
-            int off, int len, File targetFile) {
+    private void handleWrite(XC_MethodHook.MethodHookParam param, byte[] data, int off, int len,
+            String hookSource) {
+        FileOutputStream stream = (FileOutputStream) param.thisObject;
+        TrackedStream tracked = imageStreams.get(stream);
+        if (tracked == null) return;
+        if (Boolean.TRUE.equals(isIntercepting.get())) return;
+        if (HookDispatcher.isCurrentlyLoadingImage()) return;
+
+        JpegStreamScanner scanner = tracked.replacement;
+        if (scanner != null) {
+            // Mid-replacement: drop original bytes up to EOI
+            int end = scanner.scan(data, off, len);
+            if (end == -1) {
+                param.setResult(null);
+                return;
+            }
+            finishReplacement(tracked);
+            writeThrough(param, tracked, data, off + end, len - end);
+            return;
+        }
+
+        if (len < 100) return;
+        if (!dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) return;
+        if (!isJpegDataAtOffset(data, off, len)) return;
+        File targetFile = tracked.file;
+        String filePath = targetFile.getAbsolutePath();
+        tracked.wroteImage = true;
+
+        CaptureTracker.Transaction capture = CaptureTracker.active();
+        if (capture != null && capture.isInjected()) {
+            Logger.d(TAG, "Capture #%d already injected by %s, leaving %s", capture.id, capture.getInjectedBy(),
+                    filePath);
+            return;
+        }
+
         String targetPackage = dispatcher.getLoadPackageParam().packageName;
-        if (!dispatcher.isPackageAllowed(targetPackage)) {
+        Logger.logHookTriggered("FOS." + hookSource, "FileOutputStream", "write", targetPackage,
+                "File: " + filePath + ", Offset: " + off + ", Len: " + len);
+
+        byte[] injectedData = loadPayload(capture);
+        if (injectedData == null || injectedData.length == 0) {
+            Logger.logInjectionFailure("FOS." + hookSource, "No injected image available", null);
             return;
         }
-        
-        if (!dispatcher.isInjectionEnabled()) {
-            Logger.d(TAG, "FileOutputStream write: Injection disabled");
+
+        scanner = new JpegStreamScanner();
+        int end = scanner.scan(data, off, len);
+        if (!writeInjected(param, tracked, injectedData))
+            return;
+        Logger.logInjectionSuccess("FOS." + hookSource, filePath, len, injectedData.length);
+
+        if (end == -1) {
+            // The original continues in later writes
+            tracked.replacement = scanner;
             return;
         }
+        writeThrough(param, tracked, data, off + end, len - end);
+    }
+
+    /**
+     * The injected JPEG for a save: the one already loaded for this capture
+     * if another save layer got there first, otherwise the image file.
+     */
+    private byte[] loadPayload(CaptureTracker.Transaction capture) {
+        byte[] payload = capture != null ? capture.getPayload() : null;
+        if (payload == null) {
+            payload = dispatcher.getPreSelectedImageBytes();
+            if (capture != null) {
+                capture.setPayload(payload);
+            }
+        }
+        return payload;
+    }
+
+    private void finishReplacement(TrackedStream tracked) {
+        JpegStreamScanner scanner = tracked.replacement;
+        tracked.replacement = null;
+        Logger.d(TAG, "%s, dropped %d original bytes", scanner.isComplete() ? "Reached EOI" : "Stream no longer JPEG",
+                scanner.getConsumed());
+    }
+
+    /**
+     * Writes bytes of our choosing in place of the hooked call, which is
+     * skipped. An I/O error is rethrown to the app from the hooked call.
+     */
+    private boolean writeThrough(XC_MethodHook.MethodHookParam param, TrackedStream tracked, byte[] data,
+            int off, int len) {
+        return writeThrough(param, tracked, data, off, len, false);
+    }
+
+    /**
+     * Like writeThrough for the injected image, with this shot's Exif added.
+     */
+    private boolean writeInjected(XC_MethodHook.MethodHookParam param, TrackedStream tracked, byte[] data) {
+        return writeThrough(param, tracked, data, 0, data.length, true);
+    }
 
-        String filePath = targetFile != null ? targetFile.getAbsolutePath() : null;
-        Logger.logHookTriggered("FOS.write(b[],off,len)", "FileOutputStream", "write", targetPackage,
-                "File: " + (filePath != null ? filePath : "unknown") + ", Offset: " + off + ", Len: " + len);
-
-        byte[] injectedData = dispatcher.getPreSelectedImageBytes();
-        if (injectedData != null && injectedData.length > 0) {
-            // Replace the arguments to write our injected data instead
-            param.args[0] = injectedData;
-            param.args[1] = 0;
-            param.args[2] = injectedData.length;
-            Logger.logInjectionSuccess("FOS.write(b[],off,len)", filePath, len, injectedData.length);
-        } else {
-            Logger.logInjectionFailure("FOS.write(b[],off,len)", "No injected image available", null);
+    private boolean writeThrough(XC_MethodHook.MethodHookParam param, TrackedStream tracked, byte[] data,
+            int off, int len, boolean stamp) {
+        try {
+            isIntercepting.set(true);
+            FileOutputStream stream = (FileOutputStream) param.thisObject;
+            if (stamp) {
+                dispatcher.writeStamped(data, stream);
+            } else if (len > 0) {
+                stream.write(data, off, len);
+            }
+            param.setResult(null);
+            return true;
+        } catch (IOException e) {
+            tracked.replacement = null;
+            param.setThrowable(e);
+            return false;
+        } finally {
+            isIntercepting.set(false);
         }
     }
 
@@ -222,7 +358,7 @@ public class FileOutputHook {
                                             " (mime: " + mimeType + ") -> " + resultUri);
                                     
                                     // Mark this URI as pending image save
-                                    if (dispatcher.isInjectionEnabled()) {
+                                    if (dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) {
                                         pendingImageUri.set(resultUri);
                                         Logger.i(TAG, "Marked URI for interception: " + resultUri);
                                     }
@@ -247,15 +383,15 @@ public class FileOutputHook {
                             Uri uri = (Uri) param.args[0];
                             OutputStream originalStream = (OutputStream) param.getResult();
                             
-                            if (uri != null && originalStream != null && dispatcher.isInjectionEnabled()) {
+                            if (uri != null && originalStream != null && !(originalStream instanceof HeaderSniffingOutputStream)
+                                    && dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) {
                                 String uriStr = uri.toString().toLowerCase();
                                 if (uriStr.contains("images") || uriStr.contains("media") || 
                                     uriStr.contains("dcim") || uriStr.contains("camera")) {
                                     Logger.i(TAG, "ContentResolver.openOutputStream for image URI: " + uri);
                                     
                                     // Wrap the output stream to intercept writes
-                                    OutputStream wrappedStream = new InterceptingOutputStream(originalStream, dispatcher, uri.toString());
-                                    param.setResult(wrappedStream);
+                                    param.setResult(wrapImageStream(originalStream, uri.toString()));
                                     Logger.i(TAG, "Wrapped OutputStream for image interception");
                                 }
                             }
@@ -271,15 +407,15 @@ public class FileOutputHook {
                             Uri uri = (Uri) param.args[0];
                             OutputStream originalStream = (OutputStream) param.getResult();
                             
-                            if (uri != null && originalStream != null && dispatcher.isInjectionEnabled()) {
+                            if (uri != null && originalStream != null && !(originalStream instanceof HeaderSniffingOutputStream)
+                                    && dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) {
                                 String uriStr = uri.toString().toLowerCase();
                                 if (uriStr.contains("images") || uriStr.contains("media") ||
                                     uriStr.contains("dcim") || uriStr.contains("camera")) {
                                     Logger.i(TAG, "ContentResolver.openOutputStream (with mode) for image URI: " + uri);
                                     
                                     // Wrap the output stream to intercept writes
-                                    OutputStream wrappedStream = new InterceptingOutputStream(originalStream, dispatcher, uri.toString());
-                                    param.setResult(wrappedStream);
+                                    param.setResult(wrapImageStream(originalStream, uri.toString()));
                                     Logger.i(TAG, "Wrapped OutputStream for image interception");
                                 }
                             }
@@ -307,14 +443,10 @@ public class FileOutputHook {
                                 if (Boolean.TRUE.equals(isIntercepting.get())) return;
                                 if (HookDispatcher.isCurrentlyLoadingImage()) return;
                                 
-                                String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                                if (!dispatcher.isPackageAllowed(targetPackage)) {
-                                    return;
-                                }
-                                
-                                if (!dispatcher.isInjectionEnabled()) {
+                                if (!dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) {
                                     return;
                                 }
+                                String targetPackage = dispatcher.getLoadPackageParam().packageName;
 
                                 Bitmap.CompressFormat format = (Bitmap.CompressFormat) param.args[0];
                                 OutputStream outputStream = (OutputStream) param.args[2];
@@ -324,30 +456,39 @@ public class FileOutputHook {
                                     return;
                                 }
                                 
-                                // Intercept both JPEG and PNG compression (most common formats)
-                                if (format != Bitmap.CompressFormat.JPEG && format != Bitmap.CompressFormat.PNG) {
+                                if (format == null) return;
+                                if (CaptureTracker.isInjected()) {
+                                    // The bitmap was decoded from a frame we already replaced
                                     return;
                                 }
+                                Bitmap bitmap = (Bitmap) param.thisObject;
+                                int quality = (int) param.args[1];
 
                                 // Check if this is writing to a file
                                 File targetFile = null;
                                 String filePath = null;
                                 try {
                                     if (outputStream instanceof FileOutputStream) {
-                                        targetFile = (File) XposedHelpers.getAdditionalInstanceField(outputStream, "targetFile");
+                                        TrackedStream tracked = imageStreams.get((FileOutputStream) outputStream);
+                                        targetFile = tracked != null ? tracked.file : null;
                                         filePath = targetFile != null ? targetFile.getAbsolutePath() : null;
                                     }
                                 } catch (Throwable t) {
                                     // Ignore - just means we can't get the file path for logging
                                 }
                                 
-                                String formatName = format == Bitmap.CompressFormat.JPEG ? "JPEG" : "PNG";
+                                String formatName = format.name();
                                 Logger.logHookTriggered("Bitmap.compress", "Bitmap", "compress",
-                                        targetPackage, "Format: " + formatName + ", File: " + (filePath != null ? filePath : "stream"));
+                                        targetPackage, "Format: " + formatName + ", Quality: " + quality + ", Size: "
+                                                + bitmap.getWidth() + "x" + bitmap.getHeight() + ", File: "
+                                                + (filePath != null ? filePath : "stream"));
 
+                                // Same format, quality and size as the app asked for, so the
+                                // saved file is neither mislabeled nor needlessly large
                                 byte[] injectedData = null;
                                 try {
-                                    injectedData = dispatcher.getPreSelectedImageBytes();
+                                    injectedData = dispatcher.getInjectedEncodedBytes(format, quality,
+                                            bitmap.getWidth(), bitmap.getHeight());
                                 } catch (Throwable t) {
                                     Logger.w(TAG, "Failed to get injected image: " + t.getMessage());
                                     return; // Let original compress proceed
@@ -361,7 +502,7 @@ public class FileOutputHook {
                                 // Try to inject - if this fails, original compress will still run
                                 try {
                                     isIntercepting.set(true);
-                                    outputStream.write(injectedData);
+                                    dispatcher.writeStamped(injectedData, outputStream);
                                     param.setResult(true); // Only set result if write succeeded
                                     Logger.logInjectionSuccess("Bitmap.compress(" + formatName + ")", filePath, -1, injectedData.length);
                                 } catch (Throwable t) {
@@ -383,28 +524,17 @@ public class FileOutputHook {
         }
     }
 
-    private void tryInjectImage(XC_MethodHook.MethodHookParam param, byte[] originalData, File targetFile, String hookSource) {
-        String targetPackage = dispatcher.getLoadPackageParam().packageName;
-        if (!dispatcher.isPackageAllowed(targetPackage)) {
-            return;
-        }
-        
-        if (!dispatcher.isInjectionEnabled()) {
-            Logger.d(TAG, "FileOutputStream write: Injection disabled");
-            return;
-        }
-
-        String filePath = targetFile != null ? targetFile.getAbsolutePath() : null;
-        Logger.logHookTriggered(hookSource, "FileOutputStream", "write", targetPackage, 
-                "File: " + (filePath != null ? filePath : "unknown") + ", Size: " + originalData.length + " bytes");
-
-        byte[] injectedData = dispatcher.getPreSelectedImageBytes();
-        if (injectedData != null && injectedData.length > 0) {
-            param.args[0] = injectedData;
-            Logger.logInjectionSuccess(hookSource, filePath, originalData.length, injectedData.length);
-        } else {
-            Logger.logInjectionFailure(hookSource, "No injected image available", null);
-        }
+    /**
+     * True for files named like images or placed in a camera directory. The
+     * directory test looks at whole path segments, so an app-private path
+     * such as /data/data/com.example.camera/databases is not tracked.
+     */
+    private boolean isImagePath(File file) {
+        if (isImageFile(file.getName())) return true;
+        String parent = file.getParent();
+        if (parent == null) return false;
+        String lower = parent.toLowerCase() + "/";
+        return lower.contains("/dcim/") || lower.contains("/camera/") || lower.contains("/pictures/");
     }
 
     private boolean isImageFile(String fileName) {
@@ -418,162 +548,37 @@ public class FileOutputHook {
     }
 
     /**
-     * Check if byte array contains valid JPEG data
-     * Validates JPEG magic bytes (FF D8 FF) at start
-     */
-    private boolean isJpegData(byte[] data) {
-        if (data == null || data.length < 3) return false;
-        // JPEG magic bytes: FF D8 FF
-        return (data[0] & 0xFF) == 0xFF && 
-               (data[1] & 0xFF) == 0xD8 && 
-               (data[2] & 0xFF) == 0xFF;
-    }
-    
-    /**
-     * Check if byte array contains valid PNG data
-     * Validates PNG magic bytes (89 50 4E 47 0D 0A 1A 0A)
-     */
-    private boolean isPngData(byte[] data) {
-        if (data == null || data.length < 8) return false;
-        // PNG magic bytes: 89 50 4E 47 0D 0A 1A 0A
-        return (data[0] & 0xFF) == 0x89 &&
-               (data[1] & 0xFF) == 0x50 &&  // P
-               (data[2] & 0xFF) == 0x4E &&  // N
-               (data[3] & 0xFF) == 0x47 &&  // G
-               (data[4] & 0xFF) == 0x0D &&
-               (data[5] & 0xFF) == 0x0A &&
-               (data[6] & 0xFF) == 0x1A &&
-               (data[7] & 0xFF) == 0x0A;
-    }
-    
-    /**
-     * Check if byte array contains any supported image data (JPEG or PNG)
+     * Wraps a MediaStore output stream so a JPEG or PNG written to it is
+     * replaced by the injected image, decided from its first 8 bytes.
      */
-    private boolean isImageData(byte[] data) {
-        return isJpegData(data) || isPngData(data);
-    }
-    
-    /**
-     * Enhanced JPEG validation - checks for valid JPEG structure
-     * Beyond magic bytes, also validates JPEG has proper EOI marker
-     */
-    private boolean isValidJpegStructure(byte[] data) {
-        if (!isJpegData(data)) return false;
-        if (data.length < 10) return false;
-        
-        // Check for End Of Image marker (FF D9) near the end
-        // Some JPEGs may have trailing data, so check last 10 bytes
-        for (int i = data.length - 2; i >= data.length - 10 && i >= 0; i--) {
-            if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xFF) == 0xD9) {
-                return true;
-            }
-        }
-        
-        // If no EOI found in last 10 bytes, still accept if magic bytes are valid
-        // (some apps may not include proper EOI)
-        return true;
-    }
-    
-    /**
-     * Custom OutputStream wrapper that intercepts image data written to MediaStore
-     */
-    private static class InterceptingOutputStream extends FilterOutputStream {
-        private final HookDispatcher dispatcher;
-        private final String uriString;
-        private final ByteArrayOutputStream buffer;
-        private boolean injected = false;
-        private boolean firstWrite = true;
-        
-        public InterceptingOutputStream(OutputStream out, HookDispatcher dispatcher, String uriString) {
-            super(out);
-            this.dispatcher = dispatcher;
-            this.uriString = uriString;
-            this.buffer = new ByteArrayOutputStream();
-            Logger.d(TAG, "InterceptingOutputStream created for: " + uriString);
-        }
-        
-        @Override
-        public void write(int b) throws IOException {
-            if (!injected) {
-                buffer.write(b);
-                // Check if we have enough data to detect JPEG
-                if (buffer.size() >= 3 && firstWrite) {
-                    firstWrite = false;
-                    byte[] data = buffer.toByteArray();
-                    if (isJpegHeader(data)) {
-                        Logger.d(TAG, "Detected JPEG stream write (byte-by-byte) to: " + uriString);
-                    }
-                }
-            }
-            super.write(b);
-        }
-        
-        @Override
-        public void write(byte[] b) throws IOException {
-            write(b, 0, b.length);
-        }
-        
-        @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            if (HookDispatcher.isCurrentlyLoadingImage()) {
-                super.write(b, off, len);
-                return;
-            }
-            
-            if (!injected && b != null && len > 100) {
-                // Check if this is JPEG or PNG data
-                if (off == 0 && len >= 8 && isImageHeader(b)) {
-                    String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                    String format = isJpegHeader(b) ? "JPEG" : "PNG";
-                    Logger.logHookTriggered("InterceptingOutputStream", "ContentResolver", "openOutputStream",
-                            targetPackage, "URI: " + uriString + ", Format: " + format + ", Size: " + len + " bytes");
-                    
-                    if (dispatcher.isInjectionEnabled()) {
-                        byte[] injectedData = dispatcher.getPreSelectedImageBytes();
-                        if (injectedData != null && injectedData.length > 0) {
-                            // Write our injected data instead
-                            super.write(injectedData, 0, injectedData.length);
-                            injected = true;
-                            Logger.logInjectionSuccess("InterceptingOutputStream(" + format + ")", uriString, len, injectedData.length);
-                            return; // Don't write original data
-                        } else {
-                            Logger.logInjectionFailure("InterceptingOutputStream(" + format + ")", "No injected data available", null);
-                        }
-                    }
-                }
-            }
-            
-            // Pass through original data if not injected
-            if (!injected) {
-                super.write(b, off, len);
+    private OutputStream wrapImageStream(OutputStream out, final String uriString) {
+        return new HeaderSniffingOutputStream(out, format -> {
+            // Bitmap.compress already wrote a matching variant
+            if (Boolean.TRUE.equals(isIntercepting.get())) return null;
+            if (HookDispatcher.isCurrentlyLoadingImage()) return null;
+            if (!dispatcher.getGate().isOpen(HookGate.Family.FILE_OUTPUT)) return null;
+
+            // The stream's close is not hooked, so the capture completes once its image starts
+            CaptureTracker.Transaction capture = CaptureTracker.active();
+            if (capture != null && capture.isInjected()) {
+                CaptureTracker.complete(uriString);
+                return null;
             }
-        }
-        
-        @Override
-        public void close() throws IOException {
-            if (injected) {
-                Logger.d(TAG, "InterceptingOutputStream closed (injection successful)");
+
+            String targetPackage = dispatcher.getLoadPackageParam().packageName;
+            Logger.logHookTriggered("HeaderSniffingOutputStream", "ContentResolver", "openOutputStream",
+                    targetPackage, "URI: " + uriString + ", Format: " + format);
+
+            byte[] injectedData = loadPayload(capture);
+            if (injectedData == null || injectedData.length == 0) {
+                Logger.logInjectionFailure("HeaderSniffingOutputStream(" + format + ")", "No injected data available",
+                        null);
+                return null;
             }
-            super.close();
-        }
-        
-        private static boolean isJpegHeader(byte[] data) {
-            if (data == null || data.length < 3) return false;
-            return (data[0] & 0xFF) == 0xFF && 
-                   (data[1] & 0xFF) == 0xD8 && 
-                   (data[2] & 0xFF) == 0xFF;
-        }
-        
-        private static boolean isPngHeader(byte[] data) {
-            if (data == null || data.length < 8) return false;
-            return (data[0] & 0xFF) == 0x89 &&
-                   (data[1] & 0xFF) == 0x50 &&  // P
-                   (data[2] & 0xFF) == 0x4E &&  // N
-                   (data[3] & 0xFF) == 0x47;    // G
-        }
-        
-        private static boolean isImageHeader(byte[] data) {
-            return isJpegHeader(data) || isPngHeader(data);
-        }
+            Logger.logInjectionSuccess("HeaderSniffingOutputStream(" + format + ")", uriString, -1,
+                    injectedData.length);
+            CaptureTracker.complete(uriString);
+            return injectedData;
+        }, dispatcher::writeStamped);
     }
 }
@@ -2,25 +2,55 @@ package com.camerainterceptor.hooks;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
+import com.camerainterceptor.utils.FileTransfer;
+import com.camerainterceptor.utils.ImageUtils;
 import com.camerainterceptor.utils.Logger;
 
+import java.io.File;
+import java.lang.reflect.Method;
+
 import de.robv.android.xposed.XC_MethodHook;
-import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 
 /**
- * Hooks for Activity intents that launch the camera
- * Modified to be PASS-THROUGH (Logging only).
- * We rely on hooking the camera app itself (via CameraHook/Camera2Hook) to
- * inject the image data.
+ * Hooks for Activity intents that launch the camera.
+ *
+ * By default this is PASS-THROUGH (logging only) and we rely on hooking the
+ * camera app itself (via CameraHook/Camera2Hook) to inject the image data.
+ * With "Answer Camera Intents" enabled, ACTION_IMAGE_CAPTURE requests are
+ * fulfilled in-process instead: the injected image is written to the
+ * EXTRA_OUTPUT URI, or returned as a thumbnail in the "data" extra, and
+ * RESULT_OK is dispatched without a camera app starting.
+ *
+ * The result goes through Activity.dispatchActivityResult, so it reaches
+ * platform fragments (keyed by "who"), androidx fragments and result
+ * launchers as a real result would. Unlike a real result, the activity is
+ * not paused and resumed around it: it arrives on the main thread right
+ * after startActivityForResult returns, while the activity stays resumed.
  */
 public class IntentHook {
     private static final String TAG = "IntentHook";
+
+    // Longest edge of an image written to EXTRA_OUTPUT
+    static final int MAX_OUTPUT_EDGE = 4096;
+    // Inline "data" thumbnails are kept to about 50K pixels, as camera apps do,
+    // so the result Intent stays well under the Binder transaction limit
+    static final int MAX_THUMBNAIL_PIXELS = 50 * 1024;
+
     private final HookDispatcher dispatcher;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public IntentHook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
@@ -29,7 +59,7 @@ public class IntentHook {
 
     private void initHooks() {
         try {
-            Logger.i(TAG, "Initializing camera intent hooks (Logging only)");
+            Logger.i(TAG, "Initializing camera intent hooks");
 
             // Hook startActivityForResult to detect camera intents
             hookStartActivityForResult();
@@ -50,7 +80,8 @@ public class IntentHook {
                             Intent intent = (Intent) param.args[0];
                             if (isCameraIntent(intent)) {
                                 Logger.i(TAG, "Camera Intent detected: " + intent.getAction());
-                                if (dispatcher.isInjectionEnabled()) {
+                                if (dispatcher.getGate().isOpen(HookGate.Family.INTENT)
+                                        && !dispatcher.getGate().isIntentFulfilmentEnabled()) {
                                     Logger.i(TAG,
                                             "Injection is ENABLED. Expecting downstream camera app to be hooked.");
                                 }
@@ -58,22 +89,209 @@ public class IntentHook {
                         }
                     });
 
+            // The two-argument overload and androidx result APIs all end up here
             XposedHelpers.findAndHookMethod(Activity.class, "startActivityForResult",
                     Intent.class, int.class, Bundle.class, new XC_MethodHook() {
                         @Override
                         protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                             Intent intent = (Intent) param.args[0];
-                            if (isCameraIntent(intent)) {
-                                Logger.i(TAG, "Camera Intent detected (with bundle): " + intent.getAction());
+                            if (!isCameraIntent(intent))
+                                return;
+                            Logger.i(TAG, "Camera Intent detected (with bundle): " + intent.getAction());
+
+                            if (isCaptureIntent(intent) && dispatcher.getGate().isOpen(HookGate.Family.INTENT)
+                                    && dispatcher.getGate().isIntentFulfilmentEnabled()) {
+                                fulfil(param, (Activity) param.thisObject, null, intent, (Integer) param.args[1]);
                             }
                         }
                     });
 
+            // Platform fragments (startActivityFromFragment) start with their "who" key
+            try {
+                XposedHelpers.findAndHookMethod(Activity.class, "startActivityForResult",
+                        String.class, Intent.class, int.class, Bundle.class, new XC_MethodHook() {
+                            @Override
+                            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                                Intent intent = (Intent) param.args[1];
+                                if (!isCaptureIntent(intent))
+                                    return;
+                                Logger.i(TAG, "Camera Intent detected (from " + param.args[0] + "): "
+                                        + intent.getAction());
+                                if (dispatcher.getGate().isOpen(HookGate.Family.INTENT)
+                                        && dispatcher.getGate().isIntentFulfilmentEnabled()) {
+                                    fulfil(param, (Activity) param.thisObject, (String) param.args[0], intent,
+                                            (Integer) param.args[2]);
+                                }
+                            }
+                        });
+            } catch (Throwable t) {
+                Logger.w(TAG, "Fragment startActivityForResult not hooked: " + t.getMessage());
+            }
+
         } catch (Throwable t) {
             Logger.e(TAG, "Failed to hook startActivityForResult: " + t.getMessage());
         }
     }
 
+    /**
+     * Answers a capture intent with the injected image and skips the launch.
+     * Any failure leaves the intent alone, so the camera app opens as usual.
+     */
+    private void fulfil(XC_MethodHook.MethodHookParam param, final Activity activity, final String who,
+            Intent intent, final int requestCode) {
+        long startNanos = System.nanoTime();
+        try {
+            final Intent result;
+            Uri output = getOutputUri(intent);
+            if (output != null) {
+                long written = writeOutput(activity, output);
+                if (written <= 0)
+                    return;
+                // Like the stock camera, report success without data when saving to EXTRA_OUTPUT
+                result = null;
+                Logger.logInjectionSuccess("Intent.ACTION_IMAGE_CAPTURE", output.toString(), -1, written);
+            } else {
+                Bitmap thumbnail = createThumbnail();
+                if (thumbnail == null)
+                    return;
+                result = new Intent("inline-data");
+                result.putExtra("data", thumbnail);
+                Logger.logInjectionSuccess("Intent.ACTION_IMAGE_CAPTURE", "inline thumbnail", -1,
+                        thumbnail.getByteCount());
+            }
+
+            param.setResult(null);
+            // Delivered after startActivityForResult returns, as a real result would be
+            mainHandler.post(() -> deliverResult(activity, who, requestCode, result));
+            Logger.i(TAG, "Fulfilled capture intent (request " + requestCode + ") in "
+                    + (System.nanoTime() - startNanos) / 1000 + "us");
+        } catch (Throwable t) {
+            Logger.logInjectionFailure("Intent.ACTION_IMAGE_CAPTURE", "Falling back to camera app", t);
+        }
+    }
+
+    /**
+     * Writes the injected JPEG to the app's EXTRA_OUTPUT URI. The injected
+     * file is copied as-is when it is a JPEG no larger than MAX_OUTPUT_EDGE;
+     * otherwise a scaled JPEG is written.
+     *
+     * @return Bytes written, or -1 if there was nothing to write
+     */
+    private long writeOutput(Activity activity, Uri output) throws Exception {
+        String path = dispatcher.getGate().getImagePath();
+        int[] size = path != null ? readSize(path) : null;
+        if (size == null)
+            return -1;
+
+        File source = dispatcher.getInjectableJpegFile();
+        int[] fitted = fitEdge(size[0], size[1], MAX_OUTPUT_EDGE);
+        byte[] data = null;
+        if (source == null || fitted[0] != size[0] || fitted[1] != size[1]) {
+            source = null;
+            data = dispatcher.getInjectedImageBytes(fitted[0], fitted[1]);
+            if (data == null || data.length == 0)
+                return -1;
+        }
+
+        try {
+            // Our own write must not be intercepted by the MediaStore or file hooks
+            HookDispatcher.setWritingInjectedData(true);
+            try (ParcelFileDescriptor pfd = activity.getContentResolver().openFileDescriptor(output, "w")) {
+                if (pfd == null) {
+                    throw new IllegalStateException("No descriptor for " + output);
+                }
+                ImageUtils.ImageMetadata shot = dispatcher.newShotMetadata(fitted[0], fitted[1]);
+                return source != null
+                        ? FileTransfer.copy(source, shot, pfd.getFileDescriptor())
+                        : FileTransfer.write(data, shot, pfd.getFileDescriptor());
+            }
+        } finally {
+            HookDispatcher.setWritingInjectedData(false);
+        }
+    }
+
+    private Bitmap createThumbnail() {
+        String path = dispatcher.getGate().getImagePath();
+        int[] size = path != null ? readSize(path) : null;
+        if (size == null)
+            return null;
+        int[] fitted = fitPixels(size[0], size[1], MAX_THUMBNAIL_PIXELS);
+        return dispatcher.getInjectedBitmap(fitted[0], fitted[1]);
+    }
+
+    private void deliverResult(Activity activity, String who, int requestCode, Intent result) {
+        try {
+            if (activity.isFinishing() || activity.isDestroyed()) {
+                Logger.w(TAG, "Activity gone before capture result could be delivered");
+                return;
+            }
+            // Routes by "who" to platform fragments, then on to onActivityResult,
+            // where FragmentActivity and result launchers take over
+            Method dispatch = XposedHelpers.findMethodExactIfExists(Activity.class, "dispatchActivityResult",
+                    String.class, int.class, int.class, Intent.class, String.class);
+            if (dispatch != null) {
+                dispatch.invoke(activity, who, requestCode, Activity.RESULT_OK, result, "ActivityResult");
+            } else {
+                // Before Android 10 there is no reason argument
+                XposedHelpers.findMethodExact(Activity.class, "dispatchActivityResult", String.class, int.class,
+                        int.class, Intent.class).invoke(activity, who, requestCode, Activity.RESULT_OK, result);
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Failed to deliver capture result: " + t.getMessage());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Uri getOutputUri(Intent intent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+            return intent.getParcelableExtra(MediaStore.EXTRA_OUTPUT, Uri.class);
+        return intent.getParcelableExtra(MediaStore.EXTRA_OUTPUT);
+    }
+
+    /**
+     * Image dimensions from the file header, or null if unreadable.
+     */
+    private static int[] readSize(String path) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0)
+            return null;
+        return new int[] { opts.outWidth, opts.outHeight };
+    }
+
+    /**
+     * Scales (width, height) down so the longest edge is at most maxEdge,
+     * keeping the aspect ratio. Never scales up.
+     */
+    static int[] fitEdge(int width, int height, int maxEdge) {
+        int longest = Math.max(width, height);
+        if (longest <= maxEdge)
+            return new int[] { width, height };
+        return scale(width, height, (double) maxEdge / longest);
+    }
+
+    /**
+     * Scales (width, height) down to at most maxPixels pixels, keeping the
+     * aspect ratio. Never scales up.
+     */
+    static int[] fitPixels(int width, int height, int maxPixels) {
+        long pixels = (long) width * height;
+        if (pixels <= maxPixels)
+            return new int[] { width, height };
+        return scale(width, height, Math.sqrt((double) maxPixels / pixels));
+    }
+
+    private static int[] scale(int width, int height, double factor) {
+        return new int[] { Math.max(1, (int) (width * factor)), Math.max(1, (int) (height * factor)) };
+    }
+
+    private boolean isCaptureIntent(Intent intent) {
+        String action = intent.getAction();
+        return MediaStore.ACTION_IMAGE_CAPTURE.equals(action)
+                || MediaStore.ACTION_IMAGE_CAPTURE_SECURE.equals(action);
+    }
+
     private boolean isCameraIntent(Intent intent) {
         if (intent == null)
             return false;
@@ -85,4 +303,4 @@ public class IntentHook {
                 action.equals(MediaStore.ACTION_IMAGE_CAPTURE_SECURE) ||
                 (action.equals(Intent.ACTION_MAIN) && intent.hasCategory("android.intent.category.APP_GALLERY"));
     }
-}
\ No newline at end of file
+}
@@ -5,15 +5,21 @@ import android.content.ContentValues;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.HookGate;
+import com.camerainterceptor.state.CaptureTracker;
+import com.camerainterceptor.utils.FileTransfer;
+import com.camerainterceptor.utils.ImageUtils;
 import com.camerainterceptor.utils.Logger;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
 
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedHelpers;
@@ -38,6 +44,12 @@ public class MediaStoreHook {
         }
     };
 
+    private static final File DEV_NULL = new File("/dev/null");
+
+    // Descriptors we handed out in place of the media file's
+    private final WeakIdentityRegistry<ParcelFileDescriptor, Boolean> discardDescriptors =
+            new WeakIdentityRegistry<>();
+
     public MediaStoreHook(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
         initHooks();
@@ -78,9 +90,8 @@ public class MediaStoreHook {
                             if (Boolean.TRUE.equals(isIntercepting.get())) return;
                             if (HookDispatcher.isCurrentlyLoadingImage()) return;
                             
+                            if (!dispatcher.getGate().isOpen(HookGate.Family.MEDIA_STORE)) return;
                             String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                            if (!dispatcher.isPackageAllowed(targetPackage)) return;
-                            if (!dispatcher.isInjectionEnabled()) return;
                             
                             ContentResolver cr = (ContentResolver) param.args[0];
                             Bitmap originalBitmap = (Bitmap) param.args[1];
@@ -91,31 +102,28 @@ public class MediaStoreHook {
                                     "MediaStore.Images.Media", "insertImage",
                                     targetPackage, "Title: " + title);
                             
-                            // Load our injected image as a Bitmap
-                            byte[] injectedData = dispatcher.getPreSelectedImageBytes();
-                            if (injectedData != null && injectedData.length > 0) {
-                                try {
-                                    isIntercepting.set(true);
-                                    Bitmap injectedBitmap = BitmapFactory.decodeByteArray(
-                                            injectedData, 0, injectedData.length);
-                                    
-                                    if (injectedBitmap != null) {
-                                        // Replace the bitmap parameter
-                                        param.args[1] = injectedBitmap;
-                                        Logger.logInjectionSuccess("MediaStore.insertImage(Bitmap)", 
-                                                title, 
-                                                originalBitmap != null ? originalBitmap.getByteCount() : 0,
-                                                injectedData.length);
-                                    } else {
-                                        Logger.logInjectionFailure("MediaStore.insertImage(Bitmap)",
-                                                "Failed to decode injected image", null);
-                                    }
-                                } finally {
-                                    isIntercepting.set(false);
-                                }
+                            int width = originalBitmap != null ? originalBitmap.getWidth() : 0;
+                            int height = originalBitmap != null ? originalBitmap.getHeight() : 0;
+
+                            // Insert our already encoded JPEG directly, so there is
+                            // no decode and no second encode inside insertImage
+                            String inserted = insertEncodedImage(cr, width, height, title, description);
+                            if (inserted != null) {
+                                param.setResult(inserted);
+                                return;
+                            }
+
+                            Bitmap injectedBitmap = dispatcher.getInjectedBitmap(width, height);
+                            if (injectedBitmap != null) {
+                                // Replace the bitmap parameter
+                                param.args[1] = injectedBitmap;
+                                Logger.logInjectionSuccess("MediaStore.insertImage(Bitmap)",
+                                        title,
+                                        originalBitmap != null ? originalBitmap.getByteCount() : 0,
+                                        injectedBitmap.getByteCount());
                             } else {
                                 Logger.logInjectionFailure("MediaStore.insertImage(Bitmap)",
-                                        "No injected data available", null);
+                                        "No injected image available", null);
                             }
                         }
                     });
@@ -132,9 +140,8 @@ public class MediaStoreHook {
                             if (Boolean.TRUE.equals(isIntercepting.get())) return;
                             if (HookDispatcher.isCurrentlyLoadingImage()) return;
                             
+                            if (!dispatcher.getGate().isOpen(HookGate.Family.MEDIA_STORE)) return;
                             String targetPackage = dispatcher.getLoadPackageParam().packageName;
-                            if (!dispatcher.isPackageAllowed(targetPackage)) return;
-                            if (!dispatcher.isInjectionEnabled()) return;
                             
                             String imagePath = (String) param.args[1];
                             String title = (String) param.args[2];
@@ -225,59 +232,238 @@ public class MediaStoreHook {
             ParcelFileDescriptor pfd = (ParcelFileDescriptor) param.getResult();
             
             if (uri == null || pfd == null) return;
+            // openFileDescriptor(Uri, String) delegates to the 3-arg overload
+            if (discardDescriptors.contains(pfd)) return;
             
             // Only intercept write modes
             if (mode == null || !mode.contains("w")) return;
             
+            if (!dispatcher.getGate().isOpen(HookGate.Family.MEDIA_STORE)) return;
             String targetPackage = dispatcher.getLoadPackageParam().packageName;
-            if (!dispatcher.isPackageAllowed(targetPackage)) return;
-            if (!dispatcher.isInjectionEnabled()) return;
-            
-            String uriStr = uri.toString().toLowerCase();
             
-            // Check if this is an image URI
-            if (uriStr.contains("images") || uriStr.contains("media") || 
-                uriStr.contains("dcim") || uriStr.contains("camera") ||
-                uriStr.contains("photo") || uriStr.contains("picture")) {
+            // Video and audio saves (e.g. MediaRecorder) must keep their own data
+            if (isImageTarget((ContentResolver) param.thisObject, uri)) {
                 
+                CaptureTracker.Transaction capture = CaptureTracker.active();
+                if (capture != null && capture.isInjected()) {
+                    // The app is about to write bytes that are already ours. This is
+                    // the file it saves to, so later unrelated saves are not skipped
+                    Logger.d(TAG, "Capture #%d already injected by %s, leaving %s", capture.id,
+                            capture.getInjectedBy(), uri);
+                    CaptureTracker.complete(uri.toString());
+                    return;
+                }
+
                 Logger.logHookTriggered("ContentResolver.openFileDescriptor", 
                         "ContentResolver", "openFileDescriptor",
                         targetPackage, "URI: " + uri + ", Mode: " + mode);
                 
-                // For write mode, we need to write our injected image to the file descriptor
-                // This is tricky because the app expects to write to the FD
-                // We'll write our data first, then close it and return null to prevent app from writing
-                
-                byte[] injectedData = dispatcher.getPreSelectedImageBytes();
-                if (injectedData != null && injectedData.length > 0) {
-                    try {
-                        isIntercepting.set(true);
-                        
-                        FileDescriptor fd = pfd.getFileDescriptor();
-                        FileOutputStream fos = new FileOutputStream(fd);
-                        fos.write(injectedData);
-                        fos.flush();
-                        // Don't close FOS as it would close the underlying FD
-                        
-                        Logger.logInjectionSuccess("ContentResolver.openFileDescriptor", 
-                                uri.toString(), -1, injectedData.length);
-                        
-                        // Note: We can't prevent the app from writing more data
-                        // This hook is best-effort for FD-based writes
-                        
-                    } catch (Throwable t) {
-                        Logger.logInjectionFailure("ContentResolver.openFileDescriptor",
-                                "Failed to write to file descriptor", t);
-                    } finally {
-                        isIntercepting.set(false);
-                    }
-                }
+                injectIntoDescriptor(param, uri, mode, pfd, capture);
             }
         } catch (Throwable t) {
             Logger.e(TAG, "Error in handleOpenFileDescriptor: " + t.getMessage());
         }
     }
     
+    /**
+     * True if a URI being opened for writing holds an image. MediaStore URIs
+     * are told apart by their collection; anything else, or a MediaStore
+     * file URI, by its MIME type, falling back to the name only when the
+     * provider reports none.
+     */
+    private boolean isImageTarget(ContentResolver cr, Uri uri) {
+        if (MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            // content://media/<volume>/<images|video|audio|file|downloads>/...
+            List<String> segments = uri.getPathSegments();
+            String collection = segments.size() > 1 ? segments.get(1) : "";
+            if ("images".equals(collection))
+                return true;
+            if ("video".equals(collection) || "audio".equals(collection))
+                return false;
+        }
+
+        String type = null;
+        try {
+            type = cr != null ? cr.getType(uri) : null;
+        } catch (Throwable t) {
+            Logger.d(TAG, "getType failed for %s: %s", uri, t.getMessage());
+        }
+        if (type != null)
+            return type.startsWith("image/");
+
+        String uriStr = uri.toString().toLowerCase();
+        return uriStr.contains("images") || uriStr.contains("dcim") || uriStr.contains("camera")
+                || uriStr.contains("photo") || uriStr.contains("picture") || uriStr.endsWith(".jpg")
+                || uriStr.endsWith(".jpeg");
+    }
+
+    /**
+     * Writes the injected image into the media file behind an app's write
+     * descriptor and gives the app a descriptor on /dev/null instead.
+     *
+     * The injected file (or cached bytes when it is not a JPEG) is copied
+     * kernel-side with FileChannel.transferTo and the media file truncated to
+     * exactly its length, then closed, which is when MediaProvider picks it
+     * up. The app's own encoder output goes to the discard descriptor, so it
+     * can never be appended to the injected image. "rw" opens get a scratch
+     * file instead of /dev/null, so the app can read back what it wrote (e.g.
+     * to add Exif); the scratch file is unlinked and vanishes on close.
+     */
+    private void injectIntoDescriptor(XC_MethodHook.MethodHookParam param, Uri uri, String mode,
+            ParcelFileDescriptor pfd, CaptureTracker.Transaction capture) {
+        long startNanos = System.nanoTime();
+        ParcelFileDescriptor discard = null;
+        try {
+            isIntercepting.set(true);
+            // Opened first: without it the app would append to the injected image
+            discard = mode.contains("r") ? openScratch()
+                    : ParcelFileDescriptor.open(DEV_NULL, ParcelFileDescriptor.MODE_WRITE_ONLY);
+
+            long written;
+            ImageUtils.ImageMetadata shot = dispatcher.newShotMetadata(0, 0);
+            File source = dispatcher.getInjectableJpegFile();
+            if (source != null) {
+                written = FileTransfer.copy(source, shot, pfd.getFileDescriptor());
+            } else {
+                byte[] injectedData = capture != null ? capture.getPayload() : null;
+                if (injectedData == null) {
+                    injectedData = dispatcher.getPreSelectedImageBytes();
+                }
+                if (injectedData == null || injectedData.length == 0) {
+                    Logger.logInjectionFailure("ContentResolver.openFileDescriptor", "No injected data available",
+                            null);
+                    return;
+                }
+                written = FileTransfer.write(injectedData, shot, pfd.getFileDescriptor());
+            }
+
+            discardDescriptors.put(discard, Boolean.TRUE);
+            pfd.close();
+            param.setResult(discard);
+            discard = null;
+
+            Logger.logInjectionSuccess("ContentResolver.openFileDescriptor", uri.toString(), -1, written);
+            CaptureTracker.complete(uri.toString());
+            Logger.i(TAG, "Injected " + written + " bytes into " + uri + " in "
+                    + (System.nanoTime() - startNanos) / 1000 + "us"
+                    + (source != null ? " (transferTo)" : " (cached bytes)"));
+        } catch (Throwable t) {
+            Logger.logInjectionFailure("ContentResolver.openFileDescriptor",
+                    "Failed to write to file descriptor", t);
+        } finally {
+            isIntercepting.set(false);
+            if (discard != null) {
+                try {
+                    discard.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A read-write descriptor on an empty, already unlinked file in the app's
+     * cache directory.
+     */
+    private ParcelFileDescriptor openScratch() throws IOException {
+        File scratch = File.createTempFile("inject", ".tmp", dispatcher.getContext().getCacheDir());
+        try {
+            return ParcelFileDescriptor.open(scratch, ParcelFileDescriptor.MODE_READ_WRITE);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            scratch.delete();
+        }
+    }
+
+    /**
+     * Does what insertImage(ContentResolver, Bitmap, ...) does with the
+     * injected JPEG instead of the app's bitmap: inserts a MediaStore row and
+     * copies the encoded image into it. The injected file is copied as-is
+     * when it already has the bitmap's size; otherwise the cached JPEG
+     * variant for that size is written.
+     *
+     * @return The new image's URI string, or null to fall back to the bitmap
+     */
+    private String insertEncodedImage(ContentResolver cr, int width, int height, String title,
+            String description) {
+        if (cr == null)
+            return null;
+
+        long startNanos = System.nanoTime();
+        Uri uri = null;
+        try {
+            isIntercepting.set(true);
+            File source = dispatcher.getInjectableJpegFile();
+            byte[] data = null;
+            if (source == null || !hasSize(source, width, height)) {
+                source = null;
+                data = dispatcher.getInjectedImageBytes(width, height);
+                if (data == null || data.length == 0)
+                    return null;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.TITLE, title);
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, title);
+            values.put(MediaStore.Images.Media.DESCRIPTION, description);
+            values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+            boolean usePending = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+            if (usePending) {
+                values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+            }
+
+            uri = cr.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null)
+                return null;
+
+            long written;
+            try (ParcelFileDescriptor pfd = cr.openFileDescriptor(uri, "w")) {
+                if (pfd == null) {
+                    throw new IllegalStateException("No descriptor for " + uri);
+                }
+                ImageUtils.ImageMetadata shot = dispatcher.newShotMetadata(width, height);
+                written = source != null
+                        ? FileTransfer.copy(source, shot, pfd.getFileDescriptor())
+                        : FileTransfer.write(data, shot, pfd.getFileDescriptor());
+            }
+
+            if (usePending) {
+                ContentValues done = new ContentValues();
+                done.put(MediaStore.MediaColumns.IS_PENDING, 0);
+                cr.update(uri, done, null, null);
+            }
+
+            Logger.logInjectionSuccess("MediaStore.insertImage(Bitmap)", uri.toString(), -1, written);
+            Logger.i(TAG, "Inserted " + written + " bytes as " + uri + " in "
+                    + (System.nanoTime() - startNanos) / 1000 + "us"
+                    + (source != null ? " (transferTo)" : " (cached " + width + "x" + height + ")"));
+            return uri.toString();
+        } catch (Throwable t) {
+            Logger.w(TAG, "Direct insert failed, falling back to bitmap: " + t.getMessage());
+            if (uri != null) {
+                try {
+                    cr.delete(uri, null, null);
+                } catch (Throwable ignored) {
+                }
+            }
+            return null;
+        } finally {
+            isIntercepting.set(false);
+        }
+    }
+
+    /**
+     * Whether an image file has the given dimensions, read from its header.
+     */
+    private static boolean hasSize(File file, int width, int height) {
+        if (width <= 0 || height <= 0)
+            return true;
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), opts);
+        return opts.outWidth == width && opts.outHeight == height;
+    }
+
     /**
      * Find the path to an injectable image file
      */
@@ -0,0 +1,146 @@
+package com.camerainterceptor.processor;
+
+/**
+ * Incremental JPEG marker scanner that finds the end of an image written in
+ * arbitrary chunks, without buffering it.
+ *
+ * Marker segments are skipped by their length field, so an EXIF thumbnail's
+ * own EOI inside APP1 is never mistaken for the end of the image. Entropy-coded
+ * data is scanned for 0xFF; stuffed zero bytes, fill bytes and RST markers
+ * stay in the scan. State carries across calls, so a marker or length field
+ * split between two chunks is handled.
+ */
+public final class JpegStreamScanner {
+    private static final int EXPECT_FF = 0; // Between segments, expecting a marker prefix
+    private static final int MARKER = 1; // After 0xFF, expecting the marker code
+    private static final int LENGTH_HI = 2;
+    private static final int LENGTH_LO = 3;
+    private static final int SKIP = 4; // Inside a segment payload
+    private static final int ENTROPY = 5; // Inside scan data
+    private static final int ENTROPY_FF = 6; // Scan data, after 0xFF
+    private static final int DONE = 7;
+    private static final int INVALID = 8;
+
+    private int state = EXPECT_FF;
+    private int remaining;
+    private boolean scanFollows;
+    private long consumed;
+
+    /**
+     * Feeds the next chunk of the stream.
+     *
+     * @return Number of bytes of this chunk up to and including the EOI
+     *         marker, or -1 if the image has not ended (all bytes consumed)
+     */
+    public int scan(byte[] b, int off, int len) {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            switch (state) {
+                case ENTROPY: {
+                    // Hot loop: most of a JPEG is scan data
+                    while (i < end && b[i] != (byte) 0xFF) {
+                        i++;
+                    }
+                    if (i < end) {
+                        state = ENTROPY_FF;
+                        i++;
+                    }
+                    break;
+                }
+                case SKIP: {
+                    int step = Math.min(remaining, end - i);
+                    remaining -= step;
+                    i += step;
+                    if (remaining == 0) {
+                        state = scanFollows ? ENTROPY : EXPECT_FF;
+                        scanFollows = false;
+                    }
+                    break;
+                }
+                case ENTROPY_FF: {
+                    int code = b[i++] & 0xFF;
+                    if (code == 0x00 || (code >= 0xD0 && code <= 0xD7)) {
+                        state = ENTROPY;
+                    } else if (code != 0xFF) {
+                        onMarker(code);
+                    }
+                    break;
+                }
+                case EXPECT_FF: {
+                    state = (b[i++] & 0xFF) == 0xFF ? MARKER : INVALID;
+                    break;
+                }
+                case MARKER: {
+                    int code = b[i++] & 0xFF;
+                    if (code != 0xFF) {
+                        onMarker(code);
+                    }
+                    break;
+                }
+                case LENGTH_HI: {
+                    remaining = (b[i++] & 0xFF) << 8;
+                    state = LENGTH_LO;
+                    break;
+                }
+                case LENGTH_LO: {
+                    // The length field counts itself
+                    remaining = (remaining | (b[i++] & 0xFF)) - 2;
+                    if (remaining < 0) {
+                        state = INVALID;
+                    } else if (remaining == 0) {
+                        state = scanFollows ? ENTROPY : EXPECT_FF;
+                        scanFollows = false;
+                    } else {
+                        state = SKIP;
+                    }
+                    break;
+                }
+                default:
+                    // DONE or INVALID: the image has ended as far as we can tell
+                    consumed += i - off;
+                    return i - off;
+            }
+            if (state == DONE) {
+                consumed += i - off;
+                return i - off;
+            }
+        }
+        consumed += len;
+        return state == INVALID ? len : -1;
+    }
+
+    private void onMarker(int code) {
+        if (code == 0xD9) {
+            state = DONE;
+        } else if (code == 0xD8 || code == 0x01 || (code >= 0xD0 && code <= 0xD7)) {
+            // Standalone markers carry no length
+            state = EXPECT_FF;
+        } else {
+            scanFollows = code == 0xDA;
+            state = LENGTH_HI;
+        }
+    }
+
+    /**
+     * True once the EOI marker has been seen.
+     */
+    public boolean isComplete() {
+        return state == DONE;
+    }
+
+    /**
+     * True if the stream stopped looking like a JPEG. The scanner then treats
+     * the current chunk as the last one rather than swallowing forever.
+     */
+    public boolean isInvalid() {
+        return state == INVALID;
+    }
+
+    /**
+     * Total bytes fed so far, up to the end of the image.
+     */
+    public long getConsumed() {
+        return consumed;
+    }
+}
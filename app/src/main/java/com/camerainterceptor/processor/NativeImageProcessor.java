@@ -32,6 +32,19 @@ public class NativeImageProcessor {
      */
     public static native byte[] processBitmapToNV21(Bitmap inputBitmap, int targetWidth, int targetHeight);
 
+    /**
+     * Batched variant of {@link #processBitmapToNV21} for burst captures. The
+     * source pixels are locked once and one scratch buffer is reused for every
+     * target; repeated sizes share the same output array.
+     * 
+     * @param inputBitmap   The original, full-size Bitmap loaded from disk
+     * @param targetWidths  The width of each requested buffer
+     * @param targetHeights The height of each requested buffer
+     * @return One NV21 array per requested size (null entries for invalid sizes)
+     */
+    public static native byte[][] processBitmapToNV21Batch(Bitmap inputBitmap, int[] targetWidths,
+            int[] targetHeights);
+
     /**
      * Resizes a Bitmap to exactly match target dimensions using a Center Crop
      * algorithm,
@@ -0,0 +1,149 @@
+package com.camerainterceptor.processor;
+
+import android.graphics.ImageFormat;
+
+import com.camerainterceptor.HookDispatcher;
+import com.camerainterceptor.utils.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the injected image into the legacy Camera's preview callback buffers.
+ *
+ * The frame is converted once per preview size and format (NV21 or YV12) on a
+ * background thread; each onPreviewFrame is then a single array copy into the
+ * app's own recycled buffer, with no allocation on the camera thread.
+ */
+public class PreviewFrameInjector {
+    private static final String TAG = "PreviewFrameInjector";
+
+    private static final class PreparedFrame {
+        final int width;
+        final int height;
+        final int format;
+        final int generation;
+        final byte[] data;
+
+        PreparedFrame(int width, int height, int format, int generation, byte[] data) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.generation = generation;
+            this.data = data;
+        }
+    }
+
+    private final HookDispatcher dispatcher;
+    private final ExecutorService prepareExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PreviewPrepare");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean preparing = new AtomicBoolean(false);
+    private volatile PreparedFrame frame;
+
+    public PreviewFrameInjector(HookDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Overwrites a preview buffer with the injected frame.
+     *
+     * @return true if the buffer was replaced; false if the frame for this
+     *         geometry is still being prepared or the format is unsupported
+     */
+    public boolean inject(byte[] data, int width, int height, int format) {
+        int size = frameSize(width, height, format);
+        if (data == null || size <= 0 || data.length < size)
+            return false;
+
+        PreparedFrame prepared = frame;
+        if (prepared != null && prepared.width == width && prepared.height == height && prepared.format == format
+                && prepared.generation == HookDispatcher.getImageGeneration()) {
+            System.arraycopy(prepared.data, 0, data, 0, size);
+            return true;
+        }
+
+        prepareAsync(width, height, format);
+        return false;
+    }
+
+    private void prepareAsync(final int width, final int height, final int format) {
+        if (!preparing.compareAndSet(false, true))
+            return;
+        try {
+            prepareExecutor.execute(() -> {
+                try {
+                    int generation = HookDispatcher.getImageGeneration();
+                    byte[] nv21 = dispatcher.getInjectedYUVData(width, height);
+                    if (nv21 == null)
+                        return;
+                    byte[] data = format == ImageFormat.YV12 ? nv21ToYv12(nv21, width, height) : nv21;
+                    frame = new PreparedFrame(width, height, format, generation, data);
+                    Logger.i(TAG, "Prepared " + width + "x" + height + " preview frame, format=0x"
+                            + Integer.toHexString(format));
+                } catch (Throwable t) {
+                    Logger.e(TAG, "Error preparing preview frame: " + t.getMessage());
+                } finally {
+                    preparing.set(false);
+                }
+            });
+        } catch (Throwable t) {
+            preparing.set(false);
+            Logger.e(TAG, "Error scheduling preview frame: " + t.getMessage());
+        }
+    }
+
+    /**
+     * Size in bytes of one preview frame, or -1 for unsupported formats.
+     */
+    static int frameSize(int width, int height, int format) {
+        if (width <= 0 || height <= 0)
+            return -1;
+        if (format == ImageFormat.NV21)
+            return width * height * 3 / 2;
+        if (format == ImageFormat.YV12) {
+            int yStride = align16(width);
+            int uvStride = align16(yStride / 2);
+            return yStride * height + uvStride * (height / 2) * 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts NV21 (Y plane, then interleaved V/U) to YV12 as documented for
+     * Camera.Parameters#setPreviewFormat: a 16-byte aligned Y plane followed by
+     * the V and then the U plane, each with a 16-byte aligned stride.
+     */
+    static byte[] nv21ToYv12(byte[] nv21, int width, int height) {
+        int yStride = align16(width);
+        int uvStride = align16(yStride / 2);
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int vOffset = yStride * height;
+        int uOffset = vOffset + uvStride * chromaHeight;
+        byte[] yv12 = new byte[uOffset + uvStride * chromaHeight];
+
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(nv21, row * width, yv12, row * yStride, width);
+        }
+
+        int vu = width * height;
+        for (int row = 0; row < chromaHeight; row++) {
+            int src = vu + row * width;
+            int v = vOffset + row * uvStride;
+            int u = uOffset + row * uvStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                yv12[v + col] = nv21[src + 2 * col];
+                yv12[u + col] = nv21[src + 2 * col + 1];
+            }
+        }
+        return yv12;
+    }
+
+    private static int align16(int value) {
+        return (value + 15) & ~15;
+    }
+}
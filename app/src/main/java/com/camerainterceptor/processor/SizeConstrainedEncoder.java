@@ -0,0 +1,134 @@
+package com.camerainterceptor.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the highest JPEG quality whose output fits a byte budget, such as a
+ * Camera2 JPEG ImageReader buffer.
+ *
+ * Every trial encode is remembered as a (quality, size) observation per image
+ * and size. The next quality is interpolated between the closest fitting and
+ * the closest oversized observation, falling back to bisection when that
+ * stalls. Once the bracket for a budget is known, a later call for the same
+ * image, size and budget predicts the answer and encodes once.
+ */
+public final class SizeConstrainedEncoder {
+    private static final int FIRST_GUESS = 90;
+
+    /**
+     * Encodes the image at a given quality.
+     */
+    public interface Encoder {
+        byte[] encode(int quality);
+    }
+
+    // Per image-and-size key: quality -> encoded size
+    private final Map<String, TreeMap<Integer, Integer>> history = new HashMap<>();
+    private int trials = 0;
+
+    /**
+     * Records an encode done elsewhere, such as the default-quality payload.
+     */
+    public synchronized void record(String key, int quality, int size) {
+        observations(key).put(quality, size);
+    }
+
+    /**
+     * Encodes at the highest quality whose output is at most maxBytes.
+     *
+     * @param key Identifies the source image and output size; observations
+     *            are shared by calls with the same key
+     * @return The encoded bytes, or null if even quality 1 does not fit
+     */
+    public synchronized byte[] encode(String key, int maxBytes, Encoder encoder) {
+        TreeMap<Integer, Integer> observed = observations(key);
+        byte[] best = null;
+        int bestQuality = 0;
+        int streak = 0; // Consecutive trials landing on the same side
+        Boolean lastFit = null;
+
+        while (true) {
+            // Bracket: highest quality known to fit, lowest known to overflow
+            int low = 0;
+            int high = 101;
+            for (Map.Entry<Integer, Integer> entry : observed.entrySet()) {
+                if (entry.getValue() <= maxBytes) {
+                    low = Math.max(low, entry.getKey());
+                } else {
+                    high = Math.min(high, entry.getKey());
+                }
+            }
+            if (high <= 1)
+                return null;
+            if (low > 0 && high == low + 1) {
+                if (best == null || bestQuality != low) {
+                    best = encoder.encode(low);
+                    trials++;
+                    observed.put(low, best.length);
+                }
+                return best;
+            }
+
+            // Interpolation creeps up on the answer from one side of a curved
+            // size/quality relation; bisect when it stops moving the other end
+            int quality = streak >= 2 ? (low + high) / 2 : predict(observed, low, high, maxBytes);
+            quality = Math.max(low + 1, Math.min(high - 1, quality));
+            byte[] data = encoder.encode(quality);
+            trials++;
+            observed.put(quality, data.length);
+            boolean fit = data.length <= maxBytes;
+            streak = lastFit != null && lastFit == fit ? streak + 1 : 1;
+            lastFit = fit;
+            if (fit && quality > bestQuality) {
+                best = data;
+                bestQuality = quality;
+            }
+        }
+    }
+
+    /**
+     * Next quality to try, strictly inside (low, high).
+     */
+    static int predict(TreeMap<Integer, Integer> observed, int low, int high, int maxBytes) {
+        Integer lowSize = low > 0 ? observed.get(low) : null;
+        Integer highSize = high <= 100 ? observed.get(high) : null;
+        int quality;
+        if (lowSize != null && highSize != null && highSize > lowSize) {
+            // Size grows roughly linearly with quality between close points
+            quality = low + (int) ((long) (maxBytes - lowSize) * (high - low) / (highSize - lowSize));
+        } else if (highSize != null) {
+            // Size climbs steeply towards high quality, so scale down gently
+            quality = (int) (high * Math.sqrt((double) maxBytes / highSize));
+        } else if (lowSize != null) {
+            quality = (low + high) / 2;
+        } else {
+            quality = FIRST_GUESS;
+        }
+        return Math.max(low + 1, Math.min(high - 1, quality));
+    }
+
+    /**
+     * Drops all observations, e.g. when the source image changes.
+     */
+    public synchronized void clear() {
+        history.clear();
+    }
+
+    /**
+     * Total trial encodes so far.
+     */
+    public synchronized int getTrialCount() {
+        return trials;
+    }
+
+    private TreeMap<Integer, Integer> observations(String key) {
+        TreeMap<Integer, Integer> observed = history.get(key);
+        if (observed == null) {
+            observed = new TreeMap<>();
+            history.put(key, observed);
+        }
+        return observed;
+    }
+}
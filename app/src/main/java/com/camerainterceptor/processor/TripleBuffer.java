@@ -0,0 +1,65 @@
+package com.camerainterceptor.processor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free single-producer / single-consumer triple buffer.
+ *
+ * The producer fills the "back" slot and publishes it by swapping it with the
+ * shared "middle" slot. The consumer swaps the middle slot into "front" only
+ * when a new frame is pending, so it always sees the latest complete frame and
+ * never waits for the producer. The slot handed back to the producer is never
+ * visible to the consumer, so its contents may be reused in place.
+ */
+public final class TripleBuffer<T> {
+    private static final int INDEX_MASK = 0x3;
+    private static final int DIRTY = 0x4; // middle slot holds a frame the consumer has not seen
+
+    private final Object[] slots = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // Owned by the producer thread
+    private int back = 0;
+    // Owned by the consumer thread
+    private int front = 2;
+
+    /**
+     * Producer side: returns the value currently parked in the back slot (an
+     * older frame that may be recycled), or null if the slot was never filled.
+     */
+    @SuppressWarnings("unchecked")
+    public T peekBack() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Producer side: publishes a complete frame. Never blocks.
+     */
+    public void publish(T value) {
+        slots[back] = value;
+        int previous = middle.getAndSet(back | DIRTY);
+        back = previous & INDEX_MASK;
+    }
+
+    /**
+     * Consumer side: returns the most recently published frame, or the frame
+     * returned by the previous call if nothing new was published. Returns null
+     * only before the first publish. Never blocks.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquireLatest() {
+        if ((middle.get() & DIRTY) != 0) {
+            int previous = middle.getAndSet(front);
+            front = previous & INDEX_MASK;
+        }
+        return (T) slots[front];
+    }
+
+    /**
+     * Consumer side: true if a frame was published since the last
+     * {@link #acquireLatest()}.
+     */
+    public boolean hasPending() {
+        return (middle.get() & DIRTY) != 0;
+    }
+}
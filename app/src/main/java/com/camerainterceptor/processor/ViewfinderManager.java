@@ -1,55 +1,150 @@
 package com.camerainterceptor.processor;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.view.Surface;
 
 import com.camerainterceptor.HookDispatcher;
 import com.camerainterceptor.utils.Logger;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manages the "Live Preview" spoofing thread.
  * It intercepts an app's Surface and draws injected images at ~30 FPS
  * to convince the user (and the app) that the camera is seeing the fake image.
+ *
+ * Decoding and scaling run on a separate producer thread which publishes
+ * finished frames through a {@link TripleBuffer}; the render thread only ever
+ * grabs the latest complete frame, so a source change never stalls preview.
  */
 public class ViewfinderManager {
     private static final String TAG = "ViewfinderManager";
     private static final long FRAME_DELAY_MS = 33; // ~30 FPS
+    private static final long SOURCE_CHECK_MS = 250; // How often the producer looks for a new source
 
     private final HookDispatcher dispatcher;
     private final HandlerThread spoofThread;
     private final Handler spoofHandler;
+    private final HandlerThread decodeThread;
+    private final Handler decodeHandler;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final TripleBuffer<Bitmap> frames = new TripleBuffer<>();
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // Size and rotation of surfaces we were given precisely: width, height, rotation
+    private final WeakIdentityRegistry<Surface, int[]> knownGeometry = new WeakIdentityRegistry<>();
 
-    private Surface targetSurface;
-    private Bitmap currentFrame;
+    private volatile Surface targetSurface;
+    private volatile int targetWidth = -1;
+    private volatile int targetHeight = -1;
+    private volatile int targetRotation = 0;
+
+    // Producer-side state (decode thread only)
+    private Bitmap lastSource;
+    private int lastWidth = -1;
+    private int lastHeight = -1;
+    private int lastRotation = 0;
+    private final Set<Bitmap> ownedFrames = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
 
     public ViewfinderManager(HookDispatcher dispatcher) {
         this.dispatcher = dispatcher;
         this.spoofThread = new HandlerThread("ViewfinderSpoofer");
         this.spoofThread.start();
         this.spoofHandler = new Handler(this.spoofThread.getLooper());
+        this.decodeThread = new HandlerThread("ViewfinderDecoder");
+        this.decodeThread.start();
+        this.decodeHandler = new Handler(this.decodeThread.getLooper());
     }
 
     /**
      * Starts spoofing frames to the provided Surface.
      */
     public synchronized void startSpoofing(Surface surface) {
+        // Reuse the geometry of a surface we were told about precisely before
+        int[] known = knownGeometry.get(surface);
+        if (known != null) {
+            startSpoofing(surface, known[0], known[1], known[2]);
+        } else {
+            startSpoofing(surface, -1, -1);
+        }
+    }
+
+    /**
+     * Starts spoofing frames to the provided Surface, pre-scaling frames to the
+     * given size on the producer thread when it is known.
+     */
+    public synchronized void startSpoofing(Surface surface, int width, int height) {
+        startSpoofing(surface, width, height, 0);
+    }
+
+    /**
+     * Starts spoofing frames to a buffer-oriented Surface (e.g. a CameraX
+     * SurfaceRequest) whose consumer rotates it clockwise by
+     * {@code rotationDegrees} for display. Frames are counter-rotated on the
+     * producer thread so they appear upright without any work at render time.
+     */
+    public synchronized void startSpoofing(Surface surface, int width, int height, int rotationDegrees) {
         if (surface == null || !surface.isValid()) {
             Logger.w(TAG, "Cannot start spoofing: Surface is null or invalid");
             return;
         }
 
         this.targetSurface = surface;
+        this.targetWidth = width;
+        this.targetHeight = height;
+        this.targetRotation = normalizeRotation(rotationDegrees);
+        if (width > 0 && height > 0) {
+            knownGeometry.put(surface, new int[] { width, height, targetRotation });
+        }
         if (isRunning.compareAndSet(false, true)) {
             Logger.i(TAG, "Starting Viewfinder Spoofing loop");
+            decodeHandler.post(this::produceLoop);
             spoofHandler.post(this::renderLoop);
+        } else {
+            // Size may have changed; let the producer pick it up immediately
+            decodeHandler.removeCallbacksAndMessages(null);
+            decodeHandler.post(this::produceLoop);
+        }
+    }
+
+    /**
+     * Updates the display rotation of the current target, e.g. when the
+     * device rotates.
+     */
+    public synchronized void setRotation(int rotationDegrees) {
+        int rotation = normalizeRotation(rotationDegrees);
+        if (rotation == targetRotation)
+            return;
+        targetRotation = rotation;
+        Surface surface = targetSurface;
+        if (surface != null && targetWidth > 0 && targetHeight > 0) {
+            knownGeometry.put(surface, new int[] { targetWidth, targetHeight, rotation });
+        }
+        if (isRunning.get()) {
+            decodeHandler.removeCallbacksAndMessages(null);
+            decodeHandler.post(this::produceLoop);
         }
     }
 
+    /**
+     * True if frames are currently being spoofed into this Surface.
+     */
+    public boolean isSpoofing(Surface surface) {
+        return isRunning.get() && surface != null && surface == targetSurface;
+    }
+
+    private static int normalizeRotation(int degrees) {
+        return ((degrees % 360) + 360) % 360 / 90 * 90;
+    }
+
     /**
      * Stops the spoofing loop.
      */
@@ -57,23 +152,109 @@ public class ViewfinderManager {
         if (isRunning.compareAndSet(true, false)) {
             Logger.i(TAG, "Stopping Viewfinder Spoofing loop");
             spoofHandler.removeCallbacksAndMessages(null);
+            decodeHandler.removeCallbacksAndMessages(null);
             this.targetSurface = null;
         }
     }
 
+    /**
+     * Producer: decodes the selected image off the render thread and publishes
+     * a frame whenever the source or the target size changes.
+     */
+    private void produceLoop() {
+        if (!isRunning.get()) {
+            return;
+        }
+
+        try {
+            Bitmap source = dispatcher.getPreSelectedBitmap();
+            int width = targetWidth;
+            int height = targetHeight;
+            int rotation = targetRotation;
+
+            if (source != null && (source != lastSource || width != lastWidth || height != lastHeight
+                    || rotation != lastRotation)) {
+                Bitmap frame = prepareFrame(source, width, height, rotation);
+                if (frame != null) {
+                    frames.publish(frame);
+                    lastSource = source;
+                    lastWidth = width;
+                    lastHeight = height;
+                    lastRotation = rotation;
+                    Logger.d(TAG, "Published viewfinder frame " + frame.getWidth() + "x" + frame.getHeight());
+                }
+            }
+        } catch (Throwable t) {
+            Logger.e(TAG, "Error preparing viewfinder frame: " + t.getMessage());
+        }
+
+        if (isRunning.get()) {
+            decodeHandler.postDelayed(this::produceLoop, SOURCE_CHECK_MS);
+        }
+    }
+
+    /**
+     * Center-crops and scales the source to the target size, reusing the
+     * bitmap parked in the triple buffer's back slot when it has the right size.
+     * A non-zero rotation draws the image counter-rotated so it is upright once
+     * the consumer applies that rotation.
+     */
+    private Bitmap prepareFrame(Bitmap source, int width, int height, int rotation) {
+        if (width <= 0 || height <= 0
+                || (rotation == 0 && source.getWidth() == width && source.getHeight() == height)) {
+            return source;
+        }
+
+        Bitmap out = frames.peekBack();
+        if (out == null || !ownedFrames.contains(out) || out.isRecycled()
+                || out.getWidth() != width || out.getHeight() != height) {
+            // Never draw into a source bitmap shared with the dispatcher cache
+            out = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            ownedFrames.add(out);
+        }
+
+        // Size of the frame as the user will see it
+        boolean swap = rotation == 90 || rotation == 270;
+        int uprightWidth = swap ? height : width;
+        int uprightHeight = swap ? width : height;
+
+        float srcAspect = (float) source.getWidth() / source.getHeight();
+        float dstAspect = (float) uprightWidth / uprightHeight;
+        Rect src;
+        if (srcAspect > dstAspect) {
+            int cropW = (int) (source.getHeight() * dstAspect);
+            int x = (source.getWidth() - cropW) / 2;
+            src = new Rect(x, 0, x + cropW, source.getHeight());
+        } else {
+            int cropH = (int) (source.getWidth() / dstAspect);
+            int y = (source.getHeight() - cropH) / 2;
+            src = new Rect(0, y, source.getWidth(), y + cropH);
+        }
+
+        Canvas canvas = new Canvas(out);
+        if (rotation != 0) {
+            canvas.translate(width / 2f, height / 2f);
+            canvas.rotate(-rotation);
+            canvas.translate(-uprightWidth / 2f, -uprightHeight / 2f);
+        }
+        canvas.drawBitmap(source, src, new Rect(0, 0, uprightWidth, uprightHeight), scalePaint);
+        return out;
+    }
+
     private void renderLoop() {
-        if (!isRunning.get() || targetSurface == null || !targetSurface.isValid()) {
+        Surface surface = targetSurface;
+        if (!isRunning.get() || surface == null || !surface.isValid()) {
             isRunning.set(false);
             return;
         }
 
         try {
-            // 1. Get current selected image from dispatcher
-            Bitmap frame = dispatcher.getPreSelectedBitmap();
+            // 1. Grab the latest complete frame without waiting on the producer
+            Bitmap frame = frames.acquireLatest();
 
-            if (frame != null) {
+            if (frame != null && !frame.isRecycled()) {
                 // 2. Inject frame directly via Native JNI
-                NativeImageProcessor.injectFrameToSurface(frame, targetSurface);
+                NativeImageProcessor.injectFrameToSurface(frame, surface);
             }
 
         } catch (Throwable t) {
@@ -92,5 +273,6 @@ public class ViewfinderManager {
     public void release() {
         stopSpoofing();
         spoofThread.quitSafely();
+        decodeThread.quitSafely();
     }
 }
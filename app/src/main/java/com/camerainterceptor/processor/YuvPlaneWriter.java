@@ -0,0 +1,135 @@
+package com.camerainterceptor.processor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes an NV21 frame into the three planes of a YUV_420_888 image (Image or
+ * CameraX ImageProxy), honoring each plane's row and pixel stride.
+ *
+ * Each plane's strided layout is built once per geometry. Planar planes
+ * (pixel stride 1) are then a single bulk put per frame; interleaved chroma
+ * planes are read, patched at their own sample positions and written back so
+ * the bytes belonging to the other chroma plane are preserved whatever the
+ * U/V order in memory.
+ */
+public final class YuvPlaneWriter {
+    private final int width;
+    private final int height;
+    private final int[] rowStrides;
+    private final int[] pixelStrides;
+    private final byte[][] layouts;
+    private final byte[] scratch;
+
+    public YuvPlaneWriter(byte[] nv21, int width, int height, int[] rowStrides, int[] pixelStrides) {
+        this.width = width;
+        this.height = height;
+        this.rowStrides = rowStrides.clone();
+        this.pixelStrides = pixelStrides.clone();
+        this.layouts = new byte[3][];
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int vu = width * height;
+        int scratchSize = 0;
+        for (int plane = 0; plane < 3; plane++) {
+            boolean luma = plane == 0;
+            int cols = luma ? width : chromaWidth;
+            int rows = luma ? height : chromaHeight;
+            int rowStride = rowStrides[plane];
+            int pixelStride = pixelStrides[plane];
+            byte[] layout = new byte[planeLength(cols, rows, rowStride, pixelStride)];
+
+            for (int row = 0; row < rows; row++) {
+                int dst = row * rowStride;
+                if (luma && pixelStride == 1) {
+                    System.arraycopy(nv21, row * width, layout, dst, width);
+                    continue;
+                }
+                for (int col = 0; col < cols; col++) {
+                    byte value;
+                    if (luma) {
+                        value = nv21[row * width + col];
+                    } else {
+                        // NV21 chroma is interleaved V, U
+                        int src = vu + row * width + 2 * col;
+                        value = plane == 1 ? nv21[src + 1] : nv21[src];
+                    }
+                    layout[dst + col * pixelStride] = value;
+                }
+            }
+            layouts[plane] = layout;
+            if (pixelStride > 1) {
+                scratchSize = Math.max(scratchSize, layout.length);
+            }
+        }
+        this.scratch = new byte[scratchSize];
+    }
+
+    /**
+     * True if this writer was built for the given geometry.
+     */
+    public boolean matches(int width, int height, int[] rowStrides, int[] pixelStrides) {
+        if (this.width != width || this.height != height)
+            return false;
+        for (int plane = 0; plane < 3; plane++) {
+            if (this.rowStrides[plane] != rowStrides[plane] || this.pixelStrides[plane] != pixelStrides[plane])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the frame into the planes' buffers (Y, U, V order).
+     *
+     * @return false if a buffer is read-only or too small
+     */
+    public synchronized boolean write(ByteBuffer[] planes) {
+        if (planes == null || planes.length < 3)
+            return false;
+        for (int plane = 0; plane < 3; plane++) {
+            ByteBuffer buffer = planes[plane];
+            byte[] layout = layouts[plane];
+            if (buffer == null || buffer.isReadOnly() || buffer.capacity() < layout.length)
+                return false;
+        }
+
+        for (int plane = 0; plane < 3; plane++) {
+            // Absolute writes through a duplicate leave the app's position/limit untouched
+            ByteBuffer buffer = planes[plane].duplicate();
+            buffer.clear();
+            byte[] layout = layouts[plane];
+            int pixelStride = pixelStrides[plane];
+
+            if (pixelStride == 1) {
+                buffer.put(layout, 0, layout.length);
+                continue;
+            }
+
+            int length = layout.length;
+            buffer.get(scratch, 0, length);
+            int cols = plane == 0 ? width : width / 2;
+            int rows = plane == 0 ? height : height / 2;
+            int rowStride = rowStrides[plane];
+            for (int row = 0; row < rows; row++) {
+                int offset = row * rowStride;
+                int end = offset + cols * pixelStride;
+                for (int i = offset; i < end; i += pixelStride) {
+                    scratch[i] = layout[i];
+                }
+            }
+            buffer.clear();
+            buffer.put(scratch, 0, length);
+        }
+        return true;
+    }
+
+    /**
+     * Bytes spanned by a plane: full rows except the last, which ends at its
+     * final sample.
+     */
+    static int planeLength(int cols, int rows, int rowStride, int pixelStride) {
+        if (cols <= 0 || rows <= 0)
+            return 0;
+        return rowStride * (rows - 1) + (cols - 1) * pixelStride + 1;
+    }
+}
@@ -0,0 +1,116 @@
+package com.camerainterceptor.state;
+
+import com.camerainterceptor.state.ImageReaderRegistry.ReaderInfo;
+import com.camerainterceptor.utils.WeakIdentityRegistry;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+
+/**
+ * Payloads being prepared for the frames of an in-flight captureBurst, handed
+ * out in order as the app acquires images from each output's ImageReader.
+ * Keyed by the reader's {@link ReaderInfo} so a lookup costs one identity
+ * probe.
+ */
+public class BurstQueue {
+    // Frames not acquired within this window belong to an abandoned burst
+    static final long STALE_AFTER_NANOS = 5_000_000_000L;
+
+    /**
+     * One frame handed out of a burst.
+     */
+    public static final class Frame {
+        public final Future<byte[]> payload; // may still be in preparation
+        public final int index; // 1-based position within its burst
+        public final int total;
+        public final long burstStartNanos;
+
+        Frame(Future<byte[]> payload, int index, int total, long burstStartNanos) {
+            this.payload = payload;
+            this.index = index;
+            this.total = total;
+            this.burstStartNanos = burstStartNanos;
+        }
+
+        public boolean isLast() {
+            return index == total;
+        }
+    }
+
+    private static final class Burst {
+        final Future<byte[]> payload;
+        final int total;
+        final long startNanos;
+        int handedOut;
+
+        Burst(Future<byte[]> payload, int total, long startNanos) {
+            this.payload = payload;
+            this.total = total;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final WeakIdentityRegistry<ReaderInfo, ArrayDeque<Burst>> pending = new WeakIdentityRegistry<>();
+
+    /**
+     * Queues {@code count} frames of the given payload for a reader.
+     */
+    public static void enqueue(ReaderInfo reader, Future<byte[]> payload, int count) {
+        enqueue(reader, payload, count, System.nanoTime());
+    }
+
+    static void enqueue(ReaderInfo reader, Future<byte[]> payload, int count, long nowNanos) {
+        if (reader == null || payload == null || count <= 0)
+            return;
+        ArrayDeque<Burst> queue = pending.get(reader);
+        if (queue == null) {
+            // Two bursts for a new reader must land in the same queue
+            ArrayDeque<Burst> created = new ArrayDeque<>();
+            queue = pending.putIfAbsent(reader, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        synchronized (queue) {
+            queue.addLast(new Burst(payload, count, nowNanos));
+        }
+    }
+
+    /**
+     * Returns the next prepared frame for a reader, or null if no burst is
+     * pending.
+     */
+    public static Frame poll(ReaderInfo reader) {
+        return poll(reader, System.nanoTime());
+    }
+
+    static Frame poll(ReaderInfo reader, long nowNanos) {
+        if (reader == null)
+            return null;
+        ArrayDeque<Burst> queue = pending.get(reader);
+        if (queue == null)
+            return null;
+        synchronized (queue) {
+            Burst burst;
+            while ((burst = queue.peekFirst()) != null && nowNanos - burst.startNanos > STALE_AFTER_NANOS) {
+                queue.pollFirst();
+            }
+            if (burst == null)
+                return null;
+            burst.handedOut++;
+            if (burst.handedOut == burst.total) {
+                queue.pollFirst();
+            }
+            return new Frame(burst.payload, burst.handedOut, burst.total, burst.startNanos);
+        }
+    }
+
+    /**
+     * Drops every pending frame for a reader, e.g. when it is closed.
+     */
+    public static void clear(ReaderInfo reader) {
+        if (reader != null) {
+            pending.remove(reader);
+        }
+    }
+}
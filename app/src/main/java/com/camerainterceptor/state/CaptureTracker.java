@@ -0,0 +1,193 @@
+package com.camerainterceptor.state;
+
+import com.camerainterceptor.utils.Logger;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Correlates the hooks one photo passes through in this process.
+ *
+ * A capture call (Camera2 capture, Camera.takePicture, CameraX takePicture)
+ * opens a transaction. When the camera layer itself injects (the JPEG frame
+ * or picture callback), it marks the transaction injected; the save layers
+ * (Bitmap.compress, FileOutputStream writes, MediaStore streams and
+ * descriptors) then leave the app's bytes alone, since they already derive
+ * from the injected image. Otherwise the first save layer to load a payload
+ * attaches it, so the others reuse it instead of loading it again. The first
+ * file written for the transaction completes it and records the
+ * shutter-to-file latency.
+ */
+public final class CaptureTracker {
+    private static final String TAG = "CaptureTracker";
+
+    // A transaction nothing completed within this window is ignored
+    static final long STALE_AFTER_NANOS = 10_000_000_000L;
+    // Capture calls this close together (e.g. CameraX then Camera2) share one transaction
+    static final long JOIN_WINDOW_NANOS = 2_000_000_000L;
+
+    /**
+     * One photo, from the capture call to its first saved file.
+     */
+    public static final class Transaction {
+        public final long id;
+        public final String source;
+        public final long shutterNanos;
+        private volatile byte[] payload;
+        private volatile String injectedBy;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        Transaction(long id, String source, long shutterNanos) {
+            this.id = id;
+            this.source = source;
+            this.shutterNanos = shutterNanos;
+        }
+
+        /**
+         * The payload prepared or injected for this capture, or null.
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public void setPayload(byte[] payload) {
+            if (payload != null && payload.length > 0) {
+                this.payload = payload;
+            }
+        }
+
+        public boolean isInjected() {
+            return injectedBy != null;
+        }
+
+        /**
+         * The layer that injected this capture, or null.
+         */
+        public String getInjectedBy() {
+            return injectedBy;
+        }
+
+        public boolean isCompleted() {
+            return completed.get();
+        }
+    }
+
+    private static final AtomicReference<Transaction> current = new AtomicReference<>();
+    private static final AtomicLong nextId = new AtomicLong(0);
+    private static final AtomicLong completedCount = new AtomicLong(0);
+    private static final AtomicLong uninjectedCount = new AtomicLong(0);
+    private static final AtomicLong totalLatencyNanos = new AtomicLong(0);
+    private static final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+    private CaptureTracker() {
+    }
+
+    /**
+     * Opens a transaction for a capture call, or joins the one a higher-level
+     * API opened for the same photo.
+     */
+    public static Transaction open(String source) {
+        return open(source, System.nanoTime());
+    }
+
+    static Transaction open(String source, long nowNanos) {
+        while (true) {
+            Transaction existing = current.get();
+            if (existing != null && !existing.isCompleted() && !existing.isInjected()
+                    && nowNanos - existing.shutterNanos < JOIN_WINDOW_NANOS) {
+                return existing;
+            }
+            Transaction opened = new Transaction(nextId.incrementAndGet(), source, nowNanos);
+            if (current.compareAndSet(existing, opened)) {
+                if (existing != null && !existing.isCompleted() && !existing.isInjected()) {
+                    // E.g. a focus trigger, or a capture no layer recognised
+                    uninjectedCount.incrementAndGet();
+                }
+                return opened;
+            }
+        }
+    }
+
+    /**
+     * The transaction in progress, or null if there is none or it was
+     * completed or went stale.
+     */
+    public static Transaction active() {
+        return active(System.nanoTime());
+    }
+
+    static Transaction active(long nowNanos) {
+        Transaction t = current.get();
+        if (t == null || t.isCompleted() || nowNanos - t.shutterNanos > STALE_AFTER_NANOS)
+            return null;
+        return t;
+    }
+
+    /**
+     * True if a layer already injected the capture in progress, so the
+     * caller should leave the app's data as it is.
+     */
+    public static boolean isInjected() {
+        Transaction t = active();
+        return t != null && t.isInjected();
+    }
+
+    /**
+     * Records that a camera layer injected the capture in progress, so its
+     * saved bytes are already ours. The first layer to do so is kept.
+     */
+    public static void markInjected(String layer, byte[] payload) {
+        Transaction t = active();
+        if (t == null || t.injectedBy != null)
+            return;
+        t.setPayload(payload);
+        t.injectedBy = layer;
+    }
+
+    /**
+     * Completes the capture in progress once its file is written.
+     *
+     * @return Shutter-to-file latency in nanoseconds, or -1 if there was no
+     *         transaction to complete
+     */
+    public static long complete(String target) {
+        return complete(target, System.nanoTime());
+    }
+
+    static long complete(String target, long nowNanos) {
+        Transaction t = active(nowNanos);
+        if (t == null || !t.completed.compareAndSet(false, true))
+            return -1;
+
+        long latency = nowNanos - t.shutterNanos;
+        completedCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) {
+            // Retry until our latency is recorded or a larger one is
+        }
+        Logger.i(TAG, "Capture #" + t.id + " (" + t.source + ") saved to " + target + " in "
+                + latency / 1_000_000 + "ms (" + (t.isInjected() ? "injected by " + t.getInjectedBy()
+                        : "replaced on save") + ")");
+        return latency;
+    }
+
+    /**
+     * One-line summary of shutter-to-file latencies so far.
+     */
+    public static String describeStats() {
+        long count = completedCount.get();
+        long avgMs = count > 0 ? totalLatencyNanos.get() / count / 1_000_000 : 0;
+        return "captures=" + count + " avg=" + avgMs + "ms max=" + maxLatencyNanos.get() / 1_000_000
+                + "ms uninjected=" + uninjectedCount.get();
+    }
+
+    static void reset() {
+        current.set(null);
+        completedCount.set(0);
+        uninjectedCount.set(0);
+        totalLatencyNanos.set(0);
+        maxLatencyNanos.set(0);
+    }
+}
@@ -2,11 +2,20 @@ package com.camerainterceptor.state;
 
 import android.graphics.ImageFormat;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * Manages the globally intercepted state of the target app's camera requests.
- * Used to store the exact resolution and format the app *wants* so our native
- * layer
- * can correctly format the injected image to match perfectly.
+ * Manages the intercepted state of the target app's camera requests.
+ * Stores the exact resolution and format the app *wants* for each stream of
+ * each camera so our native layer can correctly format the injected image to
+ * match perfectly.
+ *
+ * Streams are tracked per camera and per role; every update publishes a new
+ * immutable {@link StreamConfig}, so concurrent preview and still
+ * configuration never clobber each other.
  */
 public class HookState {
     public enum InjectionMode {
@@ -14,48 +23,166 @@ public class HookState {
         DEEP_SURFACE // Full surface/native hijack (Phase 3)
     }
 
-    private static int targetWidth = -1;
-    private static int targetHeight = -1;
-    private static int targetFormat = ImageFormat.JPEG; // Default fallback
-    private static InjectionMode currentMode = InjectionMode.SAFE;
+    public enum StreamRole {
+        PREVIEW,
+        STILL,
+        ANALYSIS,
+        VIDEO
+    }
 
-    public static void setTargetResolution(int width, int height) {
-        targetWidth = width;
-        targetHeight = height;
+    /**
+     * Camera id used when the hook cannot tell which camera a stream belongs to.
+     */
+    public static final String DEFAULT_CAMERA = "default";
+
+    /**
+     * Immutable snapshot of one stream's requested geometry.
+     */
+    public static final class StreamConfig {
+        public final String cameraId;
+        public final StreamRole role;
+        public final int width;
+        public final int height;
+        public final int format;
+
+        public StreamConfig(String cameraId, StreamRole role, int width, int height, int format) {
+            this.cameraId = cameraId;
+            this.role = role;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+
+        public boolean hasValidResolution() {
+            return width > 0 && height > 0;
+        }
+
+        StreamConfig withResolution(int newWidth, int newHeight) {
+            return new StreamConfig(cameraId, role, newWidth, newHeight, format);
+        }
+
+        StreamConfig withFormat(int newFormat) {
+            return new StreamConfig(cameraId, role, width, height, newFormat);
+        }
+
+        @Override
+        public String toString() {
+            return cameraId + "/" + role + " " + width + "x" + height + " format=0x" + Integer.toHexString(format);
+        }
     }
 
-    public static void setTargetFormat(int format) {
-        targetFormat = format;
+    private static final ConcurrentHashMap<String, StreamConfig> streams = new ConcurrentHashMap<>();
+    private static volatile String activeCameraId = DEFAULT_CAMERA;
+    private static volatile InjectionMode currentMode = InjectionMode.SAFE;
+
+    private static String key(String cameraId, StreamRole role) {
+        return (cameraId != null ? cameraId : DEFAULT_CAMERA) + "/" + role.name();
+    }
+
+    private static int defaultFormat(StreamRole role) {
+        return role == StreamRole.STILL ? ImageFormat.JPEG : ImageFormat.NV21;
+    }
+
+    /**
+     * Publishes a complete stream configuration.
+     */
+    public static StreamConfig setStream(String cameraId, StreamRole role, int width, int height, int format) {
+        String id = cameraId != null ? cameraId : DEFAULT_CAMERA;
+        StreamConfig config = new StreamConfig(id, role, width, height, format);
+        streams.put(key(id, role), config);
+        return config;
+    }
+
+    /**
+     * Updates a stream's resolution, keeping its previously requested format.
+     */
+    public static StreamConfig setStreamResolution(String cameraId, StreamRole role, int width, int height) {
+        final String id = cameraId != null ? cameraId : DEFAULT_CAMERA;
+        return streams.compute(key(id, role), (k, old) -> old != null ? old.withResolution(width, height)
+                : new StreamConfig(id, role, width, height, defaultFormat(role)));
+    }
+
+    /**
+     * Updates a stream's format, keeping its previously requested resolution.
+     */
+    public static StreamConfig setStreamFormat(String cameraId, StreamRole role, int format) {
+        final String id = cameraId != null ? cameraId : DEFAULT_CAMERA;
+        return streams.compute(key(id, role), (k, old) -> old != null ? old.withFormat(format)
+                : new StreamConfig(id, role, -1, -1, format));
+    }
+
+    /**
+     * Returns the current configuration of a stream, or null if the app never
+     * configured it.
+     */
+    public static StreamConfig getStream(String cameraId, StreamRole role) {
+        return streams.get(key(cameraId, role));
+    }
+
+    /**
+     * Returns an immutable view of every configured stream of a camera.
+     */
+    public static Map<StreamRole, StreamConfig> snapshot(String cameraId) {
+        EnumMap<StreamRole, StreamConfig> result = new EnumMap<>(StreamRole.class);
+        for (StreamRole role : StreamRole.values()) {
+            StreamConfig config = getStream(cameraId, role);
+            if (config != null) {
+                result.put(role, config);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public static void setActiveCamera(String cameraId) {
+        activeCameraId = cameraId != null ? cameraId : DEFAULT_CAMERA;
+    }
+
+    public static String getActiveCamera() {
+        return activeCameraId;
     }
 
     public static void setInjectionMode(InjectionMode mode) {
         currentMode = mode;
     }
 
+    public static InjectionMode getInjectionMode() {
+        return currentMode;
+    }
+
+    // ==================== Legacy single-target accessors ====================
+    // These read and write the still stream of the active camera.
+
+    public static void setTargetResolution(int width, int height) {
+        setStreamResolution(activeCameraId, StreamRole.STILL, width, height);
+    }
+
+    public static void setTargetFormat(int format) {
+        setStreamFormat(activeCameraId, StreamRole.STILL, format);
+    }
+
     public static int getTargetWidth() {
-        return targetWidth;
+        StreamConfig config = getStream(activeCameraId, StreamRole.STILL);
+        return config != null ? config.width : -1;
     }
 
     public static int getTargetHeight() {
-        return targetHeight;
+        StreamConfig config = getStream(activeCameraId, StreamRole.STILL);
+        return config != null ? config.height : -1;
     }
 
     public static int getTargetFormat() {
-        return targetFormat;
-    }
-
-    public static InjectionMode getInjectionMode() {
-        return currentMode;
+        StreamConfig config = getStream(activeCameraId, StreamRole.STILL);
+        return config != null ? config.format : ImageFormat.JPEG;
     }
 
     public static boolean hasValidResolution() {
-        return targetWidth > 0 && targetHeight > 0;
+        StreamConfig config = getStream(activeCameraId, StreamRole.STILL);
+        return config != null && config.hasValidResolution();
     }
 
     public static void reset() {
-        targetWidth = -1;
-        targetHeight = -1;
-        targetFormat = ImageFormat.JPEG;
+        streams.clear();
+        activeCameraId = DEFAULT_CAMERA;
         currentMode = InjectionMode.SAFE;
     }
 }
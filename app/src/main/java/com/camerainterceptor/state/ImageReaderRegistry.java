@@ -0,0 +1,76 @@
+package com.camerainterceptor.state;
+
+import android.media.ImageReader;
+import android.view.Surface;
+
+import com.camerainterceptor.utils.WeakIdentityRegistry;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Records the geometry of every ImageReader the target app creates, keyed by
+ * both the reader and its Surface. Session creation only sees opaque Surfaces,
+ * so this is how we learn each output's exact size and format up front.
+ */
+public class ImageReaderRegistry {
+
+    /**
+     * Immutable description of an ImageReader at creation time.
+     */
+    public static final class ReaderInfo {
+        public final int width;
+        public final int height;
+        public final int format;
+        public final int maxImages;
+        public final long usage;
+        // Weak so the surface registry entry can still be collected
+        private final WeakReference<Surface> surface;
+
+        ReaderInfo(Surface surface, int width, int height, int format, int maxImages, long usage) {
+            this.surface = new WeakReference<>(surface);
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.maxImages = maxImages;
+            this.usage = usage;
+        }
+
+        public Surface getSurface() {
+            return surface.get();
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + " format=0x" + Integer.toHexString(format) +
+                    " maxImages=" + maxImages + (usage != 0 ? " usage=0x" + Long.toHexString(usage) : "");
+        }
+    }
+
+    private static final WeakIdentityRegistry<ImageReader, ReaderInfo> readers = new WeakIdentityRegistry<>();
+    private static final WeakIdentityRegistry<Surface, ReaderInfo> surfaces = new WeakIdentityRegistry<>();
+
+    public static ReaderInfo register(ImageReader reader, Surface surface, int width, int height, int format,
+            int maxImages, long usage) {
+        ReaderInfo info = new ReaderInfo(surface, width, height, format, maxImages, usage);
+        readers.put(reader, info);
+        if (surface != null) {
+            surfaces.put(surface, info);
+        }
+        return info;
+    }
+
+    public static ReaderInfo lookup(ImageReader reader) {
+        return readers.get(reader);
+    }
+
+    public static ReaderInfo lookupSurface(Surface surface) {
+        return surfaces.get(surface);
+    }
+
+    public static void unregister(ImageReader reader) {
+        ReaderInfo info = readers.remove(reader);
+        if (info != null && info.getSurface() != null) {
+            surfaces.remove(info.getSurface());
+        }
+    }
+}
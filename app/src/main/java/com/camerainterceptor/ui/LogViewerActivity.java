@@ -23,6 +23,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.camerainterceptor.R;
+import com.camerainterceptor.utils.LogSegments;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.bottomappbar.BottomAppBar;
 import com.google.android.material.chip.Chip;
@@ -31,7 +32,9 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -44,6 +47,8 @@ import java.util.concurrent.Executors;
 
 /**
  * Activity for viewing and managing application logs.
+ * Each hooked process writes its own log segment; they are merged by
+ * timestamp while reading.
  * Features:
  * - Syntax highlighting by log level
  * - Pull-to-refresh
@@ -54,8 +59,7 @@ import java.util.concurrent.Executors;
  */
 public class LogViewerActivity extends AppCompatActivity {
 
-    private static final String LOG_FILE_DIR = "CameraInterceptor";
-    private static final String LOG_FILE_NAME = "camera_interceptor_log.txt";
+    private static final String EXPORT_FILE_NAME = "camera_interceptor_export.txt";
 
     // Views
     private RecyclerView recyclerLogs;
@@ -235,26 +239,18 @@ public class LogViewerActivity extends AppCompatActivity {
         showLoading();
         
         executor.execute(() -> {
-            File logDir = new File(Environment.getExternalStorageDirectory(), LOG_FILE_DIR);
-            File logFile = new File(logDir, LOG_FILE_NAME);
-
             List<LogEntry> entries = new ArrayList<>();
             String error = null;
 
-            if (!logFile.exists()) {
-                // Not an error, just empty
-            } else {
-                try (BufferedReader br = new BufferedReader(new FileReader(logFile))) {
-                    String line;
-                    long id = 0;
-                    while ((line = br.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            entries.add(LogEntry.parse(id++, line));
-                        }
+            // No segments is not an error, just empty
+            try {
+                mergeSegments(line -> {
+                    if (!line.trim().isEmpty()) {
+                        entries.add(LogEntry.parse(entries.size(), line));
                     }
-                } catch (IOException e) {
-                    error = e.getMessage();
-                }
+                });
+            } catch (IOException e) {
+                error = e.getMessage();
             }
 
             final List<LogEntry> finalEntries = entries;
@@ -371,24 +367,23 @@ public class LogViewerActivity extends AppCompatActivity {
 
     private void clearLogs() {
         executor.execute(() -> {
-            File logDir = new File(Environment.getExternalStorageDirectory(), LOG_FILE_DIR);
-            File logFile = new File(logDir, LOG_FILE_NAME);
+            List<File> segments = LogSegments.list(getLogDir());
 
             // Save content for undo
-            if (logFile.exists()) {
-                try (BufferedReader br = new BufferedReader(new FileReader(logFile))) {
-                    StringBuilder sb = new StringBuilder();
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        sb.append(line).append("\n");
-                    }
-                    deletedLogsContent = sb.toString();
-                } catch (IOException e) {
-                    deletedLogsContent = null;
-                }
+            StringBuilder sb = new StringBuilder();
+            try {
+                mergeSegments(line -> sb.append(line).append("\n"));
+                deletedLogsContent = sb.toString();
+            } catch (IOException e) {
+                deletedLogsContent = null;
             }
 
-            boolean success = !logFile.exists() || logFile.delete();
+            // Processes still logging start a new segment on their next write
+            boolean deleted = true;
+            for (File segment : segments) {
+                deleted &= !segment.exists() || segment.delete();
+            }
+            final boolean success = deleted;
 
             mainHandler.post(() -> {
                 if (success) {
@@ -416,11 +411,11 @@ public class LogViewerActivity extends AppCompatActivity {
         }
 
         executor.execute(() -> {
-            File logDir = new File(Environment.getExternalStorageDirectory(), LOG_FILE_DIR);
+            File logDir = getLogDir();
             if (!logDir.exists()) {
                 logDir.mkdirs();
             }
-            File logFile = new File(logDir, LOG_FILE_NAME);
+            File logFile = new File(logDir, LogSegments.RESTORED_NAME);
 
             boolean success = false;
             try (FileWriter writer = new FileWriter(logFile)) {
@@ -448,17 +443,37 @@ public class LogViewerActivity extends AppCompatActivity {
     }
 
     private void shareLogs() {
-        File logDir = new File(Environment.getExternalStorageDirectory(), LOG_FILE_DIR);
-        File logFile = new File(logDir, LOG_FILE_NAME);
+        executor.execute(() -> {
+            // Share one merged file rather than a file per process
+            File exportFile = new File(getLogDir(), EXPORT_FILE_NAME);
+            long lines;
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(exportFile))) {
+                lines = mergeSegments(line -> {
+                    writer.write(line);
+                    writer.newLine();
+                });
+            } catch (IOException e) {
+                lines = -1;
+            }
 
-        if (!logFile.exists()) {
-            Snackbar.make(fabClear, R.string.log_empty_title, Snackbar.LENGTH_SHORT)
-                    .setAnchorView(fabClear)
-                    .show();
-            return;
-        }
+            final long finalLines = lines;
+            mainHandler.post(() -> {
+                if (finalLines == 0) {
+                    Snackbar.make(fabClear, R.string.log_empty_title, Snackbar.LENGTH_SHORT)
+                            .setAnchorView(fabClear)
+                            .show();
+                    return;
+                }
+                shareLogFile(finalLines > 0 ? exportFile : null);
+            });
+        });
+    }
 
+    private void shareLogFile(File logFile) {
         try {
+            if (logFile == null) {
+                throw new IOException("Merged log could not be written");
+            }
             Uri uri = FileProvider.getUriForFile(this,
                     getPackageName() + ".fileprovider", logFile);
             
@@ -481,6 +496,36 @@ public class LogViewerActivity extends AppCompatActivity {
         }
     }
 
+    private File getLogDir() {
+        return new File(Environment.getExternalStorageDirectory(), LogSegments.LOG_DIR);
+    }
+
+    /**
+     * Streams the lines of all log segments to the sink, merged by timestamp.
+     *
+     * @return Number of lines merged
+     */
+    private long mergeSegments(LogSegments.LineSink sink) throws IOException {
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            for (File segment : LogSegments.list(getLogDir())) {
+                try {
+                    readers.add(new BufferedReader(new FileReader(segment)));
+                } catch (FileNotFoundException e) {
+                    // Rotated or cleared since it was listed
+                }
+            }
+            return LogSegments.merge(readers, sink);
+        } finally {
+            for (BufferedReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     private void exportLogs() {
         // For now, share as export (could implement SAF for proper file saving)
         shareLogs();
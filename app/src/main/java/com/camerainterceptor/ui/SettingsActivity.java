@@ -12,15 +12,21 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.Preference;
+import androidx.preference.PreferenceDataStore;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 
+import com.camerainterceptor.ModulePrefs;
 import com.camerainterceptor.R;
 import com.camerainterceptor.utils.Logger;
 import com.google.android.material.appbar.MaterialToolbar;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Settings activity for the Camera Interceptor module
@@ -67,9 +73,17 @@ public class SettingsActivity extends AppCompatActivity {
      * Initialize default preference values
      */
     private void initDefaultPreferences() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        SharedPreferences prefs = getSharedPreferences(ModulePrefs.NAME, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
 
+        // Settings used to be saved to the default file, which the hooks never read
+        SharedPreferences legacy = PreferenceManager.getDefaultSharedPreferences(this);
+        for (Map.Entry<String, ?> entry : legacy.getAll().entrySet()) {
+            if (!prefs.contains(entry.getKey())) {
+                putValue(editor, entry.getKey(), entry.getValue());
+            }
+        }
+
         // Set defaults if they don't exist
         if (!prefs.contains("enable_module")) {
             editor.putBoolean("enable_module", true);
@@ -83,7 +97,25 @@ public class SettingsActivity extends AppCompatActivity {
             editor.putBoolean("use_custom_picker", false);
         }
 
-        editor.apply();
+        editor.commit();
+        makePrefsReadable(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        }
     }
 
     /**
@@ -139,6 +171,9 @@ public class SettingsActivity extends AppCompatActivity {
     public static class SettingsFragment extends PreferenceFragmentCompat {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+            // Store into the file the hooks read, not the default preferences file
+            getPreferenceManager().setPreferenceDataStore(new ModulePreferenceStore(requireContext()));
+
             // Load preferences from XML
             setPreferencesFromResource(R.xml.preferences, rootKey);
 
@@ -176,11 +211,124 @@ public class SettingsActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Saves settings to the module preferences file, and its device-protected
+     * copy, with a synchronous commit so the file can be made readable to
+     * hooked processes right after it is rewritten.
+     */
+    static final class ModulePreferenceStore extends PreferenceDataStore {
+        private final Context context;
+        private final SharedPreferences prefs;
+
+        ModulePreferenceStore(Context context) {
+            this.context = context.getApplicationContext();
+            this.prefs = this.context.getSharedPreferences(ModulePrefs.NAME, Context.MODE_PRIVATE);
+        }
+
+        private void save(Consumer<SharedPreferences.Editor> change) {
+            SharedPreferences.Editor editor = prefs.edit();
+            change.accept(editor);
+            editor.commit();
+
+            SharedPreferences dpPrefs = getDeviceProtectedPrefs(context);
+            if (dpPrefs != null) {
+                SharedPreferences.Editor dpEditor = dpPrefs.edit();
+                change.accept(dpEditor);
+                dpEditor.commit();
+            }
+            makePrefsReadable(context);
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            save(editor -> editor.putString(key, value));
+        }
+
+        @Override
+        public void putStringSet(String key, Set<String> values) {
+            save(editor -> editor.putStringSet(key, values));
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            save(editor -> editor.putInt(key, value));
+        }
+
+        @Override
+        public void putBoolean(String key, boolean value) {
+            save(editor -> editor.putBoolean(key, value));
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return prefs.getString(key, defValue);
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return prefs.getStringSet(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return prefs.getInt(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return prefs.getBoolean(key, defValue);
+        }
+    }
+
+    private static SharedPreferences getDeviceProtectedPrefs(Context context) {
+        try {
+            Context dp = context.getApplicationContext().createDeviceProtectedStorageContext();
+            return dp.getSharedPreferences(ModulePrefs.NAME, Context.MODE_PRIVATE);
+        } catch (Exception e) {
+            Logger.w(TAG, "Device protected prefs unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lets XSharedPreferences in hooked processes read the module preferences.
+     */
+    @SuppressWarnings({ "ResultOfMethodCallIgnored", "deprecation" })
+    static void makePrefsReadable(Context context) {
+        try {
+            File prefsDir = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+            if (prefsDir.exists()) {
+                prefsDir.setExecutable(true, false);
+                prefsDir.setReadable(true, false);
+            }
+
+            File prefsFile = new File(prefsDir, ModulePrefs.NAME + ".xml");
+            if (prefsFile.exists()) {
+                prefsFile.setReadable(true, false);
+            }
+
+            // Device-protected storage (used by XSharedPreferences on newer Android)
+            Context dp = context.getApplicationContext().createDeviceProtectedStorageContext();
+            File dpPrefsDir = new File(dp.getDataDir(), "shared_prefs");
+            if (dpPrefsDir.exists()) {
+                dpPrefsDir.setExecutable(true, false);
+                dpPrefsDir.setReadable(true, false);
+            }
+
+            File dpPrefsFile = new File(dpPrefsDir, ModulePrefs.NAME + ".xml");
+            if (dpPrefsFile.exists()) {
+                dpPrefsFile.setReadable(true, false);
+            }
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to make prefs readable: " + e.getMessage());
+        }
+    }
+
     /**
      * Get a boolean preference value
      */
     public static boolean getBooleanPreference(Context context, String key, boolean defaultValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences prefs = context.getSharedPreferences(ModulePrefs.NAME, Context.MODE_PRIVATE);
         return prefs.getBoolean(key, defaultValue);
     }
 
@@ -188,7 +336,7 @@ public class SettingsActivity extends AppCompatActivity {
      * Get a string preference value
      */
     public static String getStringPreference(Context context, String key, String defaultValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences prefs = context.getSharedPreferences(ModulePrefs.NAME, Context.MODE_PRIVATE);
         return prefs.getString(key, defaultValue);
     }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package com.camerainterceptor.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-process deadline service for hook bodies, replacing one main-looper
+ * Watchdog per frame.
+ *
+ * Deadlines live in a hashed timer wheel owned by a single daemon thread.
+ * Arming queues the deadline lock-free and cancelling is a single atomic swap,
+ * both O(1) on the calling thread; cancelled entries are dropped lazily when
+ * the wheel reaches their slot. The thread parks indefinitely while nothing is
+ * armed, so an idle process pays no wakeups and the app's main thread is never
+ * touched.
+ *
+ * Each {@link Timer} keeps a histogram of how long its guarded sections took,
+ * plus counts of deadlines that expired and sections that finished late.
+ */
+public final class DeadlineWheel {
+    private static final String TAG = "DeadlineWheel";
+    private static final long DEFAULT_TICK_MS = 10;
+    private static final int WHEEL_SIZE = 512; // Power of two; ~5s per rotation at 10ms
+
+    // Histogram bucket i counts sections that took < 2^i ms; the last is open-ended
+    static final int BUCKETS = 14;
+
+    private static final int ARMED = 0;
+    private static final int DONE = 1;
+    private static final int EXPIRED = 2;
+
+    private static volatile DeadlineWheel instance;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ConcurrentLinkedQueue<Deadline> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean idle = false;
+
+    // Wheel state, touched only by the wheel thread
+    private final Deadline[] slots = new Deadline[WHEEL_SIZE];
+    private long currentTick = 0;
+    private int active = 0;
+
+    public static DeadlineWheel get() {
+        DeadlineWheel wheel = instance;
+        if (wheel == null) {
+            synchronized (DeadlineWheel.class) {
+                wheel = instance;
+                if (wheel == null) {
+                    wheel = new DeadlineWheel(DEFAULT_TICK_MS);
+                    instance = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    DeadlineWheel(long tickMs) {
+        this.tickNanos = tickMs * 1_000_000L;
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this::run, "DeadlineWheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the timer for a hook, creating it on first use. Hooks should
+     * keep the returned instance rather than looking it up per frame.
+     */
+    public Timer timer(String name, long timeoutMs) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer(this, name, timeoutMs));
+            timer = timers.get(name);
+        }
+        return timer;
+    }
+
+    /**
+     * A named deadline with its own latency statistics.
+     */
+    public static final class Timer {
+        final DeadlineWheel wheel;
+        final String name;
+        final long timeoutMs;
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        final AtomicLong timeouts = new AtomicLong(0);
+        final AtomicLong overruns = new AtomicLong(0);
+
+        Timer(DeadlineWheel wheel, String name, long timeoutMs) {
+            this.wheel = wheel;
+            this.name = name;
+            this.timeoutMs = timeoutMs;
+        }
+
+        /**
+         * Starts a guarded section. Call {@link Deadline#cancel()} when it ends.
+         */
+        public Deadline arm() {
+            Deadline deadline = new Deadline(this, System.nanoTime());
+            wheel.schedule(deadline);
+            return deadline;
+        }
+
+        void record(long elapsedNanos) {
+            long ms = elapsedNanos / 1_000_000L;
+            int bucket = ms <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(ms), BUCKETS - 1);
+            histogram.incrementAndGet(bucket);
+        }
+
+        public long getTimeoutMs() {
+            return timeoutMs;
+        }
+
+        public long getTimeoutCount() {
+            return timeouts.get();
+        }
+
+        public long getOverrunCount() {
+            return overruns.get();
+        }
+
+        long getBucketCount(int bucket) {
+            return histogram.get(bucket);
+        }
+
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("[DEADLINE] ").append(name).append(" (").append(timeoutMs).append("ms)")
+                    .append(" timeouts=").append(timeouts.get())
+                    .append(" overruns=").append(overruns.get());
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = histogram.get(i);
+                if (count == 0)
+                    continue;
+                sb.append(" | ");
+                if (i == BUCKETS - 1) {
+                    sb.append(">=").append(1L << (i - 1));
+                } else {
+                    sb.append('<').append(1L << i);
+                }
+                sb.append("ms:").append(count);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * One armed deadline.
+     */
+    public static final class Deadline {
+        private static final AtomicIntegerFieldUpdater<Deadline> STATE = AtomicIntegerFieldUpdater
+                .newUpdater(Deadline.class, "state");
+
+        final Timer timer;
+        final long armedAtNanos;
+        private volatile int state = ARMED;
+
+        // Wheel thread only
+        Deadline next;
+        long rounds;
+
+        Deadline(Timer timer, long armedAtNanos) {
+            this.timer = timer;
+            this.armedAtNanos = armedAtNanos;
+        }
+
+        /**
+         * Ends the guarded section and records how long it took. Safe to call
+         * more than once; only the first call counts.
+         */
+        public void cancel() {
+            int previous = STATE.getAndSet(this, DONE);
+            if (previous == DONE)
+                return;
+            timer.record(System.nanoTime() - armedAtNanos);
+            if (previous == EXPIRED) {
+                timer.overruns.incrementAndGet();
+            }
+        }
+
+        boolean expire() {
+            return STATE.compareAndSet(this, ARMED, EXPIRED);
+        }
+
+        boolean isDone() {
+            return state == DONE;
+        }
+    }
+
+    private void schedule(Deadline deadline) {
+        pending.add(deadline);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+                if (active == 0) {
+                    // Nothing in the wheel: skip the empty ticks
+                    currentTick = Math.max(currentTick, nowTick);
+                }
+
+                drainPending();
+                while (currentTick < nowTick) {
+                    currentTick++;
+                    expireSlot(currentTick);
+                }
+
+                if (active == 0) {
+                    idle = true;
+                    if (pending.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    long wait = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+            } catch (Throwable t) {
+                Logger.e(TAG, "Error in deadline wheel: " + t.getMessage());
+            }
+        }
+    }
+
+    private void drainPending() {
+        Deadline deadline;
+        while ((deadline = pending.poll()) != null) {
+            if (deadline.isDone())
+                continue;
+            long timeoutNanos = deadline.timer.timeoutMs * 1_000_000L;
+            long deadlineTick = (deadline.armedAtNanos + timeoutNanos - startNanos + tickNanos - 1) / tickNanos;
+            long target = Math.max(deadlineTick, currentTick + 1);
+            deadline.rounds = (target - currentTick - 1) / WHEEL_SIZE;
+
+            int slot = (int) (target & (WHEEL_SIZE - 1));
+            deadline.next = slots[slot];
+            slots[slot] = deadline;
+            active++;
+        }
+    }
+
+    private void expireSlot(long tick) {
+        int slot = (int) (tick & (WHEEL_SIZE - 1));
+        Deadline kept = null;
+        Deadline deadline = slots[slot];
+        while (deadline != null) {
+            Deadline next = deadline.next;
+            if (deadline.isDone()) {
+                active--;
+            } else if (deadline.rounds > 0) {
+                deadline.rounds--;
+                deadline.next = kept;
+                kept = deadline;
+            } else {
+                active--;
+                if (deadline.expire()) {
+                    onExpired(deadline);
+                }
+            }
+            deadline = next;
+        }
+        slots[slot] = kept;
+    }
+
+    private void onExpired(Deadline deadline) {
+        Timer timer = deadline.timer;
+        timer.timeouts.incrementAndGet();
+        Logger.e(TAG, "DEADLINE EXCEEDED: '" + timer.name + "' still running after " + timer.timeoutMs + "ms");
+        Logger.i(TAG, timer.describe());
+    }
+
+    /**
+     * Logs the latency histogram of every timer.
+     */
+    public void logStats() {
+        for (Timer timer : timers.values()) {
+            Logger.i(TAG, timer.describe());
+        }
+    }
+}
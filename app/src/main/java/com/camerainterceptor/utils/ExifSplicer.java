@@ -0,0 +1,509 @@
+package com.camerainterceptor.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stamps camera EXIF metadata onto a JPEG without decoding or re-encoding it.
+ *
+ * A binary APP1 segment is built once per device profile (make, model, lens
+ * and whether GPS is present) with every IFD laid out and the offsets of the
+ * per-shot fields recorded. Stamping a shot copies that template, patches the
+ * timestamps, dimensions, orientation, exposure, ISO, flash and GPS values in
+ * place, and writes it right after SOI. Any Exif APP1 the JPEG already had,
+ * including one after a JFIF APP0, is dropped and the rest is written through
+ * untouched.
+ *
+ * Every JPEG the hooks inject goes through here on its way to the app: into
+ * an image buffer, a stream, or, via {@link FileTransfer}, a file.
+ */
+public final class ExifSplicer {
+    private static final String TAG = "ExifSplicer";
+
+    // TIFF field types
+    private static final int BYTE = 1;
+    private static final int ASCII = 2;
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int RATIONAL = 5;
+    private static final int UNDEFINED = 7;
+
+    // FF E1, length, "Exif\0\0"; TIFF offsets count from here
+    private static final int TIFF_START = 10;
+    private static final int DATE_LENGTH = 20; // "yyyy:MM:dd HH:mm:ss\0"
+
+    private static final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Calendar> calendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return Calendar.getInstance();
+        }
+    };
+
+    private ExifSplicer() {
+    }
+
+    /**
+     * An APP1 segment for one device profile, with the positions of the
+     * fields that change per shot.
+     */
+    static final class Template {
+        byte[] segment;
+        Entry width, height, pixelX, pixelY, orientation;
+        Entry dateTime, dateTimeOriginal, dateTimeDigitized;
+        Entry exposureTime, iso, flash;
+        Entry latitudeRef, latitude, longitudeRef, longitude, altitudeRef, altitude; // Null without GPS
+    }
+
+    /**
+     * Writes the JPEG to the stream with the metadata's APP1 segment after
+     * SOI, replacing any Exif segment it had.
+     *
+     * @return Number of bytes written
+     */
+    public static long splice(byte[] jpeg, ImageUtils.ImageMetadata metadata, OutputStream out) throws IOException {
+        int[] exif = findExif(jpeg);
+        byte[] segment = buildSegment(metadata, jpeg);
+        out.write(jpeg, 0, 2);
+        out.write(segment, 0, segment.length);
+        long written = 2 + segment.length;
+        int pos = 2;
+        for (int i = 0; i < exif.length; i += 2) {
+            out.write(jpeg, pos, exif[i] - pos);
+            written += exif[i] - pos;
+            pos = exif[i + 1];
+        }
+        out.write(jpeg, pos, jpeg.length - pos);
+        return written + jpeg.length - pos;
+    }
+
+    /**
+     * Returns the JPEG with the metadata's APP1 segment after SOI, replacing
+     * any Exif segment it had.
+     */
+    public static byte[] splice(byte[] jpeg, ImageUtils.ImageMetadata metadata) {
+        int[] exif = findExif(jpeg);
+        byte[] segment = buildSegment(metadata, jpeg);
+        int dropped = 0;
+        for (int i = 0; i < exif.length; i += 2) {
+            dropped += exif[i + 1] - exif[i];
+        }
+        byte[] result = new byte[segment.length + jpeg.length - dropped];
+        result[0] = (byte) 0xFF;
+        result[1] = (byte) 0xD8;
+        System.arraycopy(segment, 0, result, 2, segment.length);
+        int out = 2 + segment.length;
+        int pos = 2;
+        for (int i = 0; i < exif.length; i += 2) {
+            System.arraycopy(jpeg, pos, result, out, exif[i] - pos);
+            out += exif[i] - pos;
+            pos = exif[i + 1];
+        }
+        System.arraycopy(jpeg, pos, result, out, jpeg.length - pos);
+        return result;
+    }
+
+    /**
+     * Writes the JPEG into the buffer from its start with a segment from
+     * {@link #buildSegment} after SOI, replacing any Exif segment it had, and
+     * sets the limit to what was written.
+     *
+     * @return Number of bytes written
+     * @throws java.nio.BufferOverflowException if the result does not fit
+     */
+    public static int splice(byte[] jpeg, byte[] segment, ByteBuffer target) {
+        int[] exif = findExif(jpeg);
+        target.clear();
+        target.put(jpeg, 0, 2);
+        target.put(segment);
+        int pos = 2;
+        for (int i = 0; i < exif.length; i += 2) {
+            target.put(jpeg, pos, exif[i] - pos);
+            pos = exif[i + 1];
+        }
+        target.put(jpeg, pos, jpeg.length - pos);
+        target.limit(target.position());
+        return target.position();
+    }
+
+    /**
+     * The APP1 segment for a shot of this JPEG. Dimensions the metadata
+     * leaves at 0 are filled in from the JPEG's frame header.
+     */
+    public static byte[] buildSegment(ImageUtils.ImageMetadata metadata, byte[] jpeg) {
+        if (metadata.width <= 0 || metadata.height <= 0) {
+            int[] size = frameSize(jpeg);
+            if (size != null) {
+                metadata.width = size[0];
+                metadata.height = size[1];
+            }
+        }
+        return buildSegment(metadata);
+    }
+
+    /**
+     * The APP1 segment (marker included) for one shot.
+     */
+    public static byte[] buildSegment(ImageUtils.ImageMetadata metadata) {
+        boolean gps = metadata.latitude != null && metadata.longitude != null;
+        String key = metadata.make + '\u0000' + metadata.model + '\u0000' + metadata.focalLength + '\u0000'
+                + metadata.aperture + '\u0000' + gps;
+        Template template = templates.get(key);
+        if (template == null) {
+            template = buildTemplate(metadata, gps);
+            templates.putIfAbsent(key, template);
+            Logger.d(TAG, "Built EXIF template for " + metadata.make + " " + metadata.model + " ("
+                    + template.segment.length + " bytes)");
+        }
+
+        byte[] segment = template.segment.clone();
+        putLong(segment, template.width.position, metadata.width);
+        putLong(segment, template.height.position, metadata.height);
+        putLong(segment, template.pixelX.position, metadata.width);
+        putLong(segment, template.pixelY.position, metadata.height);
+        putShort(segment, template.orientation.position, metadata.orientation > 0 ? metadata.orientation : 1);
+        putShort(segment, template.iso.position, parseInt(metadata.iso, 100));
+        putShort(segment, template.flash.position, parseInt(metadata.flash, 0));
+        putRational(segment, template.exposureTime.position, metadata.exposureTime, 1, 100);
+
+        putDate(segment, template.dateTime.position, metadata.timestamp != null ? metadata.timestamp.getTime()
+                : System.currentTimeMillis());
+        int date = template.dateTime.position;
+        System.arraycopy(segment, date, segment, template.dateTimeOriginal.position, DATE_LENGTH);
+        System.arraycopy(segment, date, segment, template.dateTimeDigitized.position, DATE_LENGTH);
+
+        if (template.latitude != null) {
+            double latitude = metadata.latitude;
+            double longitude = metadata.longitude;
+            segment[template.latitudeRef.position] = (byte) (latitude >= 0 ? 'N' : 'S');
+            segment[template.longitudeRef.position] = (byte) (longitude >= 0 ? 'E' : 'W');
+            putDegrees(segment, template.latitude.position, Math.abs(latitude));
+            putDegrees(segment, template.longitude.position, Math.abs(longitude));
+            float altitude = metadata.altitude != null ? metadata.altitude : 0f;
+            segment[template.altitudeRef.position] = (byte) (altitude < 0 ? 1 : 0);
+            putLong(segment, template.altitude.position, Math.round(Math.abs(altitude) * 100));
+            putLong(segment, template.altitude.position + 4, 100);
+        }
+        return segment;
+    }
+
+    /**
+     * Start and end offsets, in pairs, of every Exif APP1 segment among the
+     * marker segments before the image data. Other segments, such as a JFIF
+     * APP0 in front of the Exif one, are not included. The array may hold
+     * just the start of a JPEG, as long as it covers those segments.
+     */
+    public static int[] findExif(byte[] jpeg) {
+        if (!isJpeg(jpeg))
+            throw new IllegalArgumentException("Not a JPEG");
+        int[] found = new int[0];
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xDA || marker == 0xD9 || marker == 0xFF || marker == 0x00)
+                break; // Image data follows, or not a segment
+            int end = pos + 2 + (((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF));
+            if (end > jpeg.length)
+                break;
+            if (marker == 0xE1 && pos + 10 <= end && jpeg[pos + 4] == 'E' && jpeg[pos + 5] == 'x'
+                    && jpeg[pos + 6] == 'i' && jpeg[pos + 7] == 'f' && jpeg[pos + 8] == 0 && jpeg[pos + 9] == 0) {
+                found = Arrays.copyOf(found, found.length + 2);
+                found[found.length - 2] = pos;
+                found[found.length - 1] = end;
+            }
+            pos = end;
+        }
+        return found;
+    }
+
+    /**
+     * True if the data starts with a JPEG SOI marker.
+     */
+    public static boolean isJpeg(byte[] data) {
+        return data != null && data.length >= 4 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8;
+    }
+
+    /**
+     * Offset of the first byte after the marker segments, i.e. of SOS or EOI,
+     * or -1 if the array ends before the segments do.
+     */
+    public static int headerLength(byte[] jpeg) {
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xDA || marker == 0xD9 || marker == 0xFF || marker == 0x00)
+                return pos;
+            pos += 2 + u16(jpeg, pos + 2);
+        }
+        return pos + 4 <= jpeg.length ? pos : -1;
+    }
+
+    /**
+     * Width and height from the frame header (SOFn), or null if there is
+     * none before the image data.
+     */
+    static int[] frameSize(byte[] jpeg) {
+        int pos = 2;
+        while (pos + 9 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xDA || marker == 0xD9 || marker == 0xFF || marker == 0x00)
+                break;
+            // C4 (DHT), C8 (JPG) and CC (DAC) share the range but are not frames
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                return new int[] { u16(jpeg, pos + 7), u16(jpeg, pos + 5) };
+            }
+            pos += 2 + u16(jpeg, pos + 2);
+        }
+        return null;
+    }
+
+    private static int u16(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static Template buildTemplate(ImageUtils.ImageMetadata metadata, boolean gps) {
+        Template t = new Template();
+        Ifd ifd0 = new Ifd();
+        t.width = ifd0.add(0x0100, LONG, 1, new byte[4]);
+        t.height = ifd0.add(0x0101, LONG, 1, new byte[4]);
+        if (metadata.make != null)
+            ifd0.add(0x010F, ASCII, ascii(metadata.make));
+        if (metadata.model != null)
+            ifd0.add(0x0110, ASCII, ascii(metadata.model));
+        t.orientation = ifd0.add(0x0112, SHORT, 1, new byte[2]);
+        t.dateTime = ifd0.add(0x0132, ASCII, DATE_LENGTH, new byte[DATE_LENGTH]);
+        Entry exifPointer = ifd0.add(0x8769, LONG, 1, new byte[4]);
+        Entry gpsPointer = gps ? ifd0.add(0x8825, LONG, 1, new byte[4]) : null;
+
+        Ifd exif = new Ifd();
+        t.exposureTime = exif.add(0x829A, RATIONAL, 1, new byte[8]);
+        if (metadata.aperture != null)
+            exif.add(0x829D, RATIONAL, 1, rational(metadata.aperture));
+        t.iso = exif.add(0x8827, SHORT, 1, new byte[2]);
+        exif.add(0x9000, UNDEFINED, 4, "0230".getBytes(StandardCharsets.US_ASCII));
+        t.dateTimeOriginal = exif.add(0x9003, ASCII, DATE_LENGTH, new byte[DATE_LENGTH]);
+        t.dateTimeDigitized = exif.add(0x9004, ASCII, DATE_LENGTH, new byte[DATE_LENGTH]);
+        t.flash = exif.add(0x9209, SHORT, 1, new byte[2]);
+        if (metadata.focalLength != null)
+            exif.add(0x920A, RATIONAL, 1, rational(metadata.focalLength));
+        t.pixelX = exif.add(0xA002, LONG, 1, new byte[4]);
+        t.pixelY = exif.add(0xA003, LONG, 1, new byte[4]);
+
+        Ifd gpsIfd = null;
+        if (gps) {
+            gpsIfd = new Ifd();
+            gpsIfd.add(0x0000, BYTE, 4, new byte[] { 2, 2, 0, 0 });
+            t.latitudeRef = gpsIfd.add(0x0001, ASCII, 2, new byte[2]);
+            t.latitude = gpsIfd.add(0x0002, RATIONAL, 3, new byte[24]);
+            t.longitudeRef = gpsIfd.add(0x0003, ASCII, 2, new byte[2]);
+            t.longitude = gpsIfd.add(0x0004, RATIONAL, 3, new byte[24]);
+            t.altitudeRef = gpsIfd.add(0x0005, BYTE, 1, new byte[1]);
+            t.altitude = gpsIfd.add(0x0006, RATIONAL, 1, new byte[8]);
+        }
+
+        // TIFF header is 8 bytes; the IFDs follow one after another
+        int ifd0Offset = 8;
+        int exifOffset = ifd0Offset + ifd0.length();
+        int gpsOffset = exifOffset + exif.length();
+        int tiffLength = gpsOffset + (gpsIfd != null ? gpsIfd.length() : 0);
+        putLong(exifPointer.value, 0, exifOffset);
+        if (gpsPointer != null)
+            putLong(gpsPointer.value, 0, gpsOffset);
+
+        byte[] segment = new byte[TIFF_START + tiffLength];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) 0xE1;
+        putShort(segment, 2, segment.length - 2);
+        System.arraycopy("Exif".getBytes(StandardCharsets.US_ASCII), 0, segment, 4, 4);
+        segment[TIFF_START] = 'M';
+        segment[TIFF_START + 1] = 'M';
+        putShort(segment, TIFF_START + 2, 0x2A);
+        putLong(segment, TIFF_START + 4, ifd0Offset);
+        ifd0.write(segment, ifd0Offset);
+        exif.write(segment, exifOffset);
+        if (gpsIfd != null)
+            gpsIfd.write(segment, gpsOffset);
+
+        t.segment = segment;
+        return t;
+    }
+
+    static final class Entry {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+        int position; // Of the value bytes, within the segment
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One image file directory. Entries must be added in tag order.
+     */
+    private static final class Ifd {
+        final List<Entry> entries = new ArrayList<>();
+
+        Entry add(int tag, int type, int count, byte[] value) {
+            Entry entry = new Entry(tag, type, count, value);
+            entries.add(entry);
+            return entry;
+        }
+
+        Entry add(int tag, int type, byte[] value) {
+            return add(tag, type, value.length, value);
+        }
+
+        int length() {
+            int length = 2 + entries.size() * 12 + 4;
+            for (Entry entry : entries) {
+                if (entry.value.length > 4)
+                    length += (entry.value.length + 1) & ~1; // Offsets must be even
+            }
+            return length;
+        }
+
+        void write(byte[] segment, int offset) {
+            int pos = TIFF_START + offset;
+            int data = offset + 2 + entries.size() * 12 + 4;
+            putShort(segment, pos, entries.size());
+            pos += 2;
+            for (Entry entry : entries) {
+                putShort(segment, pos, entry.tag);
+                putShort(segment, pos + 2, entry.type);
+                putLong(segment, pos + 4, entry.count);
+                if (entry.value.length <= 4) {
+                    entry.position = pos + 8;
+                } else {
+                    putLong(segment, pos + 8, data);
+                    entry.position = TIFF_START + data;
+                    data += (entry.value.length + 1) & ~1;
+                }
+                System.arraycopy(entry.value, 0, segment, entry.position, entry.value.length);
+                pos += 12;
+            }
+            // Next-IFD offset stays 0
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] terminated = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, terminated, 0, bytes.length);
+        return terminated;
+    }
+
+    /**
+     * A RATIONAL from "n/d" or a decimal such as "1.8".
+     */
+    private static byte[] rational(String value) {
+        byte[] bytes = new byte[8];
+        putRational(bytes, 0, value, 0, 1);
+        return bytes;
+    }
+
+    private static void putRational(byte[] b, int pos, String value, long defaultNumerator,
+            long defaultDenominator) {
+        long numerator = defaultNumerator;
+        long denominator = defaultDenominator;
+        if (value != null) {
+            try {
+                int slash = value.indexOf('/');
+                if (slash >= 0) {
+                    numerator = Long.parseLong(value.substring(0, slash).trim());
+                    denominator = Long.parseLong(value.substring(slash + 1).trim());
+                } else {
+                    numerator = Math.round(Double.parseDouble(value) * 1000);
+                    denominator = 1000;
+                    while (denominator > 1 && numerator % 10 == 0) {
+                        numerator /= 10;
+                        denominator /= 10;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                numerator = defaultNumerator;
+                denominator = defaultDenominator;
+            }
+        }
+        putLong(b, pos, numerator);
+        putLong(b, pos + 4, denominator);
+    }
+
+    /**
+     * Degrees, minutes and seconds (to 1/1000") as three RATIONALs.
+     */
+    private static void putDegrees(byte[] b, int pos, double value) {
+        long degrees = (long) value;
+        double minutesExact = (value - degrees) * 60;
+        long minutes = (long) minutesExact;
+        long seconds = Math.round((minutesExact - minutes) * 60 * 1000);
+        putLong(b, pos, degrees);
+        putLong(b, pos + 4, 1);
+        putLong(b, pos + 8, minutes);
+        putLong(b, pos + 12, 1);
+        putLong(b, pos + 16, seconds);
+        putLong(b, pos + 20, 1000);
+    }
+
+    /**
+     * Writes "yyyy:MM:dd HH:mm:ss\0" in local time without formatting a String.
+     */
+    private static void putDate(byte[] b, int pos, long timeMillis) {
+        Calendar c = calendar.get();
+        c.setTimeInMillis(timeMillis);
+        putDigits(b, pos, c.get(Calendar.YEAR), 4);
+        b[pos + 4] = ':';
+        putDigits(b, pos + 5, c.get(Calendar.MONTH) + 1, 2);
+        b[pos + 7] = ':';
+        putDigits(b, pos + 8, c.get(Calendar.DAY_OF_MONTH), 2);
+        b[pos + 10] = ' ';
+        putDigits(b, pos + 11, c.get(Calendar.HOUR_OF_DAY), 2);
+        b[pos + 13] = ':';
+        putDigits(b, pos + 14, c.get(Calendar.MINUTE), 2);
+        b[pos + 16] = ':';
+        putDigits(b, pos + 17, c.get(Calendar.SECOND), 2);
+        b[pos + 19] = 0;
+    }
+
+    private static void putDigits(byte[] b, int pos, int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            b[pos + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void putShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >> 8);
+        b[pos + 1] = (byte) value;
+    }
+
+    private static void putLong(byte[] b, int pos, long value) {
+        b[pos] = (byte) (value >> 24);
+        b[pos + 1] = (byte) (value >> 16);
+        b[pos + 2] = (byte) (value >> 8);
+        b[pos + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,183 @@
+package com.camerainterceptor.utils;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Channel-based copies of the injected image to wherever the app wants it.
+ * File-to-file copies use FileChannel.transferTo, which the kernel can do
+ * without the data passing through the Java heap.
+ */
+public class FileTransfer {
+    private static final String TAG = "FileTransfer";
+    // Enough for the marker segments of most camera JPEGs, thumbnail included
+    private static final int HEADER_READ_BYTES = 64 * 1024;
+
+    /**
+     * Copies a whole file into a channel at its current position.
+     *
+     * @return Number of bytes copied
+     */
+    public static long copy(File source, WritableByteChannel target) throws IOException {
+        try (FileInputStream in = new FileInputStream(source)) {
+            FileChannel channel = in.getChannel();
+            return transfer(channel, 0, channel.size(), target);
+        }
+    }
+
+    /**
+     * Copies a JPEG file into a channel at its current position with the
+     * metadata's Exif segment spliced in after SOI. Only the marker segments
+     * are read onto the heap; the image data is still copied by transferTo.
+     * Without metadata the file is copied as it is.
+     *
+     * @return Number of bytes written
+     */
+    public static long copy(File source, ImageUtils.ImageMetadata metadata, WritableByteChannel target)
+            throws IOException {
+        if (metadata == null)
+            return copy(source, target);
+        try (FileInputStream in = new FileInputStream(source)) {
+            FileChannel channel = in.getChannel();
+            byte[] head = readHeader(channel);
+            if (!ExifSplicer.isJpeg(head))
+                return transfer(channel, 0, channel.size(), target);
+
+            int[] exif = ExifSplicer.findExif(head);
+            long written = writeFully(ByteBuffer.wrap(head, 0, 2), target)
+                    + writeFully(ByteBuffer.wrap(ExifSplicer.buildSegment(metadata, head)), target);
+            long pos = 2;
+            for (int i = 0; i < exif.length; i += 2) {
+                written += transfer(channel, pos, exif[i] - pos, target);
+                pos = exif[i + 1];
+            }
+            return written + transfer(channel, pos, channel.size() - pos, target);
+        }
+    }
+
+    /**
+     * Copies a whole file into an OutputStream. File streams are written
+     * through their channel; other streams are flushed but not closed.
+     */
+    public static long copy(File source, OutputStream target) throws IOException {
+        return copy(source, null, target);
+    }
+
+    /**
+     * Like {@link #copy(File, OutputStream)}, splicing in the metadata's Exif
+     * segment when it is not null.
+     */
+    public static long copy(File source, ImageUtils.ImageMetadata metadata, OutputStream target)
+            throws IOException {
+        if (target instanceof FileOutputStream) {
+            return copy(source, metadata, ((FileOutputStream) target).getChannel());
+        }
+        long copied = copy(source, metadata, Channels.newChannel(target));
+        target.flush();
+        return copied;
+    }
+
+    /**
+     * Copies a whole file into a file descriptor opened for writing,
+     * truncating anything beyond the copied data.
+     */
+    public static long copy(File source, FileDescriptor target) throws IOException {
+        return copy(source, null, target);
+    }
+
+    /**
+     * Like {@link #copy(File, FileDescriptor)}, splicing in the metadata's
+     * Exif segment when it is not null.
+     */
+    public static long copy(File source, ImageUtils.ImageMetadata metadata, FileDescriptor target)
+            throws IOException {
+        // Not closed: the descriptor belongs to the caller
+        FileChannel channel = new FileOutputStream(target).getChannel();
+        channel.position(0);
+        long copied = copy(source, metadata, channel);
+        channel.truncate(copied);
+        return copied;
+    }
+
+    /**
+     * Writes a whole array into a file descriptor opened for writing,
+     * replacing anything already there.
+     */
+    public static long write(byte[] data, FileDescriptor target) throws IOException {
+        return write(data, null, target);
+    }
+
+    /**
+     * Like {@link #write(byte[], FileDescriptor)}, splicing the metadata's
+     * Exif segment into a JPEG when the metadata is not null.
+     */
+    public static long write(byte[] data, ImageUtils.ImageMetadata metadata, FileDescriptor target)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        FileChannel channel = out.getChannel();
+        channel.position(0);
+        long written;
+        if (metadata != null && ExifSplicer.isJpeg(data)) {
+            written = ExifSplicer.splice(data, metadata, out);
+        } else {
+            written = writeFully(ByteBuffer.wrap(data), channel);
+        }
+        channel.truncate(written);
+        return written;
+    }
+
+    private static long transfer(FileChannel source, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long end = position + count;
+        long pos = position;
+        while (pos < end) {
+            long transferred = source.transferTo(pos, end - pos, target);
+            if (transferred <= 0) {
+                break;
+            }
+            pos += transferred;
+        }
+        if (pos != end) {
+            throw new IOException("Short copy: " + (pos - position) + " of " + count + " bytes");
+        }
+        return count;
+    }
+
+    private static long writeFully(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return length;
+    }
+
+    /**
+     * The start of a file up to its image data, growing the read until every
+     * marker segment is in. A file that ends first is returned whole.
+     */
+    private static byte[] readHeader(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int length = (int) Math.min(size, HEADER_READ_BYTES);
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                // Positional reads leave the channel where it was
+            }
+            byte[] head = buffer.position() == length ? buffer.array()
+                    : Arrays.copyOf(buffer.array(), buffer.position());
+            if (head.length < length || length >= size || !ExifSplicer.isJpeg(head)
+                    || ExifSplicer.headerLength(head) >= 0)
+                return head;
+            length = (int) Math.min(size, (long) length * 2);
+        }
+    }
+}
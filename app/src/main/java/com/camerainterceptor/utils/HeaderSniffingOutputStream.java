@@ -0,0 +1,149 @@
+package com.camerainterceptor.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Wraps an image output stream and decides from its first 8 bytes whether to
+ * replace the whole image.
+ *
+ * The header is collected in a fixed 8-byte array, however the app splits its
+ * writes. If it is a JPEG or PNG and the {@link Source} supplies replacement
+ * bytes, those are written and every original byte after is dropped;
+ * otherwise the header and everything after pass straight through. Nothing
+ * beyond the header is ever retained.
+ */
+public class HeaderSniffingOutputStream extends FilterOutputStream {
+    private static final int HEADER_SIZE = 8;
+
+    private static final int SNIFFING = 0;
+    private static final int PASSING = 1;
+    private static final int INJECTED = 2;
+
+    /**
+     * Supplies the replacement for a detected image.
+     */
+    public interface Source {
+        /**
+         * @param format "JPEG" or "PNG"
+         * @return Bytes to write instead of the image, or null to keep it
+         */
+        byte[] replacementFor(String format);
+    }
+
+    /**
+     * Writes a replacement to the wrapped stream, e.g. with metadata added.
+     */
+    public interface Writer {
+        void write(byte[] replacement, OutputStream out) throws IOException;
+    }
+
+    private final Source source;
+    private final Writer writer;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerLength = 0;
+    private int state = SNIFFING;
+    private long dropped = 0;
+
+    public HeaderSniffingOutputStream(OutputStream out, Source source) {
+        this(out, source, (replacement, target) -> target.write(replacement, 0, replacement.length));
+    }
+
+    public HeaderSniffingOutputStream(OutputStream out, Source source, Writer writer) {
+        super(out);
+        this.source = source;
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (state == PASSING) {
+            out.write(b);
+        } else if (state == INJECTED) {
+            dropped++;
+        } else {
+            header[headerLength++] = (byte) b;
+            if (headerLength == HEADER_SIZE) {
+                decide();
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (state == PASSING) {
+            out.write(b, off, len);
+            return;
+        }
+        if (state == INJECTED) {
+            dropped += len;
+            return;
+        }
+
+        int taken = Math.min(HEADER_SIZE - headerLength, len);
+        System.arraycopy(b, off, header, headerLength, taken);
+        headerLength += taken;
+        if (headerLength < HEADER_SIZE)
+            return;
+
+        decide();
+        if (taken < len) {
+            write(b, off + taken, len - taken);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (state == SNIFFING && headerLength > 0) {
+            // Too short to be an image
+            state = PASSING;
+            out.write(header, 0, headerLength);
+        }
+        super.close();
+    }
+
+    private void decide() throws IOException {
+        String format = imageFormat(header);
+        byte[] replacement = format != null ? source.replacementFor(format) : null;
+        if (replacement != null) {
+            state = INJECTED;
+            dropped = HEADER_SIZE;
+            writer.write(replacement, out);
+        } else {
+            state = PASSING;
+            out.write(header, 0, HEADER_SIZE);
+        }
+    }
+
+    /**
+     * True once the image has been replaced.
+     */
+    public boolean isInjected() {
+        return state == INJECTED;
+    }
+
+    /**
+     * Original bytes dropped after a replacement.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * "JPEG" or "PNG" for a matching 8-byte header, else null.
+     */
+    static String imageFormat(byte[] h) {
+        if ((h[0] & 0xFF) == 0xFF && (h[1] & 0xFF) == 0xD8 && (h[2] & 0xFF) == 0xFF)
+            return "JPEG";
+        if ((h[0] & 0xFF) == 0x89 && h[1] == 'P' && h[2] == 'N' && h[3] == 'G'
+                && h[4] == 0x0D && h[5] == 0x0A && h[6] == 0x1A && h[7] == 0x0A)
+            return "PNG";
+        return null;
+    }
+}
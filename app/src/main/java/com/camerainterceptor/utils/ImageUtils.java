@@ -7,15 +7,13 @@ import android.graphics.Matrix;
 import android.location.Location;
 import android.media.ExifInterface;
 import android.net.Uri;
-import android.os.Build;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Utility class for image processing and metadata manipulation
@@ -23,6 +21,26 @@ import java.util.Random;
 public class ImageUtils {
     private static final String TAG = "ImageUtils";
 
+    private static final ThreadLocal<SimpleDateFormat> LOG_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        }
+    };
+
+    // Common device manufacturers and models
+    private static final String[][] DEVICE_INFO = {
+        {"Samsung", "Galaxy S23 Ultra"},
+        {"Apple", "iPhone 15 Pro"},
+        {"Google", "Pixel 7 Pro"},
+        {"Xiaomi", "Mi 13 Pro"},
+        {"OnePlus", "10 Pro"},
+        {"Sony", "Xperia 1 IV"}
+    };
+    private static final String[] FOCAL_LENGTHS = {"4.2", "4.7", "5.1", "6.1", "7.2"};
+    private static final String[] APERTURES = {"1.5", "1.7", "1.8", "2.0", "2.2"};
+    private static final int[] ISO_VALUES = {50, 100, 200, 400, 800, 1600, 3200};
+
     /**
      * Class to hold image metadata
      */
@@ -44,7 +62,7 @@ public class ImageUtils {
         
         @Override
         public String toString() {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            SimpleDateFormat sdf = LOG_DATE_FORMAT.get();
             StringBuilder sb = new StringBuilder();
             sb.append("ImageMetadata{");
             sb.append("timestamp=").append(timestamp != null ? sdf.format(timestamp) : "null");
@@ -157,103 +175,38 @@ public class ImageUtils {
      */
     private static byte[] applyExifMetadata(byte[] jpegData, ImageMetadata metadata) {
         try {
-            // For API level >= 24, we can use ExifInterface with byte array
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                return applyExifMetadataApi24(jpegData, metadata);
-            } else {
-                // For older APIs, we need to write to a temporary file
-                // which is more complex, but for this module we'll assume API >= 24
-                Logger.w(TAG, "Device API level too low for direct EXIF manipulation, skipping EXIF");
-                return jpegData;
-            }
+            return ExifSplicer.splice(jpegData, metadata);
         } catch (Exception e) {
             Logger.e(TAG, "Error applying EXIF metadata: " + e.getMessage());
             Logger.logStackTrace(TAG, e);
             return jpegData; // Return original data if we fail
         }
     }
-
+    
     /**
-     * Apply EXIF metadata using API level 24+ methods
+     * Metadata for one shot from a camera profile: the profile's device and
+     * exposure values, taken now, at the given size (0 to take it from the
+     * JPEG when stamped).
      */
-    private static byte[] applyExifMetadataApi24(byte[] jpegData, ImageMetadata metadata) throws IOException {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            return jpegData;
-        }
-        
-        // Create ExifInterface from byte array
-        androidx.exifinterface.media.ExifInterface exif = new androidx.exifinterface.media.ExifInterface(
-                new ByteArrayInputStream(jpegData));
-        
-        // Set basic EXIF attributes
-        if (metadata.timestamp != null) {
-            String datetime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(metadata.timestamp);
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_DATETIME, datetime);
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_DATETIME_ORIGINAL, datetime);
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_DATETIME_DIGITIZED, datetime);
-        }
-        
-        exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(metadata.width));
-        exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_IMAGE_LENGTH, String.valueOf(metadata.height));
-        
-        if (metadata.make != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_MAKE, metadata.make);
-        }
-        
-        if (metadata.model != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_MODEL, metadata.model);
-        }
-        
-        if (metadata.orientation != 0) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_ORIENTATION, 
-                    String.valueOf(metadata.orientation));
-        }
-        
-        if (metadata.flash != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_FLASH, metadata.flash);
-        }
-        
-        if (metadata.focalLength != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_FOCAL_LENGTH, metadata.focalLength);
-        }
-        
-        if (metadata.exposureTime != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_EXPOSURE_TIME, metadata.exposureTime);
-        }
-        
-        if (metadata.aperture != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_APERTURE_VALUE, metadata.aperture);
-        }
-        
-        if (metadata.iso != null) {
-            exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_ISO_SPEED_RATINGS, metadata.iso);
-        }
-        
-        // Set GPS information if available
-        if (metadata.latitude != null && metadata.longitude != null) {
-            exif.setLatLong(metadata.latitude, metadata.longitude);
-            
-            if (metadata.altitude != null) {
-                exif.setAttribute(androidx.exifinterface.media.ExifInterface.TAG_GPS_ALTITUDE, 
-                        String.valueOf(metadata.altitude));
-            }
-        }
-        
-        // Write the updated EXIF to a new byte array
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        exif.saveAttributes();
-        
-        // Since we can't directly get the byte array with EXIF data, 
-        // we need to use reflection to access the private mThumbnailBytes field
-        // This is a bit hacky, but necessary to avoid writing to a file
-        
-        // For simplicity in this example, we'll return the original JPEG data
-        // In a real implementation, you would use a more robust method to get
-        // the updated JPEG data with EXIF
-        
-        return jpegData;
+    public static ImageMetadata forShot(ImageMetadata profile, int width, int height) {
+        ImageMetadata shot = new ImageMetadata();
+        shot.timestamp = new Date();
+        shot.width = width;
+        shot.height = height;
+        shot.orientation = profile.orientation;
+        shot.make = profile.make;
+        shot.model = profile.model;
+        shot.flash = profile.flash;
+        shot.focalLength = profile.focalLength;
+        shot.exposureTime = profile.exposureTime;
+        shot.aperture = profile.aperture;
+        shot.iso = profile.iso;
+        shot.latitude = profile.latitude;
+        shot.longitude = profile.longitude;
+        shot.altitude = profile.altitude;
+        return shot;
     }
-    
+
     /**
      * Create fake but realistic metadata for an image that looks like it came from a camera
      */
@@ -266,34 +219,20 @@ public class ImageUtils {
         // Default orientation (normal)
         metadata.orientation = ExifInterface.ORIENTATION_NORMAL;
         
-        // Common device manufacturers and models
-        String[][] deviceInfo = {
-            {"Samsung", "Galaxy S23 Ultra"},
-            {"Apple", "iPhone 15 Pro"},
-            {"Google", "Pixel 7 Pro"},
-            {"Xiaomi", "Mi 13 Pro"},
-            {"OnePlus", "10 Pro"},
-            {"Sony", "Xperia 1 IV"}
-        };
-        
         // Pick a random device
-        Random random = new Random();
-        int deviceIndex = random.nextInt(deviceInfo.length);
-        metadata.make = deviceInfo[deviceIndex][0];
-        metadata.model = deviceInfo[deviceIndex][1];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int deviceIndex = random.nextInt(DEVICE_INFO.length);
+        metadata.make = DEVICE_INFO[deviceIndex][0];
+        metadata.model = DEVICE_INFO[deviceIndex][1];
         
         // Camera parameters
         if ("Apple".equals(metadata.make)) {
             metadata.focalLength = "6.06";
             metadata.aperture = "1.8";
         } else {
-            // Common focal lengths for smartphone cameras
-            String[] focalLengths = {"4.2", "4.7", "5.1", "6.1", "7.2"};
-            metadata.focalLength = focalLengths[random.nextInt(focalLengths.length)];
-            
-            // Common apertures for smartphone cameras
-            String[] apertures = {"1.5", "1.7", "1.8", "2.0", "2.2"};
-            metadata.aperture = apertures[random.nextInt(apertures.length)];
+            // Common focal lengths and apertures for smartphone cameras
+            metadata.focalLength = FOCAL_LENGTHS[random.nextInt(FOCAL_LENGTHS.length)];
+            metadata.aperture = APERTURES[random.nextInt(APERTURES.length)];
         }
         
         // Exposure time (typically between 1/10 and 1/1000 for phones)
@@ -301,8 +240,7 @@ public class ImageUtils {
         metadata.exposureTime = "1/" + exposureDenominator;
         
         // ISO (typically between 50 and 3200 for phones)
-        int[] isoValues = {50, 100, 200, 400, 800, 1600, 3200};
-        metadata.iso = String.valueOf(isoValues[random.nextInt(isoValues.length)]);
+        metadata.iso = String.valueOf(ISO_VALUES[random.nextInt(ISO_VALUES.length)]);
         
         // Flash (usually off for modern phones in good light)
         metadata.flash = "0"; // Flash did not fire
@@ -319,13 +257,4 @@ public class ImageUtils {
         Logger.d(TAG, "Created fake metadata: " + metadata);
         return metadata;
     }
-    
-    /**
-     * Helper class for handling InputStream bytes
-     */
-    private static class ByteArrayInputStream extends java.io.ByteArrayInputStream {
-        public ByteArrayInputStream(byte[] buf) {
-            super(buf);
-        }
-    }
 }
\ No newline at end of file
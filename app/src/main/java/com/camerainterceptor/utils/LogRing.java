@@ -0,0 +1,142 @@
+package com.camerainterceptor.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated log records.
+ *
+ * Any thread may offer; only the Logger's writer thread drains. Each slot
+ * carries a sequence number: a producer claims a slot with one CAS on the
+ * tail, fills the record and publishes it by advancing the slot's sequence,
+ * so logging never locks, never allocates and never blocks. When the ring is
+ * full the record is dropped and counted instead.
+ */
+final class LogRing {
+
+    /**
+     * One log call. Reused; only valid inside {@link Consumer#accept}.
+     */
+    static final class Record {
+        long timeMillis;
+        int level;
+        String tag;
+        String message; // A format string when args is set
+        Object[] args;
+    }
+
+    /**
+     * Receives drained records on the consumer thread.
+     */
+    interface Consumer {
+        void accept(Record record);
+    }
+
+    private final Record[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private long head = 0; // Consumer only
+
+    /**
+     * @param capacity Number of records; rounded up to a power of two
+     */
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        records = new Record[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            records[i] = new Record();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a record, or counts it as dropped if the ring is full.
+     *
+     * @return false if the record was dropped
+     */
+    boolean offer(long timeMillis, int level, String tag, String message) {
+        return offer(timeMillis, level, tag, message, null);
+    }
+
+    /**
+     * Adds a record whose message is formatted from args by the consumer.
+     *
+     * @return false if the record was dropped
+     */
+    boolean offer(long timeMillis, int level, String tag, String format, Object[] args) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+            } else if (sequence < position) {
+                // The consumer has not freed this slot yet
+                dropped.incrementAndGet();
+                return false;
+            }
+            // Another producer claimed it first; retry with the new tail
+        }
+
+        int index = (int) position & mask;
+        Record record = records[index];
+        record.timeMillis = timeMillis;
+        record.level = level;
+        record.tag = tag;
+        record.message = format;
+        record.args = args;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Hands up to max published records to the consumer, oldest first. Only
+     * ever called from one thread.
+     *
+     * @return Number of records drained
+     */
+    int drain(Consumer consumer, int max) {
+        int count = 0;
+        while (count < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1)
+                break; // Empty, or the next producer has not published yet
+            Record record = records[index];
+            try {
+                consumer.accept(record);
+            } finally {
+                record.tag = null;
+                record.message = null;
+                record.args = null;
+                sequences.lazySet(index, head + records.length);
+                head++;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * True if no producer has claimed a slot past what was drained, published
+     * or not. Consumer only.
+     */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    int capacity() {
+        return records.length;
+    }
+
+    /**
+     * Records dropped because the ring was full.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,198 @@
+package com.camerainterceptor.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Naming, listing and merging of per-process log segments.
+ *
+ * Every hooked process appends to its own segment, named after its package
+ * and pid, and rotates only that segment, so no two processes ever write or
+ * rename the same file. Readers merge all segments by timestamp: each
+ * segment is already in order, so a k-way merge streams them holding one
+ * entry per segment.
+ */
+public final class LogSegments {
+
+    public static final String LOG_DIR = "CameraInterceptor";
+    static final String PREFIX = "camera_interceptor_";
+    static final String SUFFIX = ".log";
+    static final String BACKUP_SUFFIX = ".bak";
+    // Single shared file written before logs were split per process
+    static final String LEGACY_NAME = "camera_interceptor_log.txt";
+    // Holds lines restored by the log viewer's undo
+    public static final String RESTORED_NAME = PREFIX + "restored" + SUFFIX;
+
+    // "yyyy-MM-dd HH:mm:ss.SSS", which sorts as text
+    private static final int TIMESTAMP_LENGTH = 23;
+
+    /**
+     * Receives merged lines in timestamp order.
+     */
+    public interface LineSink {
+        void accept(String line) throws IOException;
+    }
+
+    private LogSegments() {
+    }
+
+    /**
+     * File name of the live segment for a process.
+     */
+    public static String segmentName(String processTag, int pid) {
+        StringBuilder name = new StringBuilder(PREFIX);
+        String tag = processTag != null ? processTag : "process";
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-';
+            name.append(safe ? c : '_');
+        }
+        return name.append('_').append(pid).append(SUFFIX).toString();
+    }
+
+    /**
+     * True for live and rotated segments, and for the legacy shared log.
+     */
+    public static boolean isSegment(String name) {
+        if (name.equals(LEGACY_NAME) || name.equals(LEGACY_NAME + BACKUP_SUFFIX))
+            return true;
+        return name.startsWith(PREFIX) && (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + BACKUP_SUFFIX));
+    }
+
+    /**
+     * All segments in a log directory, sorted by name; empty if there are none.
+     */
+    public static List<File> list(File dir) {
+        File[] files = dir != null ? dir.listFiles((d, name) -> isSegment(name)) : null;
+        if (files == null)
+            return Collections.emptyList();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Deletes segments other than keep that were last written before cutoff,
+     * i.e. left behind by processes that are long gone.
+     *
+     * @return Number of segments deleted
+     */
+    public static int pruneStale(File dir, long cutoffMillis, File keep) {
+        int deleted = 0;
+        for (File segment : list(dir)) {
+            if (!segment.equals(keep) && segment.lastModified() < cutoffMillis && segment.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Merges segments, each ordered by timestamp, into one ordered stream.
+     * Lines without a timestamp (file headers, wrapped messages) stay with
+     * the timestamped line they belong to. Entries with equal timestamps keep
+     * the order of the readers, and within a reader their file order.
+     *
+     * @return Number of lines passed to the sink
+     */
+    public static long merge(List<? extends BufferedReader> segments, LineSink sink) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, segments.size()));
+        for (int i = 0; i < segments.size(); i++) {
+            Cursor cursor = new Cursor(i, segments.get(i));
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+
+        long lines = 0;
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            for (String line : cursor.entry) {
+                sink.accept(line);
+                lines++;
+            }
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return lines;
+    }
+
+    static boolean hasTimestamp(String line) {
+        return line.length() >= TIMESTAMP_LENGTH && line.charAt(4) == '-' && line.charAt(7) == '-'
+                && line.charAt(10) == ' ' && line.charAt(13) == ':' && line.charAt(16) == ':'
+                && line.charAt(19) == '.' && Character.isDigit(line.charAt(0))
+                && Character.isDigit(line.charAt(TIMESTAMP_LENGTH - 1));
+    }
+
+    /**
+     * Reads one segment an entry at a time: a timestamped line, any untimed
+     * lines before it at the start of the file, and the untimed lines after it.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        final int index;
+        final BufferedReader reader;
+        final List<String> entry = new ArrayList<>();
+        String key;
+        String lookahead; // Next timestamped line, already read
+        boolean eof;
+
+        Cursor(int index, BufferedReader reader) {
+            this.index = index;
+            this.reader = reader;
+        }
+
+        /**
+         * Loads the next entry.
+         *
+         * @return false once the segment is exhausted
+         */
+        boolean advance() throws IOException {
+            entry.clear();
+            key = null;
+            String line = lookahead;
+            lookahead = null;
+            while (line == null && !eof) {
+                line = reader.readLine();
+                if (line == null) {
+                    eof = true;
+                } else if (!hasTimestamp(line)) {
+                    entry.add(line);
+                    line = null;
+                }
+            }
+            if (line == null) {
+                // Untimed lines at the end of a segment with no entry to join
+                key = "";
+                return !entry.isEmpty();
+            }
+
+            entry.add(line);
+            key = line.substring(0, TIMESTAMP_LENGTH);
+            while (!eof) {
+                String next = reader.readLine();
+                if (next == null) {
+                    eof = true;
+                } else if (hasTimestamp(next)) {
+                    lookahead = next;
+                    break;
+                } else {
+                    entry.add(next);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int byTime = key.compareTo(other.key);
+            return byTime != 0 ? byTime : Integer.compare(index, other.index);
+        }
+    }
+}
@@ -2,53 +2,78 @@
 package com.camerainterceptor.utils;
 
 import android.os.Environment;
+import android.os.Process;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 import de.robv.android.xposed.XposedBridge;
 
 /**
- * Comprehensive logging utility for the CameraInterceptor module
+ * Comprehensive logging utility for the CameraInterceptor module.
+ *
+ * A log call only publishes a record into a bounded lock-free ring; one
+ * writer thread formats it and sends it to Xposed, logcat and this process's
+ * log segment (see {@link LogSegments}).
  */
 public class Logger {
     private static final String MODULE_TAG = "CameraInterceptor";
     private static final boolean LOG_TO_XPOSED = true;
     private static final boolean LOG_TO_ANDROID = true;
     private static final boolean LOG_TO_FILE = true;
-    private static final String LOG_FILE_DIR = "CameraInterceptor";
-    private static final String LOG_FILE_NAME = "camera_interceptor_log.txt";
-    private static final int MAX_LOG_FILE_SIZE = 5 * 1024 * 1024; // 5MB
+    private static final int MAX_LOG_FILE_SIZE = 5 * 1024 * 1024; // 5MB per segment
+    // Segments of other processes not written for this long are deleted
+    private static final long STALE_SEGMENT_AGE_MS = 3 * 24 * 60 * 60 * 1000L;
+
+    // Names this process's log segment; the hooked package once known
+    private static volatile String processTag = null;
     
-    // Debug mode - can be toggled at runtime
-    private static final AtomicBoolean debugModeEnabled = new AtomicBoolean(true);
+    // Minimum levels, global and per tag. lowestLevel is the lowest of all of
+    // them, so a call below it is rejected with one branch
+    private static volatile int minLevel = Log.DEBUG;
+    private static volatile Map<String, Integer> tagLevels = Collections.emptyMap();
+    private static volatile int lowestLevel = Log.DEBUG;
     
     // Track if storage is accessible (set after first successful access)
     private static final AtomicBoolean storageAccessible = new AtomicBoolean(false);
     private static final AtomicBoolean storageCheckFailed = new AtomicBoolean(false);
     private static volatile File cachedLogDir = null;
-    private static volatile File cachedLogFile = null;
     
     // Statistics tracking
     private static final AtomicLong totalHooksTriggered = new AtomicLong(0);
     private static final AtomicLong successfulInjections = new AtomicLong(0);
     private static final AtomicLong failedInjections = new AtomicLong(0);
     
-    private static final ThreadPoolExecutor logExecutor = new ThreadPoolExecutor(
-            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-    
+    // Log calls only publish into the ring; the writer thread does the rest
+    private static final int RING_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+    private static final long BATCH_PARK_NANOS = 20_000_000L;
+    private static final long STORAGE_RETRY_MS = 5000;
+    private static final LogRing ring = new LogRing(RING_CAPACITY);
+    private static final AtomicBoolean writerStarted = new AtomicBoolean(false);
+    private static volatile Thread writerThread;
+    // Set while the writer is parked with nothing to do; a log call unparks it
+    private static volatile boolean writerIdle = false;
+
     // NOTE: Static initializer removed - we now initialize lazily to avoid
     // crashes when storage isn't accessible during early boot (zygote)
     
@@ -77,7 +102,7 @@ public class Logger {
                 return null;
             }
             
-            File logDir = new File(extDir, LOG_FILE_DIR);
+            File logDir = new File(extDir, LogSegments.LOG_DIR);
             if (!logDir.exists() && !logDir.mkdirs()) {
                 Log.w(MODULE_TAG, "Could not create log directory");
                 return null;
@@ -93,78 +118,273 @@ public class Logger {
         }
     }
     
-    /**
-     * Safely get the log file, handling early boot scenarios
-     */
-    private static File getLogFile() {
-        if (cachedLogFile != null && cachedLogFile.getParentFile().exists()) {
-            return cachedLogFile;
-        }
-        
-        File logDir = getLogDir();
-        if (logDir == null) {
-            return null;
-        }
-        
-        try {
-            File logFile = new File(logDir, LOG_FILE_NAME);
-            
-            // Rotate log if too large
-            if (logFile.exists() && logFile.length() > MAX_LOG_FILE_SIZE) {
-                File backupFile = new File(logDir, LOG_FILE_NAME + ".bak");
-                if (backupFile.exists()) {
-                    backupFile.delete();
-                }
-                logFile.renameTo(backupFile);
-                logFile = new File(logDir, LOG_FILE_NAME);
-            }
-            
-            // Create header if new file
-            if (!logFile.exists()) {
-                try (FileWriter writer = new FileWriter(logFile)) {
-                    writer.write("=== CameraInterceptor Log Started at " + 
-                            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date()) + 
-                            " ===\n\n");
-                } catch (IOException e) {
-                    // Ignore - file logging will just be unavailable
-                }
-            }
-            
-            cachedLogFile = logFile;
-            return logFile;
-        } catch (Throwable t) {
-            return null;
-        }
-    }
-    
     /**
      * Log debug message
      */
     public static void d(String tag, String message) {
         log(Log.DEBUG, tag, message);
     }
-    
+
+    /**
+     * Log debug message built only if DEBUG is enabled for the tag
+     */
+    public static void d(String tag, Supplier<String> message) {
+        if (isLoggable(tag, Log.DEBUG))
+            log(Log.DEBUG, tag, message.get());
+    }
+
+    /**
+     * Log debug message formatted with String.format rules on the writer
+     * thread, only if DEBUG is enabled for the tag
+     */
+    public static void d(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, new Object[] { arg });
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    public static void d(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, new Object[] { arg });
+    }
+
+    public static void d(String tag, String format, int arg1, int arg2) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    public static void d(String tag, String format, int arg1, int arg2, int arg3) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, new Object[] { arg1, arg2, arg3 });
+    }
+
+    /**
+     * Varargs form; the array is built by the caller even when DEBUG is
+     * disabled, so hot paths should use the fixed-arity forms
+     */
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.DEBUG))
+            logFormat(Log.DEBUG, tag, format, args);
+    }
+
     /**
      * Log info message
      */
     public static void i(String tag, String message) {
         log(Log.INFO, tag, message);
     }
-    
+
+    /**
+     * Log info message built only if INFO is enabled for the tag
+     */
+    public static void i(String tag, Supplier<String> message) {
+        if (isLoggable(tag, Log.INFO))
+            log(Log.INFO, tag, message.get());
+    }
+
+    /**
+     * Log info message formatted with String.format rules on the writer
+     * thread, only if INFO is enabled for the tag
+     */
+    public static void i(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, new Object[] { arg });
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    public static void i(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, new Object[] { arg });
+    }
+
+    public static void i(String tag, String format, int arg1, int arg2) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    public static void i(String tag, String format, int arg1, int arg2, int arg3) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, new Object[] { arg1, arg2, arg3 });
+    }
+
+    /**
+     * Varargs form; the array is built by the caller even when INFO is
+     * disabled, so hot paths should use the fixed-arity forms
+     */
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.INFO))
+            logFormat(Log.INFO, tag, format, args);
+    }
+
     /**
      * Log warning message
      */
     public static void w(String tag, String message) {
         log(Log.WARN, tag, message);
     }
-    
+
+    /**
+     * Log warning message built only if WARN is enabled for the tag
+     */
+    public static void w(String tag, Supplier<String> message) {
+        if (isLoggable(tag, Log.WARN))
+            log(Log.WARN, tag, message.get());
+    }
+
+    /**
+     * Log warning message formatted with String.format rules on the writer
+     * thread, only if WARN is enabled for the tag
+     */
+    public static void w(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.WARN))
+            logFormat(Log.WARN, tag, format, new Object[] { arg });
+    }
+
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.WARN))
+            logFormat(Log.WARN, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     * Varargs form; the array is built by the caller even when WARN is
+     * disabled, so hot paths should use the fixed-arity forms
+     */
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.WARN))
+            logFormat(Log.WARN, tag, format, args);
+    }
+
     /**
      * Log error message
      */
     public static void e(String tag, String message) {
         log(Log.ERROR, tag, message);
     }
-    
+
+    /**
+     * Log error message built only if ERROR is enabled for the tag
+     */
+    public static void e(String tag, Supplier<String> message) {
+        if (isLoggable(tag, Log.ERROR))
+            log(Log.ERROR, tag, message.get());
+    }
+
+    /**
+     * Log error message formatted with String.format rules on the writer
+     * thread, only if ERROR is enabled for the tag
+     */
+    public static void e(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.ERROR))
+            logFormat(Log.ERROR, tag, format, new Object[] { arg });
+    }
+
+    public static void e(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.ERROR))
+            logFormat(Log.ERROR, tag, format, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     * Varargs form; the array is built by the caller even when ERROR is
+     * disabled, so hot paths should use the fixed-arity forms
+     */
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.ERROR))
+            logFormat(Log.ERROR, tag, format, args);
+    }
+
+    /**
+     * True if a message at this level would be logged for the tag. Costs one
+     * branch when the level is below every configured minimum.
+     */
+    public static boolean isLoggable(String tag, int level) {
+        if (level < lowestLevel)
+            return false;
+        Map<String, Integer> levels = tagLevels;
+        if (levels.isEmpty())
+            return level >= minLevel;
+        Integer tagLevel = levels.get(tag);
+        return level >= (tagLevel != null ? tagLevel : minLevel);
+    }
+
+    /**
+     * Sets the global minimum level and per-tag overrides, e.g. from the
+     * module preferences.
+     */
+    public static void setLevels(int globalLevel, Map<String, Integer> perTag) {
+        Map<String, Integer> levels = perTag != null && !perTag.isEmpty()
+                ? Collections.unmodifiableMap(new HashMap<>(perTag))
+                : Collections.<String, Integer>emptyMap();
+        int lowest = globalLevel;
+        for (Integer level : levels.values()) {
+            lowest = Math.min(lowest, level);
+        }
+        // Lower the shortcut first so no enabled call is rejected mid-update
+        lowestLevel = Math.min(lowestLevel, lowest);
+        tagLevels = levels;
+        minLevel = globalLevel;
+        lowestLevel = lowest;
+    }
+
+    /**
+     * Parses a level name (VERBOSE, DEBUG, INFO, WARN, ERROR, or just their
+     * first letter) or an android.util.Log constant.
+     */
+    public static int parseLevel(String value, int defaultLevel) {
+        if (value == null)
+            return defaultLevel;
+        String v = value.trim().toUpperCase(Locale.US);
+        if (v.isEmpty())
+            return defaultLevel;
+        switch (v.charAt(0)) {
+            case 'V':
+                return Log.VERBOSE;
+            case 'D':
+                return Log.DEBUG;
+            case 'I':
+                return Log.INFO;
+            case 'W':
+                return Log.WARN;
+            case 'E':
+                return Log.ERROR;
+            default:
+                try {
+                    int level = Integer.parseInt(v);
+                    return level >= Log.VERBOSE && level <= Log.ASSERT ? level : defaultLevel;
+                } catch (NumberFormatException e) {
+                    return defaultLevel;
+                }
+        }
+    }
+
+    /**
+     * Parses per-tag levels such as "Camera2Hook=INFO, HookGate=DEBUG".
+     * Malformed entries are skipped.
+     */
+    public static Map<String, Integer> parseTagLevels(String spec) {
+        Map<String, Integer> levels = new HashMap<>();
+        if (spec == null)
+            return levels;
+        for (String item : spec.split("[,;\n]")) {
+            String entry = item.trim();
+            int eq = entry.indexOf('=');
+            if (eq <= 0 || eq == entry.length() - 1)
+                continue;
+            int level = parseLevel(entry.substring(eq + 1), -1);
+            if (level != -1) {
+                levels.put(entry.substring(0, eq).trim(), level);
+            }
+        }
+        return levels;
+    }
+
     /**
      * Log stack trace for an exception
      */
@@ -178,67 +398,285 @@ public class Logger {
     }
     
     /**
-     * Internal logging method
+     * Internal logging method. Only timestamps the call and publishes it to
+     * the ring; formatting and all output happen on the writer thread.
      */
     private static void log(int level, String tag, String message) {
-        final String fullTag = MODULE_TAG + ":" + tag;
-        final String logLevelName = getLogLevelName(level);
-        final String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date());
-        final String fullMessage = timestamp + " " + logLevelName + "/" + fullTag + ": " + message;
-        
-        // Log to XposedBridge
-        if (LOG_TO_XPOSED) {
-            try {
-                XposedBridge.log(fullMessage);
-            } catch (Throwable t) {
-                // If XposedBridge logging fails, fall back to Android logging
-                if (LOG_TO_ANDROID) {
-                    Log.println(level, fullTag, "XposedBridge log failed: " + t.getMessage() + ". Original message: " + message);
+        if (!isLoggable(tag, level))
+            return;
+        if (!writerStarted.get()) {
+            startWriter();
+        }
+        ring.offer(System.currentTimeMillis(), level, tag, message);
+        if (writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private static void logFormat(int level, String tag, String format, Object[] args) {
+        if (!writerStarted.get()) {
+            startWriter();
+        }
+        ring.offer(System.currentTimeMillis(), level, tag, format, args);
+        if (writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private static void startWriter() {
+        if (!writerStarted.compareAndSet(false, true))
+            return;
+        Thread thread = new Thread(new Writer(), "LoggerWriter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Names this process's log segment, e.g. after the hooked package. Lines
+     * logged before this go to a segment named "process".
+     */
+    public static void setProcessTag(String tag) {
+        processTag = tag;
+    }
+
+    /**
+     * Number of log calls dropped because the writer fell behind.
+     */
+    public static long getDroppedCount() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Drains the ring on a single thread: each record goes to Xposed and
+     * logcat, and each drained batch is appended to this process's segment
+     * with one write on a FileChannel kept open between batches.
+     */
+    private static final class Writer implements Runnable, LogRing.Consumer {
+        private final StringBuilder line = new StringBuilder(256);
+        private final StringBuilder batch = new StringBuilder(16 * 1024);
+        private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.", Locale.US);
+        private long cachedSecond = -1;
+        private String cachedSecondPrefix = "";
+        private long cachedMillis = -1;
+        private String cachedTimestamp = "";
+
+        private FileChannel channel;
+        private File segmentFile;
+        private String segmentTag;
+        private long fileSize;
+        private boolean pruned = false;
+        private long nextStorageAttemptMs = 0;
+        private long reportedDrops = 0;
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    int drained = ring.drain(this, MAX_BATCH);
+                    long drops = ring.getDropped();
+                    if (drops != reportedDrops) {
+                        appendLine(System.currentTimeMillis(), Log.WARN, "Logger",
+                                "Dropped " + (drops - reportedDrops) + " log records (writer fell behind)");
+                        reportedDrops = drops;
+                    }
+                    if (batch.length() > 0) {
+                        commit();
+                    }
+                    if (drained > 0 && drained < MAX_BATCH) {
+                        // Let a few more records pile up into the next batch
+                        LockSupport.parkNanos(BATCH_PARK_NANOS);
+                    } else if (drained == 0) {
+                        awaitRecords();
+                    }
+                } catch (Throwable t) {
+                    // Never let the writer die; file logging is optional
+                    batch.setLength(0);
                 }
             }
         }
-        
-        // Log to Android system log
-        if (LOG_TO_ANDROID) {
+
+        /**
+         * Parks until a log call unparks us. Producers claim their slot before
+         * reading writerIdle, and we set it before checking for claimed slots,
+         * so one side always sees the other and no wakeup is lost.
+         */
+        private void awaitRecords() {
+            writerIdle = true;
             try {
-                Log.println(level, fullTag, message);
-            } catch (Throwable t) {
-                // This is a last resort fallback, so we don't handle failures here
+                if (ring.isEmpty()) {
+                    LockSupport.park(this);
+                } else {
+                    // Claimed but not yet published; it will be in a moment
+                    Thread.yield();
+                }
+            } finally {
+                writerIdle = false;
             }
         }
-        
-        // Log to file asynchronously (safe - handles early boot gracefully)
-        if (LOG_TO_FILE) {
-            final String messageToLog = fullMessage;
-            logExecutor.execute(() -> {
+
+        @Override
+        public void accept(LogRing.Record record) {
+            String message = record.message;
+            if (record.args != null) {
                 try {
-                    // Reset failed flag periodically to allow retrying after boot completes
-                    if (storageCheckFailed.get()) {
-                        storageCheckFailed.set(false);
-                    }
-                    
-                    File logFile = getLogFile();
-                    if (logFile == null) {
-                        // Storage not accessible yet - this is normal during early boot
-                        return;
-                    }
-                    
-                    try (FileWriter writer = new FileWriter(logFile, true)) {
-                        writer.write(messageToLog + "\n");
-                    } catch (IOException e) {
-                        // File write failed - maybe storage became unavailable
-                        cachedLogFile = null;
-                        if (LOG_TO_ANDROID) {
-                            Log.w(MODULE_TAG, "Log file write failed: " + e.getMessage());
-                        }
+                    message = String.format(Locale.US, message, record.args);
+                } catch (Throwable t) {
+                    message = message + " " + Arrays.toString(record.args);
+                }
+            }
+            appendLine(record.timeMillis, record.level, record.tag, message);
+        }
+
+        private void appendLine(long timeMillis, int level, String tag, String message) {
+            final String fullTag = MODULE_TAG + ":" + tag;
+            line.setLength(0);
+            line.append(timestamp(timeMillis)).append(' ').append(getLogLevelName(level))
+                    .append('/').append(fullTag).append(": ").append(message);
+            final String fullMessage = line.toString();
+
+            // Log to XposedBridge
+            if (LOG_TO_XPOSED) {
+                try {
+                    XposedBridge.log(fullMessage);
+                } catch (Throwable t) {
+                    // If XposedBridge logging fails, fall back to Android logging
+                    if (LOG_TO_ANDROID) {
+                        Log.println(level, fullTag, "XposedBridge log failed: " + t.getMessage() + ". Original message: " + message);
                     }
+                }
+            }
+
+            // Log to Android system log
+            if (LOG_TO_ANDROID) {
+                try {
+                    Log.println(level, fullTag, message);
                 } catch (Throwable t) {
-                    // Silently ignore - file logging is optional
+                    // This is a last resort fallback, so we don't handle failures here
                 }
-            });
+            }
+
+            if (LOG_TO_FILE) {
+                batch.append(fullMessage).append('\n');
+            }
+        }
+
+        /**
+         * "yyyy-MM-dd HH:mm:ss.SSS", formatted at most once per second and
+         * built at most once per millisecond.
+         */
+        private String timestamp(long timeMillis) {
+            if (timeMillis == cachedMillis)
+                return cachedTimestamp;
+            long second = timeMillis / 1000;
+            if (second != cachedSecond) {
+                cachedSecondPrefix = secondFormat.format(new Date(second * 1000));
+                cachedSecond = second;
+            }
+            int millis = (int) (timeMillis - second * 1000);
+            cachedTimestamp = cachedSecondPrefix + (char) ('0' + millis / 100) + (char) ('0' + millis / 10 % 10)
+                    + (char) ('0' + millis % 10);
+            cachedMillis = timeMillis;
+            return cachedTimestamp;
+        }
+
+        /**
+         * Appends the batch to the segment in one write (group commit).
+         * Records logged while storage is unavailable are not kept.
+         */
+        private void commit() {
+            try {
+                if (channel != null && (!Objects.equals(processTag, segmentTag) || !segmentFile.exists())) {
+                    // Renamed by setProcessTag, or deleted by the log viewer
+                    closeChannel();
+                }
+                FileChannel out = openChannel();
+                if (out == null)
+                    return;
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    fileSize += out.write(buffer);
+                }
+                if (fileSize > MAX_LOG_FILE_SIZE) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                // File write failed - maybe storage became unavailable
+                closeChannel();
+                cachedLogDir = null;
+                if (LOG_TO_ANDROID) {
+                    Log.w(MODULE_TAG, "Log file write failed: " + e.getMessage());
+                }
+            } finally {
+                batch.setLength(0);
+            }
+        }
+
+        private FileChannel openChannel() throws IOException {
+            if (channel != null)
+                return channel;
+            long now = System.currentTimeMillis();
+            if (now < nextStorageAttemptMs)
+                return null;
+
+            // Retry after early boot, when storage was not ready yet
+            storageCheckFailed.set(false);
+            File logDir = getLogDir();
+            if (logDir == null) {
+                nextStorageAttemptMs = now + STORAGE_RETRY_MS;
+                return null;
+            }
+
+            String tag = processTag;
+            File logFile = new File(logDir, LogSegments.segmentName(tag, Process.myPid()));
+            if (!pruned) {
+                pruned = true;
+                LogSegments.pruneStale(logDir, now - STALE_SEGMENT_AGE_MS, logFile);
+            }
+            boolean isNew = !logFile.exists() || logFile.length() == 0;
+            channel = new FileOutputStream(logFile, true).getChannel();
+            segmentFile = logFile;
+            segmentTag = tag;
+            fileSize = channel.size();
+            if (isNew) {
+                // Create header if new file
+                String header = "=== CameraInterceptor Log Started at "
+                        + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date()) + " ("
+                        + (tag != null ? tag : "process") + ", pid " + Process.myPid() + ") ===\n\n";
+                fileSize += channel.write(ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+            }
+            return channel;
+        }
+
+        /**
+         * Moves the full segment aside. Only this process writes it, so
+         * nothing else can be renaming it at the same time.
+         */
+        private void rotate() {
+            File logFile = segmentFile;
+            closeChannel();
+            if (logFile == null)
+                return;
+            File backupFile = new File(logFile.getPath() + LogSegments.BACKUP_SUFFIX);
+            if (backupFile.exists()) {
+                backupFile.delete();
+            }
+            logFile.renameTo(backupFile);
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+                segmentFile = null;
+            }
         }
     }
-    
+
     /**
      * Convert log level integer to readable string
      */
@@ -267,7 +705,7 @@ public class Logger {
      * Enable or disable debug mode (verbose logging)
      */
     public static void setDebugMode(boolean enabled) {
-        debugModeEnabled.set(enabled);
+        setLevels(enabled ? Log.DEBUG : Log.INFO, tagLevels);
         i("Logger", "Debug mode " + (enabled ? "ENABLED" : "DISABLED"));
     }
     
@@ -275,7 +713,7 @@ public class Logger {
      * Check if debug mode is enabled
      */
     public static boolean isDebugMode() {
-        return debugModeEnabled.get();
+        return minLevel <= Log.DEBUG;
     }
     
     // ==================== Hook-Specific Logging ====================
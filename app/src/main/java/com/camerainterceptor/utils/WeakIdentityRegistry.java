@@ -0,0 +1,136 @@
+package com.camerainterceptor.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lock-free map keyed by object identity that does not keep its keys alive.
+ * Entries whose key has been garbage collected are purged lazily on writes.
+ *
+ * Unlike XposedHelpers' additional fields (a synchronized WeakHashMap) reads
+ * take no lock and allocate nothing.
+ */
+public final class WeakIdentityRegistry<K, V> {
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    // Reusable per-thread probe so lookups don't allocate
+    private final ThreadLocal<LookupKey> lookupKey = new ThreadLocal<LookupKey>() {
+        @Override
+        protected LookupKey initialValue() {
+            return new LookupKey();
+        }
+    };
+
+    public void put(K key, V value) {
+        if (key == null || value == null)
+            return;
+        expungeStaleEntries();
+        map.put(new WeakKey<>(key, queue), value);
+    }
+
+    /**
+     * Maps key to value unless it is already mapped, atomically.
+     *
+     * @return The value already mapped, or null if value was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            return null;
+        V existing = get(key);
+        if (existing != null)
+            return existing;
+        expungeStaleEntries();
+        return map.putIfAbsent(new WeakKey<>(key, queue), value);
+    }
+
+    public V get(K key) {
+        if (key == null || map.isEmpty())
+            return null;
+        LookupKey probe = lookupKey.get();
+        probe.referent = key;
+        try {
+            return map.get(probe);
+        } finally {
+            probe.referent = null;
+        }
+    }
+
+    public boolean contains(K key) {
+        return get(key) != null;
+    }
+
+    public V remove(K key) {
+        if (key == null)
+            return null;
+        LookupKey probe = lookupKey.get();
+        probe.referent = key;
+        try {
+            return map.remove(probe);
+        } finally {
+            probe.referent = null;
+        }
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    private static final class WeakKey<K> extends WeakReference<K> {
+        private final int hash;
+
+        WeakKey(K referent, ReferenceQueue<K> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            Object referent = get();
+            if (referent == null)
+                return false;
+            if (o instanceof LookupKey)
+                return ((LookupKey) o).referent == referent;
+            if (o instanceof WeakKey)
+                return ((WeakKey<?>) o).get() == referent;
+            return false;
+        }
+    }
+
+    private static final class LookupKey {
+        Object referent;
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(referent);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            return o instanceof WeakKey && ((WeakKey<?>) o).get() == referent;
+        }
+    }
+}
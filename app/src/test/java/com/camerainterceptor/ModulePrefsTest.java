@@ -0,0 +1,102 @@
+package com.camerainterceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import com.camerainterceptor.utils.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Unit test that settings saved to the module preferences file reach the
+ * values the hooks read.
+ */
+public class ModulePrefsTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("shared_prefs").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLevels(Log.DEBUG, null);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The settings screen declares this key, so it is what gets saved.
+     */
+    static void assertDeclared(String key) throws Exception {
+        File xml = new File("src/main/res/xml/preferences.xml");
+        if (!xml.exists()) {
+            xml = new File("app/src/main/res/xml/preferences.xml");
+        }
+        String declared = new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8);
+        assertTrue(key + " is not a settings key", declared.contains("android:key=\"" + key + "\""));
+    }
+
+    @Test
+    public void injectionBudgetFromPrefsFile() throws Exception {
+        assertDeclared(ModulePrefs.KEY_INJECTION_BUDGET);
+        XmlPrefs prefs = new XmlPrefs(XmlPrefs.write(dir,
+                "<string name=\"" + ModulePrefs.KEY_INJECTION_BUDGET + "\">250</string>"));
+
+        assertEquals(250, ModulePrefs.readInjectionBudgetMs(prefs));
+    }
+
+    @Test
+    public void injectionBudgetDefaultsWhenUnsetOrInvalid() throws Exception {
+        assertEquals(ModulePrefs.DEFAULT_INJECTION_BUDGET_MS,
+                ModulePrefs.readInjectionBudgetMs(new XmlPrefs(XmlPrefs.write(dir))));
+        assertEquals(ModulePrefs.DEFAULT_INJECTION_BUDGET_MS, ModulePrefs.readInjectionBudgetMs(new XmlPrefs(
+                XmlPrefs.write(dir, "<string name=\"" + ModulePrefs.KEY_INJECTION_BUDGET + "\">soon</string>"))));
+    }
+
+    @Test
+    public void intentFulfilmentSwitchFromPrefsFile() throws Exception {
+        assertDeclared(ModulePrefs.KEY_FULFIL_INTENTS);
+        assertFalse(ModulePrefs.readIntentFulfilment(new XmlPrefs(XmlPrefs.write(dir))));
+        assertTrue(ModulePrefs.readIntentFulfilment(new XmlPrefs(XmlPrefs.write(dir,
+                "<boolean name=\"" + ModulePrefs.KEY_FULFIL_INTENTS + "\" value=\"true\" />"))));
+    }
+
+    @Test
+    public void logLevelsFromPrefsFileReachLogger() throws Exception {
+        assertDeclared(ModulePrefs.KEY_LOG_LEVEL);
+        assertDeclared(ModulePrefs.KEY_LOG_TAG_LEVELS);
+        XmlPrefs prefs = new XmlPrefs(XmlPrefs.write(dir,
+                "<string name=\"" + ModulePrefs.KEY_LOG_LEVEL + "\">WARN</string>",
+                "<string name=\"" + ModulePrefs.KEY_LOG_TAG_LEVELS + "\">Camera2Hook=DEBUG</string>"));
+
+        // As HookGate.refresh applies them
+        Logger.setLevels(ModulePrefs.readLogLevel(prefs), Logger.parseTagLevels(ModulePrefs.readLogTagLevels(prefs)));
+
+        assertFalse(Logger.isLoggable("FileOutputHook", Log.INFO));
+        assertTrue(Logger.isLoggable("FileOutputHook", Log.WARN));
+        assertTrue(Logger.isLoggable("Camera2Hook", Log.DEBUG));
+    }
+
+    @Test
+    public void logLevelDefaultsToDebug() throws Exception {
+        XmlPrefs prefs = new XmlPrefs(XmlPrefs.write(dir));
+
+        assertEquals(Log.DEBUG, ModulePrefs.readLogLevel(prefs));
+        assertNull(ModulePrefs.readLogTagLevels(prefs));
+    }
+}
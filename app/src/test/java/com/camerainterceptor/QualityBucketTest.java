@@ -0,0 +1,32 @@
+package com.camerainterceptor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the quality buckets of Bitmap.compress variants.
+ */
+public class QualityBucketTest {
+
+    @Test
+    public void testLosslessFormatsIgnoreQuality() {
+        assertEquals(100, HookDispatcher.qualityBucket("PNG", 0));
+        assertEquals(100, HookDispatcher.qualityBucket("WEBP_LOSSLESS", 37));
+    }
+
+    @Test
+    public void testLossyQualityRoundsDownToBucket() {
+        assertEquals(95, HookDispatcher.qualityBucket("JPEG", 95));
+        assertEquals(90, HookDispatcher.qualityBucket("JPEG", 94));
+        assertEquals(75, HookDispatcher.qualityBucket("WEBP_LOSSY", 77));
+        assertEquals(100, HookDispatcher.qualityBucket("WEBP", 100));
+    }
+
+    @Test
+    public void testLossyQualityIsClamped() {
+        assertEquals(5, HookDispatcher.qualityBucket("JPEG", 0));
+        assertEquals(5, HookDispatcher.qualityBucket("JPEG", -10));
+        assertEquals(100, HookDispatcher.qualityBucket("JPEG", 250));
+    }
+}
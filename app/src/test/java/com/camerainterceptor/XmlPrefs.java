@@ -0,0 +1,142 @@
+package com.camerainterceptor;
+
+import android.content.SharedPreferences;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Read-only SharedPreferences loaded from a file in the shared_prefs XML
+ * format the settings screen writes and XSharedPreferences reads.
+ */
+final class XmlPrefs implements SharedPreferences {
+    private final Map<String, Object> values = new HashMap<>();
+
+    /**
+     * Writes the module preferences file into dir with the given entries,
+     * such as {@code <string name="key">value</string>}.
+     */
+    static File write(File dir, String... entries) throws Exception {
+        File file = new File(dir, ModulePrefs.NAME + ".xml");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (String entry : entries) {
+                out.write("    " + entry + "\n");
+            }
+            out.write("</map>\n");
+        }
+        return file;
+    }
+
+    XmlPrefs(File file) throws Exception {
+        Element map = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+        NodeList children = map.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (!(node instanceof Element))
+                continue;
+            Element e = (Element) node;
+            String name = e.getAttribute("name");
+            switch (e.getTagName()) {
+                case "string":
+                    values.put(name, e.getTextContent());
+                    break;
+                case "boolean":
+                    values.put(name, Boolean.parseBoolean(e.getAttribute("value")));
+                    break;
+                case "int":
+                    values.put(name, Integer.parseInt(e.getAttribute("value")));
+                    break;
+                case "long":
+                    values.put(name, Long.parseLong(e.getAttribute("value")));
+                    break;
+                case "float":
+                    values.put(name, Float.parseFloat(e.getAttribute("value")));
+                    break;
+                case "set":
+                    Set<String> set = new HashSet<>();
+                    NodeList items = e.getElementsByTagName("string");
+                    for (int j = 0; j < items.getLength(); j++) {
+                        set.add(items.item(j).getTextContent());
+                    }
+                    values.put(name, set);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object v = values.get(key);
+        return v != null ? (String) v : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object v = values.get(key);
+        return v != null ? (Set<String>) v : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object v = values.get(key);
+        return v != null ? (Integer) v : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object v = values.get(key);
+        return v != null ? (Long) v : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object v = values.get(key);
+        return v != null ? (Float) v : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object v = values.get(key);
+        return v != null ? (Boolean) v : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        throw new UnsupportedOperationException("read-only");
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+}
@@ -0,0 +1,39 @@
+package com.camerainterceptor.hooks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the sizes capture intents are answered with.
+ */
+public class IntentHookTest {
+
+    @Test
+    public void testOutputKeepsSmallImages() {
+        assertArrayEquals(new int[] { 4032, 3024 }, IntentHook.fitEdge(4032, 3024, IntentHook.MAX_OUTPUT_EDGE));
+        assertArrayEquals(new int[] { 640, 480 }, IntentHook.fitEdge(640, 480, IntentHook.MAX_OUTPUT_EDGE));
+    }
+
+    @Test
+    public void testOutputCapsLongestEdge() {
+        assertArrayEquals(new int[] { 4096, 3072 }, IntentHook.fitEdge(8192, 6144, IntentHook.MAX_OUTPUT_EDGE));
+        assertArrayEquals(new int[] { 2304, 4096 }, IntentHook.fitEdge(4500, 8000, IntentHook.MAX_OUTPUT_EDGE));
+    }
+
+    @Test
+    public void testThumbnailFitsPixelBudget() {
+        int[] size = IntentHook.fitPixels(4032, 3024, IntentHook.MAX_THUMBNAIL_PIXELS);
+        assertTrue((long) size[0] * size[1] <= IntentHook.MAX_THUMBNAIL_PIXELS);
+        assertTrue(size[0] > 250 && size[1] > 190);
+        // Aspect ratio within a pixel of 4:3
+        assertTrue(Math.abs(size[0] * 3 - size[1] * 4) <= 4);
+    }
+
+    @Test
+    public void testThumbnailNeverUpscales() {
+        assertArrayEquals(new int[] { 160, 120 }, IntentHook.fitPixels(160, 120, IntentHook.MAX_THUMBNAIL_PIXELS));
+        assertArrayEquals(new int[] { 200, 256 }, IntentHook.fitPixels(200, 256, IntentHook.MAX_THUMBNAIL_PIXELS));
+    }
+}
@@ -0,0 +1,139 @@
+package com.camerainterceptor.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Unit test for the chunked JPEG end-of-image scanner, plus a throughput
+ * benchmark across app write sizes.
+ */
+public class JpegStreamScannerTest {
+
+    /**
+     * Builds a structurally valid JPEG: SOI, an APP1 segment holding a
+     * complete thumbnail (with its own EOI), DQT, SOS with stuffed bytes and
+     * RST markers in the scan, then EOI.
+     */
+    private static byte[] jpeg(int scanBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+
+        byte[] thumbnail = { (byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9 };
+        segment(out, 0xE1, thumbnail);
+        segment(out, 0xDB, new byte[65]);
+        segment(out, 0xDA, new byte[10]);
+
+        Random random = new Random(42);
+        for (int i = 0; i < scanBytes; i++) {
+            int value = random.nextInt(256);
+            out.write(value);
+            if (value == 0xFF) {
+                out.write(0x00); // Byte stuffing
+            }
+            if (i % 4096 == 4095) {
+                out.write(0xFF);
+                out.write(0xD0 + (i / 4096) % 8);
+            }
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+        return out.toByteArray();
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        int length = payload.length + 2;
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(payload, 0, payload.length);
+    }
+
+    /**
+     * Feeds the data in fixed chunks and returns the stream offset just past EOI.
+     */
+    private static long feed(JpegStreamScanner scanner, byte[] data, int chunk) {
+        for (int off = 0; off < data.length; off += chunk) {
+            int len = Math.min(chunk, data.length - off);
+            int end = scanner.scan(data, off, len);
+            if (end != -1) {
+                return off + end;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testFindsEoiInSingleWrite() {
+        byte[] data = jpeg(10_000);
+        JpegStreamScanner scanner = new JpegStreamScanner();
+        assertEquals(data.length, scanner.scan(data, 0, data.length));
+        assertTrue(scanner.isComplete());
+        assertEquals(data.length, scanner.getConsumed());
+    }
+
+    @Test
+    public void testFindsEoiAcrossEveryChunkSize() {
+        byte[] data = jpeg(20_000);
+        // Small chunks split markers and length fields between writes
+        for (int chunk = 1; chunk <= 64; chunk++) {
+            JpegStreamScanner scanner = new JpegStreamScanner();
+            assertEquals("chunk " + chunk, data.length, feed(scanner, data, chunk));
+        }
+    }
+
+    @Test
+    public void testStopsAtEoiWithTrailingData() {
+        byte[] image = jpeg(1_000);
+        byte[] data = new byte[image.length + 5];
+        System.arraycopy(image, 0, data, 0, image.length);
+
+        JpegStreamScanner scanner = new JpegStreamScanner();
+        assertEquals(image.length, scanner.scan(data, 0, data.length));
+        // Further writes are not part of the image
+        assertEquals(0, scanner.scan(data, 0, 5));
+    }
+
+    @Test
+    public void testIncompleteImageKeepsScanning() {
+        byte[] data = jpeg(1_000);
+        JpegStreamScanner scanner = new JpegStreamScanner();
+        assertEquals(-1, scanner.scan(data, 0, data.length - 2));
+        assertFalse(scanner.isComplete());
+        assertEquals(2, scanner.scan(data, data.length - 2, 2));
+    }
+
+    @Test
+    public void testNonJpegStreamEndsReplacement() {
+        byte[] data = { (byte) 0xFF, (byte) 0xD8, 0x12, 0x34 };
+        JpegStreamScanner scanner = new JpegStreamScanner();
+        assertEquals(3, scanner.scan(data, 0, data.length));
+        assertTrue(scanner.isInvalid());
+    }
+
+    @Test
+    public void testThroughputByChunkSize() {
+        byte[] data = jpeg(8 * 1024 * 1024);
+        int[] chunks = { 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20 };
+        for (int round = 0; round < 2; round++) { // First round warms up
+            for (int chunk : chunks) {
+                long start = System.nanoTime();
+                JpegStreamScanner scanner = new JpegStreamScanner();
+                assertEquals(data.length, feed(scanner, data, chunk));
+                long elapsed = System.nanoTime() - start;
+                if (round == 1) {
+                    double mbPerSec = data.length / 1048576.0 / (elapsed / 1e9);
+                    // Loose floor: a single linear pass runs far faster
+                    assertTrue(chunk + " B chunks: " + mbPerSec + " MB/s", mbPerSec > 20);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.camerainterceptor.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the legacy preview frame layouts.
+ */
+public class PreviewFrameInjectorTest {
+
+    @Test
+    public void testFrameSizes() {
+        assertEquals(640 * 480 * 3 / 2, PreviewFrameInjector.frameSize(640, 480, ImageFormat.NV21));
+        // 176 is 16-aligned but its half (88) is padded to 96
+        assertEquals(176 * 144 + 96 * 72 * 2, PreviewFrameInjector.frameSize(176, 144, ImageFormat.YV12));
+        assertEquals(-1, PreviewFrameInjector.frameSize(640, 480, ImageFormat.YUY2));
+    }
+
+    @Test
+    public void testNv21ToYv12SplitsAndPadsChroma() {
+        int width = 4;
+        int height = 2;
+        byte[] nv21 = new byte[] {
+                1, 2, 3, 4, // Y row 0
+                5, 6, 7, 8, // Y row 1
+                10, 20, 11, 21 // V0 U0 V1 U1
+        };
+
+        byte[] yv12 = PreviewFrameInjector.nv21ToYv12(nv21, width, height);
+
+        // Y stride 16, chroma stride 16, one chroma row each
+        assertEquals(PreviewFrameInjector.frameSize(width, height, ImageFormat.YV12), yv12.length);
+        assertEquals(16 * 2 + 16 + 16, yv12.length);
+        assertEquals(4, yv12[3]);
+        assertEquals(5, yv12[16]);
+        assertEquals(0, yv12[4]); // Row padding
+        assertEquals(10, yv12[32]); // V plane first
+        assertEquals(11, yv12[33]);
+        assertEquals(20, yv12[48]); // Then U plane
+        assertEquals(21, yv12[49]);
+    }
+}
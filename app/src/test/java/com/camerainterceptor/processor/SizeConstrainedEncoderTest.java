@@ -0,0 +1,75 @@
+package com.camerainterceptor.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the byte-budgeted quality search.
+ */
+public class SizeConstrainedEncoderTest {
+
+    /**
+     * Stand-in encoder: output grows faster than linearly with quality, like
+     * a real JPEG, and its first byte records the quality used.
+     */
+    private static final SizeConstrainedEncoder.Encoder FAKE = quality -> {
+        byte[] data = new byte[1000 + quality * quality * 20];
+        data[0] = (byte) quality;
+        return data;
+    };
+
+    private static int bestQualityFor(int maxBytes) {
+        int best = 0;
+        for (int q = 1; q <= 100; q++) {
+            if (FAKE.encode(q).length <= maxBytes)
+                best = q;
+        }
+        return best;
+    }
+
+    @Test
+    public void testFindsHighestFittingQuality() {
+        for (int maxBytes : new int[] { 5_000, 50_000, 120_000, 180_000 }) {
+            SizeConstrainedEncoder encoder = new SizeConstrainedEncoder();
+            byte[] data = encoder.encode("img", maxBytes, FAKE);
+            assertTrue(data.length <= maxBytes);
+            assertEquals(bestQualityFor(maxBytes), data[0]);
+            assertTrue("trials " + encoder.getTrialCount(), encoder.getTrialCount() <= 8);
+        }
+    }
+
+    @Test
+    public void testRepeatedBudgetEncodesOnce() {
+        SizeConstrainedEncoder encoder = new SizeConstrainedEncoder();
+        encoder.record("img", 95, FAKE.encode(95).length);
+        encoder.encode("img", 60_000, FAKE);
+        int trials = encoder.getTrialCount();
+
+        byte[] again = encoder.encode("img", 60_000, FAKE);
+        assertEquals(bestQualityFor(60_000), again[0]);
+        assertEquals(trials + 1, encoder.getTrialCount());
+    }
+
+    @Test
+    public void testObservationsAreKeyedAndClearable() {
+        SizeConstrainedEncoder encoder = new SizeConstrainedEncoder();
+        encoder.encode("a", 60_000, FAKE);
+        int trials = encoder.getTrialCount();
+        encoder.encode("b", 60_000, FAKE);
+        assertTrue(encoder.getTrialCount() - trials > 1);
+
+        encoder.clear();
+        trials = encoder.getTrialCount();
+        encoder.encode("a", 60_000, FAKE);
+        assertTrue(encoder.getTrialCount() - trials > 1);
+    }
+
+    @Test
+    public void testNothingFits() {
+        SizeConstrainedEncoder encoder = new SizeConstrainedEncoder();
+        assertNull(encoder.encode("img", 500, FAKE));
+    }
+}
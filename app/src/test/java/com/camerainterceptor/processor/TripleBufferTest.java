@@ -0,0 +1,85 @@
+package com.camerainterceptor.processor;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for TripleBuffer.
+ * Verifies latest-frame semantics and that the consumer never observes frames
+ * going backwards while a producer publishes concurrently.
+ */
+public class TripleBufferTest {
+
+    @Test
+    public void testEmptyBufferReturnsNull() {
+        TripleBuffer<Integer> buffer = new TripleBuffer<>();
+        assertNull(buffer.acquireLatest());
+        assertFalse(buffer.hasPending());
+    }
+
+    @Test
+    public void testConsumerSeesLatestFrame() {
+        TripleBuffer<Integer> buffer = new TripleBuffer<>();
+        buffer.publish(1);
+        buffer.publish(2);
+        buffer.publish(3);
+        assertTrue(buffer.hasPending());
+        assertEquals(Integer.valueOf(3), buffer.acquireLatest());
+        assertFalse(buffer.hasPending());
+
+        // Nothing new published: keep returning the same frame
+        assertEquals(Integer.valueOf(3), buffer.acquireLatest());
+    }
+
+    @Test
+    public void testBackSlotNeverAliasesFront() {
+        TripleBuffer<Integer> buffer = new TripleBuffer<>();
+        buffer.publish(1);
+        Integer front = buffer.acquireLatest();
+        buffer.publish(2);
+        buffer.publish(3);
+        // The slot handed back to the producer must not be the one being rendered
+        assertNotSame(front, buffer.peekBack());
+    }
+
+    @Test
+    public void testConcurrentFramesAreMonotonic() throws Exception {
+        final TripleBuffer<Long> buffer = new TripleBuffer<>();
+        final long frameCount = 200_000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            for (long i = 1; i <= frameCount; i++) {
+                buffer.publish(i);
+            }
+        });
+
+        Thread consumer = new Thread(() -> {
+            long last = 0;
+            while (last < frameCount) {
+                Long frame = buffer.acquireLatest();
+                if (frame == null) {
+                    continue;
+                }
+                if (frame < last) {
+                    failure.set(new AssertionError("Frame went backwards: " + frame + " after " + last));
+                    return;
+                }
+                last = frame;
+            }
+        });
+
+        producer.start();
+        consumer.start();
+        producer.join(10_000);
+        consumer.join(10_000);
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(Long.valueOf(frameCount), buffer.acquireLatest());
+    }
+}
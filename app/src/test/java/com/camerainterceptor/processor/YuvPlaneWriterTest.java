@@ -0,0 +1,68 @@
+package com.camerainterceptor.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unit test for stride-aware YUV plane writing.
+ */
+public class YuvPlaneWriterTest {
+
+    // 4x2 NV21: Y 0..7, then V0 U0 V1 U1
+    private static final byte[] NV21 = new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 40, 50, 41, 51 };
+
+    @Test
+    public void testPlanarWithRowPadding() {
+        int[] rowStrides = { 8, 4, 4 };
+        int[] pixelStrides = { 1, 1, 1 };
+        YuvPlaneWriter writer = new YuvPlaneWriter(NV21, 4, 2, rowStrides, pixelStrides);
+        ByteBuffer y = ByteBuffer.allocate(12);
+        ByteBuffer u = ByteBuffer.allocate(2);
+        ByteBuffer v = ByteBuffer.allocate(2);
+
+        assertTrue(writer.write(new ByteBuffer[] { y, u, v }));
+        assertEquals(3, y.get(3));
+        assertEquals(4, y.get(8)); // Second row starts at the row stride
+        assertEquals(50, u.get(0));
+        assertEquals(51, u.get(1));
+        assertEquals(40, v.get(0));
+        assertEquals(0, y.position()); // App's buffer position untouched
+    }
+
+    @Test
+    public void testInterleavedChromaSharingMemory() {
+        int[] rowStrides = { 4, 4, 4 };
+        int[] pixelStrides = { 1, 2, 2 };
+        YuvPlaneWriter writer = new YuvPlaneWriter(NV21, 4, 2, rowStrides, pixelStrides);
+
+        // NV12 in memory: U buffer at offset 0, V buffer at offset 1 of the same chroma block
+        ByteBuffer chroma = ByteBuffer.allocate(4);
+        chroma.position(0);
+        ByteBuffer u = chroma.slice();
+        chroma.position(1);
+        ByteBuffer v = chroma.slice();
+
+        assertTrue(writer.write(new ByteBuffer[] { ByteBuffer.allocate(8), u, v }));
+        assertEquals(50, chroma.get(0));
+        assertEquals(40, chroma.get(1));
+        assertEquals(51, chroma.get(2));
+        assertEquals(41, chroma.get(3));
+    }
+
+    @Test
+    public void testMatchesGeometry() {
+        int[] rowStrides = { 4, 4, 4 };
+        int[] pixelStrides = { 1, 2, 2 };
+        YuvPlaneWriter writer = new YuvPlaneWriter(NV21, 4, 2, rowStrides, pixelStrides);
+
+        assertTrue(writer.matches(4, 2, new int[] { 4, 4, 4 }, new int[] { 1, 2, 2 }));
+        assertFalse(writer.matches(4, 2, new int[] { 8, 4, 4 }, new int[] { 1, 2, 2 }));
+        assertFalse(writer.write(new ByteBuffer[] { ByteBuffer.allocate(8).asReadOnlyBuffer(),
+                ByteBuffer.allocate(3), ByteBuffer.allocate(3) }));
+    }
+}
@@ -0,0 +1,107 @@
+package com.camerainterceptor.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.camerainterceptor.state.ImageReaderRegistry.ReaderInfo;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test for handing out prepared burst frames.
+ */
+public class BurstQueueTest {
+
+    private static ReaderInfo reader() {
+        return new ReaderInfo(null, 1920, 1080, 0x23, 10, 0);
+    }
+
+    private static Future<byte[]> ready(byte[] payload) {
+        return CompletableFuture.completedFuture(payload);
+    }
+
+    @Test
+    public void testFramesAreHandedOutInOrder() {
+        ReaderInfo reader = reader();
+        Future<byte[]> payload = ready(new byte[16]);
+        BurstQueue.enqueue(reader, payload, 3, 0);
+
+        BurstQueue.Frame first = BurstQueue.poll(reader, 1);
+        assertSame(payload, first.payload);
+        assertEquals(1, first.index);
+        assertFalse(first.isLast());
+        assertEquals(2, BurstQueue.poll(reader, 2).index);
+        assertTrue(BurstQueue.poll(reader, 3).isLast());
+        assertNull(BurstQueue.poll(reader, 4));
+    }
+
+    @Test
+    public void testConsecutiveBurstsQueueUp() {
+        ReaderInfo reader = reader();
+        Future<byte[]> a = ready(new byte[1]);
+        Future<byte[]> b = ready(new byte[2]);
+        BurstQueue.enqueue(reader, a, 1, 0);
+        BurstQueue.enqueue(reader, b, 2, 0);
+
+        assertSame(a, BurstQueue.poll(reader, 1).payload);
+        BurstQueue.Frame next = BurstQueue.poll(reader, 1);
+        assertSame(b, next.payload);
+        assertEquals(2, next.total);
+    }
+
+    @Test
+    public void testReadersAreIndependent() {
+        ReaderInfo jpeg = reader();
+        ReaderInfo yuv = reader();
+        BurstQueue.enqueue(jpeg, ready(new byte[1]), 2, 0);
+
+        assertNull(BurstQueue.poll(yuv, 1));
+        assertEquals(1, BurstQueue.poll(jpeg, 1).index);
+    }
+
+    @Test
+    public void testAbandonedBurstExpires() {
+        ReaderInfo reader = reader();
+        BurstQueue.enqueue(reader, ready(new byte[1]), 10, 0);
+        BurstQueue.poll(reader, 1);
+
+        assertNull(BurstQueue.poll(reader, BurstQueue.STALE_AFTER_NANOS + 1));
+    }
+
+    @Test
+    public void testConcurrentFirstBurstsShareOneQueue() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            ReaderInfo reader = reader();
+            int threads = 4;
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    BurstQueue.enqueue(reader, ready(new byte[1]), 1, 0);
+                });
+                workers[t].start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            for (int t = 0; t < threads; t++) {
+                assertEquals(1, BurstQueue.poll(reader, 1).index);
+            }
+            assertNull(BurstQueue.poll(reader, 1));
+        }
+    }
+}
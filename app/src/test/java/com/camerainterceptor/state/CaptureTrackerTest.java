@@ -0,0 +1,79 @@
+package com.camerainterceptor.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for correlating one capture across hook layers.
+ */
+public class CaptureTrackerTest {
+
+    @Before
+    public void setUp() {
+        CaptureTracker.reset();
+    }
+
+    @Test
+    public void testHigherLevelCaptureIsJoined() {
+        long now = System.nanoTime();
+        CaptureTracker.Transaction camerax = CaptureTracker.open("CameraX.takePicture", now);
+        CaptureTracker.Transaction camera2 = CaptureTracker.open("Camera2.capture", now + 1_000_000);
+        assertSame(camerax, camera2);
+
+        CaptureTracker.Transaction later = CaptureTracker.open("Camera2.capture",
+                now + CaptureTracker.JOIN_WINDOW_NANOS + 1);
+        assertNotSame(camerax, later);
+        assertTrue(CaptureTracker.describeStats().contains("uninjected=1"));
+    }
+
+    @Test
+    public void testInjectionIsCarriedToSaveLayers() {
+        CaptureTracker.Transaction capture = CaptureTracker.open("Camera2.capture");
+        assertFalse(CaptureTracker.isInjected());
+
+        byte[] payload = new byte[8];
+        CaptureTracker.markInjected("Camera2.ImageReader", payload);
+        CaptureTracker.markInjected("Camera.takePicture", new byte[4]);
+        assertTrue(CaptureTracker.isInjected());
+        assertEquals("Camera2.ImageReader", capture.getInjectedBy());
+        assertSame(payload, CaptureTracker.active().getPayload());
+
+        // An injected capture is never joined by the next one
+        assertNotSame(capture, CaptureTracker.open("Camera2.capture"));
+        assertFalse(CaptureTracker.isInjected());
+    }
+
+    @Test
+    public void testFirstFileCompletesWithLatency() {
+        long now = System.nanoTime();
+        CaptureTracker.open("Camera.takePicture", now);
+        assertEquals(250_000_000L, CaptureTracker.complete("/sdcard/DCIM/a.jpg", now + 250_000_000L));
+        assertEquals(-1, CaptureTracker.complete("/sdcard/DCIM/a_thumb.jpg", now + 300_000_000L));
+        assertNull(CaptureTracker.active(now + 300_000_000L));
+        assertTrue(CaptureTracker.describeStats().startsWith("captures=1 avg=250ms max=250ms"));
+    }
+
+    @Test
+    public void testStaleCaptureIsIgnored() {
+        long now = System.nanoTime();
+        CaptureTracker.open("Camera2.capture", now);
+        long later = now + CaptureTracker.STALE_AFTER_NANOS + 1;
+        assertNull(CaptureTracker.active(later));
+        assertEquals(-1, CaptureTracker.complete("/sdcard/DCIM/b.jpg", later));
+    }
+
+    @Test
+    public void testNothingToCompleteWithoutCapture() {
+        assertNull(CaptureTracker.active());
+        assertFalse(CaptureTracker.isInjected());
+        CaptureTracker.markInjected("Camera2.ImageReader", new byte[1]);
+        assertEquals(-1, CaptureTracker.complete("/sdcard/DCIM/c.jpg"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.camerainterceptor.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.camerainterceptor.state.HookState.StreamConfig;
+import com.camerainterceptor.state.HookState.StreamRole;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Unit test for the per-camera, per-stream target state.
+ */
+public class HookStateTest {
+
+    @Before
+    public void setUp() {
+        HookState.reset();
+    }
+
+    @Test
+    public void testPreviewDoesNotClobberStill() {
+        // Legacy apps typically set the picture size first and the preview size last
+        HookState.setStreamResolution("legacy:0", StreamRole.STILL, 4000, 3000);
+        HookState.setStreamResolution("legacy:0", StreamRole.PREVIEW, 1280, 720);
+
+        StreamConfig still = HookState.getStream("legacy:0", StreamRole.STILL);
+        assertEquals(4000, still.width);
+        assertEquals(3000, still.height);
+        assertEquals(1280, HookState.getStream("legacy:0", StreamRole.PREVIEW).width);
+    }
+
+    @Test
+    public void testCamerasAreIndependent() {
+        HookState.setStream("0", StreamRole.STILL, 4000, 3000, 0x100);
+        HookState.setStream("1", StreamRole.STILL, 2560, 1920, 0x100);
+
+        assertEquals(4000, HookState.getStream("0", StreamRole.STILL).width);
+        assertEquals(2560, HookState.getStream("1", StreamRole.STILL).width);
+        assertNull(HookState.getStream("1", StreamRole.PREVIEW));
+    }
+
+    @Test
+    public void testFormatUpdateKeepsResolution() {
+        StreamConfig before = HookState.setStreamResolution("0", StreamRole.PREVIEW, 640, 480);
+        StreamConfig after = HookState.setStreamFormat("0", StreamRole.PREVIEW, 0x32315659); // YV12
+
+        assertEquals(640, after.width);
+        assertEquals(480, after.height);
+        assertEquals(0x32315659, after.format);
+        // Snapshots are immutable: the earlier instance is untouched
+        assertEquals(before.width, after.width);
+        assertFalse(before.format == after.format);
+    }
+
+    @Test
+    public void testSnapshotContainsConfiguredRolesOnly() {
+        HookState.setStream("0", StreamRole.PREVIEW, 1920, 1080, 0x11);
+        HookState.setStream("0", StreamRole.ANALYSIS, 640, 480, 0x23);
+
+        Map<StreamRole, StreamConfig> snapshot = HookState.snapshot("0");
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.containsKey(StreamRole.ANALYSIS));
+        assertFalse(snapshot.containsKey(StreamRole.STILL));
+    }
+}
@@ -0,0 +1,72 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the shared deadline wheel.
+ */
+public class DeadlineWheelTest {
+
+    private static void waitFor(DeadlineWheel.Timer timer, long timeouts) throws InterruptedException {
+        long until = System.currentTimeMillis() + 2000;
+        while (timer.getTimeoutCount() < timeouts && System.currentTimeMillis() < until) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testCancelledDeadlineNeverFires() throws InterruptedException {
+        DeadlineWheel wheel = new DeadlineWheel(1);
+        DeadlineWheel.Timer timer = wheel.timer("fast", 20);
+
+        DeadlineWheel.Deadline deadline = timer.arm();
+        deadline.cancel();
+        deadline.cancel(); // Second cancel is ignored
+        Thread.sleep(60);
+
+        assertEquals(0, timer.getTimeoutCount());
+        // One sample, in whichever bucket a loaded machine put it
+        long samples = 0;
+        for (int i = 0; i < DeadlineWheel.BUCKETS; i++) {
+            samples += timer.getBucketCount(i);
+        }
+        assertEquals(1, samples);
+    }
+
+    @Test
+    public void testExpiredThenCompletedCountsAsOverrun() throws InterruptedException {
+        DeadlineWheel wheel = new DeadlineWheel(1);
+        DeadlineWheel.Timer timer = wheel.timer("slow", 10);
+
+        DeadlineWheel.Deadline deadline = timer.arm();
+        waitFor(timer, 1);
+        deadline.cancel();
+
+        assertEquals(1, timer.getTimeoutCount());
+        assertEquals(1, timer.getOverrunCount());
+    }
+
+    @Test
+    public void testDeadlineBeyondOneRotation() throws InterruptedException {
+        // 1ms ticks and 512 slots: a 600ms deadline needs a second rotation
+        DeadlineWheel wheel = new DeadlineWheel(1);
+        DeadlineWheel.Timer timer = wheel.timer("long", 600);
+
+        long start = System.nanoTime();
+        timer.arm();
+        waitFor(timer, 1);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(1, timer.getTimeoutCount());
+        assertTrue(elapsedMs >= 600);
+    }
+
+    @Test
+    public void testTimersAreSharedByName() {
+        DeadlineWheel wheel = new DeadlineWheel(1);
+        assertEquals(wheel.timer("a", 10), wheel.timer("a", 10));
+    }
+}
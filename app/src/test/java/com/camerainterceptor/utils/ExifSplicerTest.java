@@ -0,0 +1,245 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Unit test for the template-based EXIF APP1 splicer. The spliced segment is
+ * read back by walking its IFDs.
+ */
+public class ExifSplicerTest {
+    private static final int TIFF = 10;
+
+    private static ImageUtils.ImageMetadata metadata(boolean gps) {
+        ImageUtils.ImageMetadata m = new ImageUtils.ImageMetadata();
+        Calendar c = Calendar.getInstance();
+        c.set(2024, Calendar.MARCH, 5, 7, 8, 9);
+        m.timestamp = c.getTime();
+        m.width = 4032;
+        m.height = 3024;
+        m.orientation = 6;
+        m.make = "Google";
+        m.model = "Pixel 7 Pro";
+        m.focalLength = "6.1";
+        m.aperture = "1.8";
+        m.exposureTime = "1/250";
+        m.iso = "400";
+        m.flash = "0";
+        if (gps) {
+            m.latitude = -33.5;
+            m.longitude = 151.25;
+            m.altitude = 12.5f;
+        }
+        return m;
+    }
+
+    private static int u16(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static long u32(byte[] b, int pos) {
+        return ((long) u16(b, pos) << 16) | u16(b, pos + 2);
+    }
+
+    /**
+     * Position in the segment of a tag's value, or -1.
+     */
+    private static int find(byte[] segment, long ifdOffset, int tag) {
+        int pos = TIFF + (int) ifdOffset;
+        int count = u16(segment, pos);
+        for (int i = 0; i < count; i++) {
+            int entry = pos + 2 + i * 12;
+            if (u16(segment, entry) != tag)
+                continue;
+            int type = u16(segment, entry + 2);
+            long n = u32(segment, entry + 4);
+            int size = (type == 3 ? 2 : type == 4 ? 4 : type == 5 ? 8 : 1) * (int) n;
+            return size <= 4 ? entry + 8 : TIFF + (int) u32(segment, entry + 8);
+        }
+        return -1;
+    }
+
+    private static String ascii(byte[] b, int pos, int length) {
+        return new String(b, pos, length, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testSegmentFields() {
+        byte[] segment = ExifSplicer.buildSegment(metadata(false));
+
+        assertEquals(0xFFE1, u16(segment, 0));
+        assertEquals(segment.length - 2, u16(segment, 2));
+        assertEquals("Exif", ascii(segment, 4, 4));
+        assertEquals("MM", ascii(segment, TIFF, 2));
+
+        long ifd0 = u32(segment, TIFF + 4);
+        assertEquals(4032, u32(segment, find(segment, ifd0, 0x0100)));
+        assertEquals(6, u16(segment, find(segment, ifd0, 0x0112)));
+        assertEquals("Google", ascii(segment, find(segment, ifd0, 0x010F), 6));
+        assertEquals("2024:03:05 07:08:09", ascii(segment, find(segment, ifd0, 0x0132), 19));
+        assertEquals(-1, find(segment, ifd0, 0x8825));
+
+        long exif = u32(segment, find(segment, ifd0, 0x8769));
+        assertEquals(3024, u32(segment, find(segment, exif, 0xA003)));
+        assertEquals(400, u16(segment, find(segment, exif, 0x8827)));
+        int exposure = find(segment, exif, 0x829A);
+        assertEquals(1, u32(segment, exposure));
+        assertEquals(250, u32(segment, exposure + 4));
+        int fNumber = find(segment, exif, 0x829D);
+        assertEquals(18, u32(segment, fNumber));
+        assertEquals(10, u32(segment, fNumber + 4));
+        assertEquals("2024:03:05 07:08:09", ascii(segment, find(segment, exif, 0x9003), 19));
+    }
+
+    @Test
+    public void testGpsFields() {
+        byte[] segment = ExifSplicer.buildSegment(metadata(true));
+        long ifd0 = u32(segment, TIFF + 4);
+        long gps = u32(segment, find(segment, ifd0, 0x8825));
+
+        assertEquals("S", ascii(segment, find(segment, gps, 0x0001), 1));
+        int latitude = find(segment, gps, 0x0002);
+        assertEquals(33, u32(segment, latitude));
+        assertEquals(30, u32(segment, latitude + 8));
+        assertEquals("E", ascii(segment, find(segment, gps, 0x0003), 1));
+        int longitude = find(segment, gps, 0x0004);
+        assertEquals(151, u32(segment, longitude));
+        assertEquals(15, u32(segment, longitude + 8));
+        assertEquals(1250, u32(segment, find(segment, gps, 0x0006)));
+    }
+
+    @Test
+    public void testTemplateReusedAcrossShots() {
+        ImageUtils.ImageMetadata first = metadata(false);
+        ImageUtils.ImageMetadata second = metadata(false);
+        second.width = 1920;
+        byte[] a = ExifSplicer.buildSegment(first);
+        byte[] b = ExifSplicer.buildSegment(second);
+
+        assertEquals(a.length, b.length);
+        long ifd0 = u32(b, TIFF + 4);
+        assertEquals(4032, u32(a, find(a, ifd0, 0x0100)));
+        assertEquals(1920, u32(b, find(b, ifd0, 0x0100)));
+    }
+
+    @Test
+    public void testSpliceReplacesExistingExif() throws Exception {
+        byte[] oldExif = { (byte) 0xFF, (byte) 0xE1, 0, 8, 'E', 'x', 'i', 'f', 0, 0 };
+        byte[] body = { (byte) 0xFF, (byte) 0xDB, 0, 3, 1, (byte) 0xFF, (byte) 0xD9 };
+        byte[] jpeg = new byte[2 + oldExif.length + body.length];
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        System.arraycopy(oldExif, 0, jpeg, 2, oldExif.length);
+        System.arraycopy(body, 0, jpeg, 2 + oldExif.length, body.length);
+
+        ImageUtils.ImageMetadata m = metadata(false);
+        byte[] spliced = ExifSplicer.splice(jpeg, m);
+        byte[] segment = ExifSplicer.buildSegment(m);
+
+        assertEquals(2 + segment.length + body.length, spliced.length);
+        assertEquals(0xFFD8, u16(spliced, 0));
+        assertEquals(0xFFE1, u16(spliced, 2));
+        byte[] tail = new byte[body.length];
+        System.arraycopy(spliced, spliced.length - body.length, tail, 0, body.length);
+        assertArrayEquals(body, tail);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(spliced.length, ExifSplicer.splice(jpeg, m, out));
+        assertArrayEquals(spliced, out.toByteArray());
+        assertArrayEquals(new int[] { 2, 2 + segment.length }, ExifSplicer.findExif(spliced));
+    }
+
+    @Test
+    public void testSpliceDropsExifAfterJfif() throws Exception {
+        byte[] jfif = { (byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0 };
+        byte[] oldExif = { (byte) 0xFF, (byte) 0xE1, 0, 8, 'E', 'x', 'i', 'f', 0, 0 };
+        byte[] body = { (byte) 0xFF, (byte) 0xDA, 0, 2, (byte) 0xFF, (byte) 0xE1, (byte) 0xFF, (byte) 0xD9 };
+        byte[] jpeg = new byte[2 + jfif.length + oldExif.length + body.length];
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        System.arraycopy(jfif, 0, jpeg, 2, jfif.length);
+        System.arraycopy(oldExif, 0, jpeg, 2 + jfif.length, oldExif.length);
+        System.arraycopy(body, 0, jpeg, 2 + jfif.length + oldExif.length, body.length);
+
+        assertArrayEquals(new int[] { 2 + jfif.length, 2 + jfif.length + oldExif.length },
+                ExifSplicer.findExif(jpeg));
+
+        ImageUtils.ImageMetadata m = metadata(false);
+        byte[] spliced = ExifSplicer.splice(jpeg, m);
+        byte[] segment = ExifSplicer.buildSegment(m);
+
+        // SOI, new Exif, JFIF, then the image data, which is never scanned
+        assertEquals(2 + segment.length + jfif.length + body.length, spliced.length);
+        assertArrayEquals(new int[] { 2, 2 + segment.length }, ExifSplicer.findExif(spliced));
+        byte[] rest = new byte[jfif.length + body.length];
+        System.arraycopy(spliced, 2 + segment.length, rest, 0, rest.length);
+        byte[] expected = new byte[rest.length];
+        System.arraycopy(jfif, 0, expected, 0, jfif.length);
+        System.arraycopy(body, 0, expected, jfif.length, body.length);
+        assertArrayEquals(expected, rest);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(spliced.length, ExifSplicer.splice(jpeg, m, out));
+        assertArrayEquals(spliced, out.toByteArray());
+    }
+
+    /**
+     * SOI, JFIF, an old Exif, a baseline frame header of 4000x3000, then
+     * image data.
+     */
+    static byte[] cameraJpeg() {
+        byte[][] parts = {
+                { (byte) 0xFF, (byte) 0xD8 },
+                { (byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0 },
+                { (byte) 0xFF, (byte) 0xE1, 0, 8, 'E', 'x', 'i', 'f', 0, 0 },
+                { (byte) 0xFF, (byte) 0xC0, 0, 17, 8, 0x0B, (byte) 0xB8, 0x0F, (byte) 0xA0, 3, 1, 0x22, 0, 2, 0x11, 1,
+                        3, 0x11, 1 },
+                { (byte) 0xFF, (byte) 0xDA, 0, 2, 1, 2, 3, (byte) 0xFF, (byte) 0xD9 } };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSizeTakenFromFrameHeader() {
+        byte[] jpeg = cameraJpeg();
+        ImageUtils.ImageMetadata m = metadata(false);
+        m.width = 0;
+        m.height = 0;
+
+        byte[] segment = ExifSplicer.buildSegment(m, jpeg);
+
+        long ifd0 = u32(segment, TIFF + 4);
+        assertEquals(4000, u32(segment, find(segment, ifd0, 0x0100)));
+        assertEquals(3000, u32(segment, find(segment, ifd0, 0x0101)));
+        assertEquals(jpeg.length - 9, ExifSplicer.headerLength(jpeg));
+        assertEquals(-1, ExifSplicer.headerLength(Arrays.copyOf(jpeg, 20)));
+    }
+
+    @Test
+    public void testSpliceIntoBuffer() {
+        byte[] jpeg = cameraJpeg();
+        ImageUtils.ImageMetadata m = metadata(false);
+        byte[] expected = ExifSplicer.splice(jpeg, m);
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 100);
+        buffer.put(new byte[50]);
+
+        assertEquals(expected.length, ExifSplicer.splice(jpeg, ExifSplicer.buildSegment(m), buffer));
+
+        assertEquals(expected.length, buffer.limit());
+        byte[] written = new byte[expected.length];
+        buffer.position(0);
+        buffer.get(written);
+        assertArrayEquals(expected, written);
+    }
+}
@@ -0,0 +1,103 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Unit test for the channel-based image copies.
+ */
+public class FileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source(int size) throws Exception {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    @Test
+    public void testCopyToFileStream() throws Exception {
+        File src = source(300_000);
+        File dst = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(dst)) {
+            assertEquals(300_000, FileTransfer.copy(src, out));
+        }
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void testCopyToPlainStream() throws Exception {
+        File src = source(1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileTransfer.copy(src, out);
+        assertArrayEquals(Files.readAllBytes(src.toPath()), out.toByteArray());
+    }
+
+    @Test
+    public void testCopyToDescriptorTruncatesOldContent() throws Exception {
+        File src = source(100);
+        File dst = source(5000);
+        try (RandomAccessFile raf = new RandomAccessFile(dst, "rw")) {
+            FileTransfer.copy(src, raf.getFD());
+        }
+        assertEquals(100, dst.length());
+    }
+
+    @Test
+    public void testWriteArrayToDescriptorReplacesContent() throws Exception {
+        File dst = source(5000);
+        byte[] data = { 1, 2, 3 };
+        try (RandomAccessFile raf = new RandomAccessFile(dst, "rw")) {
+            raf.seek(4000); // Written from the start whatever the position
+            assertEquals(3, FileTransfer.write(data, raf.getFD()));
+        }
+        assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void testStampedCopyMatchesArraySplice() throws Exception {
+        byte[] jpeg = ExifSplicerTest.cameraJpeg();
+        File src = folder.newFile();
+        Files.write(src.toPath(), jpeg);
+        ImageUtils.ImageMetadata m = ImageUtils.forShot(new ImageUtils.ImageMetadata(), 0, 0);
+        m.make = "Google";
+        m.model = "Pixel 7 Pro";
+        byte[] expected = ExifSplicer.splice(jpeg, m);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length, FileTransfer.copy(src, m, out));
+        assertArrayEquals(expected, out.toByteArray());
+
+        File dst = source(5000);
+        try (RandomAccessFile raf = new RandomAccessFile(dst, "rw")) {
+            assertEquals(expected.length, FileTransfer.copy(src, m, raf.getFD()));
+        }
+        assertArrayEquals(expected, Files.readAllBytes(dst.toPath()));
+    }
+
+    @Test
+    public void testStampedWriteLeavesOtherDataAlone() throws Exception {
+        File dst = source(5000);
+        byte[] png = { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A };
+        try (RandomAccessFile raf = new RandomAccessFile(dst, "rw")) {
+            FileTransfer.write(png, new ImageUtils.ImageMetadata(), raf.getFD());
+        }
+        assertArrayEquals(png, Files.readAllBytes(dst.toPath()));
+    }
+}
@@ -0,0 +1,127 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Unit test for the header-sniffing MediaStore stream wrapper.
+ */
+public class HeaderSniffingOutputStreamTest {
+    private static final byte[] REPLACEMENT = { 1, 2, 3, 4 };
+
+    private static byte[] jpeg(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        data[0] = (byte) 0xFF;
+        data[1] = (byte) 0xD8;
+        data[2] = (byte) 0xFF;
+        return data;
+    }
+
+    @Test
+    public void testReplacesJpegWrittenByteAtATime() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HeaderSniffingOutputStream stream = new HeaderSniffingOutputStream(sink, format -> REPLACEMENT);
+        for (byte b : jpeg(1000)) {
+            stream.write(b);
+        }
+        stream.close();
+
+        assertTrue(stream.isInjected());
+        assertEquals(1000, stream.getDroppedCount());
+        assertArrayEquals(REPLACEMENT, sink.toByteArray());
+    }
+
+    @Test
+    public void testDetectsHeaderAtNonZeroOffset() throws Exception {
+        byte[] image = jpeg(100);
+        byte[] padded = new byte[image.length + 10];
+        System.arraycopy(image, 0, padded, 10, image.length);
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HeaderSniffingOutputStream stream = new HeaderSniffingOutputStream(sink, format -> REPLACEMENT);
+        // Header split across writes, the first starting mid-array
+        stream.write(padded, 10, 5);
+        stream.write(padded, 15, padded.length - 15);
+
+        assertTrue(stream.isInjected());
+        assertArrayEquals(REPLACEMENT, sink.toByteArray());
+    }
+
+    @Test
+    public void testPassesThroughNonImagesAndDeclinedImages() throws Exception {
+        byte[] text = "not an image at all".getBytes("US-ASCII");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HeaderSniffingOutputStream stream = new HeaderSniffingOutputStream(sink, format -> REPLACEMENT);
+        stream.write(text, 0, 3);
+        stream.write(text, 3, text.length - 3);
+        assertFalse(stream.isInjected());
+        assertArrayEquals(text, sink.toByteArray());
+
+        byte[] image = jpeg(50);
+        sink = new ByteArrayOutputStream();
+        stream = new HeaderSniffingOutputStream(sink, format -> null);
+        stream.write(image);
+        assertArrayEquals(image, sink.toByteArray());
+    }
+
+    @Test
+    public void testShortStreamFlushedOnClose() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HeaderSniffingOutputStream stream = new HeaderSniffingOutputStream(sink, format -> REPLACEMENT);
+        stream.write(new byte[] { 9, 8, 7 });
+        assertEquals(0, sink.size());
+        stream.close();
+        assertArrayEquals(new byte[] { 9, 8, 7 }, sink.toByteArray());
+    }
+
+    @Test
+    public void testAllocationPerMegabyte() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        byte[] image = jpeg(1 << 20);
+        byte[] text = new byte[1 << 20];
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < 2; round++) { // First round warms up
+            long before = threads.getThreadAllocatedBytes(threadId);
+            HeaderSniffingOutputStream injected = new HeaderSniffingOutputStream(discard, format -> REPLACEMENT);
+            for (byte b : image) {
+                injected.write(b);
+            }
+            HeaderSniffingOutputStream passed = new HeaderSniffingOutputStream(discard, format -> null);
+            for (int off = 0; off < text.length; off += 4096) {
+                passed.write(text, off, 4096);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            if (round == 1) {
+                // Two streams and their 8-byte headers, independent of the MB written
+                assertTrue("allocated " + allocated + " bytes for 2 MB", allocated < 4096);
+            }
+        }
+    }
+}
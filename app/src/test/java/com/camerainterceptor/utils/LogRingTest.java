@@ -0,0 +1,170 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit test for the logger's multi-producer ring of log records.
+ */
+public class LogRingTest {
+
+    private static List<String> drainAll(LogRing ring) {
+        List<String> out = new ArrayList<>();
+        ring.drain(record -> out.add(record.level + "/" + record.tag + ":" + record.message), Integer.MAX_VALUE);
+        return out;
+    }
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        assertEquals(4096, new LogRing(4096).capacity());
+        assertEquals(8, new LogRing(5).capacity());
+        assertEquals(2, new LogRing(2).capacity());
+    }
+
+    @Test
+    public void testRecordsDrainInOrder() {
+        LogRing ring = new LogRing(8);
+        assertTrue(ring.offer(1, 3, "A", "one"));
+        assertTrue(ring.offer(2, 4, "B", "two"));
+
+        List<String> out = drainAll(ring);
+        assertEquals(2, out.size());
+        assertEquals("3/A:one", out.get(0));
+        assertEquals("4/B:two", out.get(1));
+        assertTrue(drainAll(ring).isEmpty());
+    }
+
+    @Test
+    public void testFullRingDropsAndCounts() {
+        LogRing ring = new LogRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, 3, "T", "m" + i));
+        }
+        assertFalse(ring.offer(4, 3, "T", "overflow"));
+        assertFalse(ring.offer(5, 3, "T", "overflow"));
+        assertEquals(2, ring.getDropped());
+
+        assertEquals(4, drainAll(ring).size());
+        // Freed slots are reused
+        assertTrue(ring.offer(6, 3, "T", "after"));
+        assertEquals("3/T:after", drainAll(ring).get(0));
+    }
+
+    @Test
+    public void testDrainReleasesReferences() {
+        LogRing ring = new LogRing(2);
+        ring.offer(1, 3, "T", "big message");
+        final LogRing.Record[] seen = new LogRing.Record[1];
+        ring.drain(record -> seen[0] = record, 1);
+        assertNull(seen[0].message);
+        assertNull(seen[0].tag);
+    }
+
+    @Test
+    public void testEmptyOnlyOnceEverythingClaimedIsDrained() {
+        LogRing ring = new LogRing(4);
+        assertTrue(ring.isEmpty());
+
+        ring.offer(1, 3, "T", "m");
+        assertFalse(ring.isEmpty());
+
+        drainAll(ring);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothingButDrops() throws Exception {
+        final LogRing ring = new LogRing(1024);
+        final int producers = 4;
+        final int perProducer = 50_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final long[] lastSeen = new long[producers];
+        final long[] received = new long[1];
+        final boolean[] ordered = { true };
+
+        Thread consumer = new Thread(() -> {
+            for (int i = 0; i < producers; i++)
+                lastSeen[i] = -1;
+            LogRing.Consumer check = record -> {
+                int producer = record.level;
+                // Each producer's records arrive in the order it logged them
+                if (record.timeMillis <= lastSeen[producer])
+                    ordered[0] = false;
+                lastSeen[producer] = record.timeMillis;
+                received[0]++;
+            };
+            while (!done.get() || ring.drain(check, Integer.MAX_VALUE) > 0) {
+                ring.drain(check, 256);
+            }
+        });
+        consumer.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    ring.offer(i, producer, "P", "m");
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        done.set(true);
+        consumer.join();
+
+        assertTrue(ordered[0]);
+        assertEquals((long) producers * perProducer, received[0] + ring.getDropped());
+    }
+
+    /**
+     * Cost of one log call on the calling thread, with the consumer draining
+     * concurrently as the writer thread does.
+     */
+    @Test
+    public void testOfferCostsUnderAMicrosecond() throws Exception {
+        final LogRing ring = new LogRing(4096);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread consumer = new Thread(() -> {
+            while (!done.get()) {
+                if (ring.drain(record -> {
+                }, 256) == 0)
+                    Thread.yield();
+            }
+        });
+        consumer.start();
+
+        final int calls = 200_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                ring.offer(i, 3, "Camera2Hook", "ImageReader acquired image");
+            }
+            best = Math.min(best, System.nanoTime() - startNanos);
+        }
+        done.set(true);
+        consumer.join();
+
+        double nanosPerCall = (double) best / calls;
+        assertTrue("ns/call " + nanosPerCall, nanosPerCall < 1000);
+    }
+}
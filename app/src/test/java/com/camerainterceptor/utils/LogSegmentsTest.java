@@ -0,0 +1,134 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit test for per-process log segment naming and the timestamp merge.
+ */
+public class LogSegmentsTest {
+
+    private static BufferedReader segment(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    private static List<String> merge(BufferedReader... segments) throws IOException {
+        List<String> out = new ArrayList<>();
+        long count = LogSegments.merge(Arrays.asList(segments), out::add);
+        assertEquals(out.size(), count);
+        return out;
+    }
+
+    @Test
+    public void segmentNamesAreSafeAndRecognised() {
+        String name = LogSegments.segmentName("com.example.app:remote", 1234);
+
+        assertEquals("camera_interceptor_com.example.app_remote_1234.log", name);
+        assertTrue(LogSegments.isSegment(name));
+        assertTrue(LogSegments.isSegment(name + ".bak"));
+        assertTrue(LogSegments.isSegment("camera_interceptor_log.txt"));
+        assertTrue(LogSegments.isSegment(LogSegments.RESTORED_NAME));
+        assertFalse(LogSegments.isSegment("camera_interceptor_export.txt"));
+        assertFalse(LogSegments.isSegment("injected.jpg"));
+    }
+
+    @Test
+    public void mergesSegmentsByTimestamp() throws IOException {
+        List<String> merged = merge(
+                segment("2024-05-01 10:00:00.100 INFO/A: one",
+                        "2024-05-01 10:00:00.300 INFO/A: three",
+                        "2024-05-01 10:00:01.000 INFO/A: five"),
+                segment("2024-05-01 10:00:00.200 INFO/B: two",
+                        "2024-05-01 10:00:00.400 INFO/B: four"));
+
+        assertEquals(Arrays.asList(
+                "2024-05-01 10:00:00.100 INFO/A: one",
+                "2024-05-01 10:00:00.200 INFO/B: two",
+                "2024-05-01 10:00:00.300 INFO/A: three",
+                "2024-05-01 10:00:00.400 INFO/B: four",
+                "2024-05-01 10:00:01.000 INFO/A: five"), merged);
+    }
+
+    @Test
+    public void untimedLinesStayWithTheirEntry() throws IOException {
+        List<String> merged = merge(
+                segment("=== CameraInterceptor Log Started ===",
+                        "",
+                        "2024-05-01 10:00:00.200 ERROR/A: failed",
+                        "    at Foo.bar(Foo.java:1)",
+                        "2024-05-01 10:00:00.400 INFO/A: done"),
+                segment("2024-05-01 10:00:00.100 INFO/B: first",
+                        "2024-05-01 10:00:00.300 INFO/B: middle"));
+
+        assertEquals(Arrays.asList(
+                "2024-05-01 10:00:00.100 INFO/B: first",
+                "=== CameraInterceptor Log Started ===",
+                "",
+                "2024-05-01 10:00:00.200 ERROR/A: failed",
+                "    at Foo.bar(Foo.java:1)",
+                "2024-05-01 10:00:00.300 INFO/B: middle",
+                "2024-05-01 10:00:00.400 INFO/A: done"), merged);
+    }
+
+    @Test
+    public void equalTimestampsKeepSegmentAndFileOrder() throws IOException {
+        List<String> merged = merge(
+                segment("2024-05-01 10:00:00.100 INFO/A: a1",
+                        "2024-05-01 10:00:00.100 INFO/A: a2"),
+                segment("2024-05-01 10:00:00.100 INFO/B: b1"));
+
+        assertEquals(Arrays.asList(
+                "2024-05-01 10:00:00.100 INFO/A: a1",
+                "2024-05-01 10:00:00.100 INFO/A: a2",
+                "2024-05-01 10:00:00.100 INFO/B: b1"), merged);
+    }
+
+    @Test
+    public void emptyAndUntimedSegmentsAreHandled() throws IOException {
+        assertTrue(merge().isEmpty());
+        assertEquals(Arrays.asList("header only", "2024-05-01 10:00:00.100 INFO/A: x"),
+                merge(segment(""), segment("header only"), segment("2024-05-01 10:00:00.100 INFO/A: x")));
+    }
+
+    @Test
+    public void pruneStaleKeepsRecentAndOwnSegments() throws IOException {
+        File dir = Files.createTempDirectory("segments").toFile();
+        try {
+            File own = new File(dir, LogSegments.segmentName("own", 1));
+            File recent = new File(dir, LogSegments.segmentName("recent", 2));
+            File stale = new File(dir, LogSegments.segmentName("stale", 3));
+            File unrelated = new File(dir, "injected.jpg");
+            for (File f : new File[] { own, recent, stale, unrelated }) {
+                assertTrue(f.createNewFile());
+            }
+            long now = System.currentTimeMillis();
+            assertTrue(own.setLastModified(now - 100_000));
+            assertTrue(stale.setLastModified(now - 100_000));
+            assertTrue(unrelated.setLastModified(now - 100_000));
+
+            assertEquals(3, LogSegments.list(dir).size());
+            assertEquals(1, LogSegments.pruneStale(dir, now - 50_000, own));
+            assertTrue(own.exists());
+            assertTrue(recent.exists());
+            assertFalse(stale.exists());
+            assertTrue(unrelated.exists());
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
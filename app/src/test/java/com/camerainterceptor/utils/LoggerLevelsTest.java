@@ -0,0 +1,77 @@
+package com.camerainterceptor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Unit test for the logger's global and per-tag level gate.
+ */
+public class LoggerLevelsTest {
+
+    @After
+    public void restoreDefaults() {
+        Logger.setLevels(Log.DEBUG, null);
+    }
+
+    @Test
+    public void parseLevelAcceptsNamesAndNumbers() {
+        assertEquals(Log.DEBUG, Logger.parseLevel("debug", Log.INFO));
+        assertEquals(Log.WARN, Logger.parseLevel(" W ", Log.INFO));
+        assertEquals(Log.ERROR, Logger.parseLevel("ERROR", Log.INFO));
+        assertEquals(Log.INFO, Logger.parseLevel(String.valueOf(Log.INFO), Log.DEBUG));
+        assertEquals(Log.INFO, Logger.parseLevel("loud", Log.INFO));
+        assertEquals(Log.INFO, Logger.parseLevel("42", Log.INFO));
+        assertEquals(Log.INFO, Logger.parseLevel("", Log.INFO));
+        assertEquals(Log.INFO, Logger.parseLevel(null, Log.INFO));
+    }
+
+    @Test
+    public void parseTagLevelsSkipsMalformedEntries() {
+        Map<String, Integer> levels = Logger.parseTagLevels("Camera2Hook=W; FileOutputHook = debug\nbad,=E,Empty=,Odd=loud");
+
+        assertEquals(2, levels.size());
+        assertEquals(Integer.valueOf(Log.WARN), levels.get("Camera2Hook"));
+        assertEquals(Integer.valueOf(Log.DEBUG), levels.get("FileOutputHook"));
+        assertTrue(Logger.parseTagLevels(null).isEmpty());
+    }
+
+    @Test
+    public void globalLevelGatesEveryTag() {
+        Logger.setLevels(Log.WARN, null);
+
+        assertFalse(Logger.isLoggable("Any", Log.DEBUG));
+        assertFalse(Logger.isLoggable("Any", Log.INFO));
+        assertTrue(Logger.isLoggable("Any", Log.WARN));
+        assertTrue(Logger.isLoggable("Any", Log.ERROR));
+    }
+
+    @Test
+    public void tagLevelOverridesGlobalInBothDirections() {
+        Logger.setLevels(Log.INFO, Logger.parseTagLevels("Verbose=D,Quiet=E"));
+
+        assertTrue(Logger.isLoggable("Verbose", Log.DEBUG));
+        assertFalse(Logger.isLoggable("Other", Log.DEBUG));
+        assertTrue(Logger.isLoggable("Other", Log.INFO));
+        assertFalse(Logger.isLoggable("Quiet", Log.WARN));
+        assertTrue(Logger.isLoggable("Quiet", Log.ERROR));
+    }
+
+    @Test
+    public void debugModeMapsToGlobalLevel() {
+        Logger.setDebugMode(false);
+        assertFalse(Logger.isDebugMode());
+        assertFalse(Logger.isLoggable("Any", Log.DEBUG));
+
+        Logger.setDebugMode(true);
+        assertTrue(Logger.isDebugMode());
+        assertTrue(Logger.isLoggable("Any", Log.DEBUG));
+    }
+}